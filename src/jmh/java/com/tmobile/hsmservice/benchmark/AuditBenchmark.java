@@ -0,0 +1,68 @@
+package com.tmobile.hsmservice.benchmark;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.tmobile.hsmservice.service.HsmAuditLog;
+import com.tmobile.hsmservice.service.HsmMetrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Cost an audit record adds to a request, to be compared with the sign
+ * benchmarks of {@link CryptoBenchmark}. Records which do not fit in the ring
+ * are dropped, so a writer falling behind shows up in hsm.audit.dropped and
+ * not in these timings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuditBenchmark {
+
+	private HsmAuditLog auditLog;
+
+	private Path directory;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("hsm-audit");
+		HsmMetrics hsmMetrics = new HsmMetrics();
+		ReflectionTestUtils.setField(hsmMetrics, "meterRegistry", new SimpleMeterRegistry());
+		auditLog = new HsmAuditLog();
+		ReflectionTestUtils.setField(auditLog, "hsmMetrics", hsmMetrics);
+		ReflectionTestUtils.setField(auditLog, "enabled", true);
+		ReflectionTestUtils.setField(auditLog, "directory", directory);
+		ReflectionTestUtils.setField(auditLog, "bufferSize", 65536);
+		ReflectionTestUtils.setField(auditLog, "fileSize", 64 << 20);
+		ReflectionTestUtils.setField(auditLog, "maxFiles", 2);
+		ReflectionTestUtils.setField(auditLog, "flushIntervalMs", 1000L);
+		auditLog.postConstructRoutine();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		auditLog.preDestroyRoutine();
+		try (var files = Files.list(directory)) {
+			for (Path file : files.toList())
+				Files.delete(file);
+		}
+		Files.delete(directory);
+	}
+
+	@Benchmark
+	public void record() {
+		auditLog.recordPkcs11("sign", 0, TokenState.RSA_LABEL, 1, System.nanoTime(), HsmAuditLog.SUCCESS);
+	}
+}
@@ -0,0 +1,89 @@
+package com.tmobile.hsmservice.benchmark;
+
+import java.util.HexFormat;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.AESSecretKey;
+import iaik.pkcs.pkcs11.objects.PrivateKey;
+import iaik.pkcs.pkcs11.objects.PublicKey;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * Sign and encrypt throughput per mechanism, one session per thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CryptoBenchmark {
+
+	// DigestInfo of a SHA-256 hash, as signed with CKM_RSA_PKCS for a hash computed in the JVM
+	private static final byte[] DIGEST_INFO = HexFormat.of()
+			.parseHex("3031300d060960864801650304020105000420" + "00".repeat(32));
+
+	@Param({ "64", "4096", "65536" })
+	public int payloadSize;
+
+	private Session session;
+
+	private PrivateKey privateKey;
+
+	private PublicKey publicKey;
+
+	private AESSecretKey aesKey;
+
+	private byte[] payload;
+
+	private byte[] iv;
+
+	@Setup(Level.Trial)
+	public void setUp(TokenState tokenState) throws TokenException {
+		session = tokenState.openSession();
+		privateKey = tokenState.hsmServiceUtil.getPrivateKey(session, TokenState.RSA_LABEL);
+		publicKey = tokenState.hsmServiceUtil.getPublicKey(session, TokenState.RSA_LABEL);
+		aesKey = tokenState.hsmServiceUtil.getSecretKey(session, TokenState.AES_LABEL);
+		payload = new byte[payloadSize];
+		ThreadLocalRandom.current().nextBytes(payload);
+		iv = new byte[16];
+	}
+
+	@Benchmark
+	public byte[] signRsaPkcsDigestInfo() throws TokenException {
+		session.signInit(Mechanism.get(PKCS11Constants.CKM_RSA_PKCS), privateKey);
+		return session.sign(DIGEST_INFO);
+	}
+
+	@Benchmark
+	public byte[] signSha256RsaPkcs() throws TokenException {
+		session.signInit(Mechanism.get(PKCS11Constants.CKM_SHA256_RSA_PKCS), privateKey);
+		return session.sign(payload);
+	}
+
+	@Benchmark
+	public byte[] encryptRsaPkcs() throws TokenException {
+		session.encryptInit(Mechanism.get(PKCS11Constants.CKM_RSA_PKCS), publicKey);
+		return session.encrypt(DIGEST_INFO);
+	}
+
+	@Benchmark
+	public byte[] encryptAesCbcPad() throws TokenException {
+		Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_AES_CBC_PAD);
+		mechanism.setParameters(new InitializationVectorParameters(iv));
+		session.encryptInit(mechanism, aesKey);
+		return session.encrypt(payload);
+	}
+}
@@ -0,0 +1,75 @@
+package com.tmobile.hsmservice.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.PrivateKey;
+import iaik.pkcs.pkcs11.objects.PublicKey;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+
+/**
+ * Key lookups by label through the object index against a search on the token,
+ * and enumeration of all objects, at the token sizes of {@link TokenState}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class KeyLookupBenchmark {
+
+	private Session session;
+
+	@Setup(Level.Trial)
+	public void setUp(TokenState tokenState) throws TokenException {
+		session = tokenState.openSession();
+	}
+
+	@Benchmark
+	public PrivateKey getPrivateKey(TokenState tokenState) throws TokenException {
+		return tokenState.hsmServiceUtil.getPrivateKey(session, TokenState.RSA_LABEL);
+	}
+
+	@Benchmark
+	public PublicKey getPublicKey(TokenState tokenState) throws TokenException {
+		return tokenState.hsmServiceUtil.getPublicKey(session, TokenState.RSA_LABEL);
+	}
+
+	@Benchmark
+	public Object findPrivateKeyOnToken() throws TokenException {
+		RSAPrivateKey template = new RSAPrivateKey();
+		template.getLabel().setCharArrayValue(TokenState.RSA_LABEL.toCharArray());
+		session.findObjectsInit(template);
+		try {
+			return session.findObjects(1);
+		} finally {
+			session.findObjectsFinal();
+		}
+	}
+
+	@Benchmark
+	public long[] enumerateObjects(TokenState tokenState) throws TokenException {
+		return tokenState.hsmServiceUtil.getObjectHandles(session);
+	}
+
+	@Benchmark
+	public int enumerateObjectsOneByOne() throws TokenException {
+		session.findObjectsInit(new iaik.pkcs.pkcs11.objects.Object());
+		int count = 0;
+		try {
+			while (session.findObjects(1).length > 0)
+				count++;
+		} finally {
+			session.findObjectsFinal();
+		}
+		return count;
+	}
+}
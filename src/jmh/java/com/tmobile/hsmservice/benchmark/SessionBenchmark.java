@@ -0,0 +1,83 @@
+package com.tmobile.hsmservice.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import iaik.pkcs.pkcs11.DefaultInitializeArgs;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+
+/**
+ * Cost of the per request session handling the session pool saves: opening and
+ * closing a session, and logging in and out. Login state is shared by all
+ * sessions of the token, so these run single threaded on a token of their own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(1)
+public class SessionBenchmark {
+
+	private Module module;
+
+	private Token token;
+
+	private Session session;
+
+	private char[] userPin;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		module = Module.getInstance(System.getProperty("hsm.benchmark.module", "/usr/lib/softhsm/libsofthsm2.so"));
+		module.initialize(new DefaultInitializeArgs(null, false, true));
+		String slotId = System.getProperty("hsm.benchmark.slot");
+		for (iaik.pkcs.pkcs11.Slot slot : module.getSlotList(Module.SlotRequirement.TOKEN_PRESENT)) {
+			if (slotId == null || slot.getSlotID() == Long.decode(slotId)) {
+				token = slot.getToken();
+				break;
+			}
+		}
+		userPin = System.getProperty("hsm.benchmark.pin", "1234").toCharArray();
+		session = token.openSession(Token.SessionType.SERIAL_SESSION, Token.SessionReadWriteBehavior.RO_SESSION, null,
+				null);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws TokenException {
+		session.closeSession();
+		module.finalize(null);
+	}
+
+	@Benchmark
+	public void openCloseSession() throws TokenException {
+		token.openSession(Token.SessionType.SERIAL_SESSION, Token.SessionReadWriteBehavior.RO_SESSION, null, null)
+				.closeSession();
+	}
+
+	@Benchmark
+	public void loginLogout() throws TokenException {
+		session.login(Session.UserType.USER, userPin);
+		session.logout();
+	}
+
+	@Benchmark
+	public void openLoginLogoutClose() throws TokenException {
+		Session requestSession = token.openSession(Token.SessionType.SERIAL_SESSION,
+				Token.SessionReadWriteBehavior.RO_SESSION, null, null);
+		requestSession.login(Session.UserType.USER, userPin);
+		requestSession.logout();
+		requestSession.closeSession();
+	}
+}
@@ -0,0 +1,149 @@
+package com.tmobile.hsmservice.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.tmobile.hsmservice.service.HsmMetrics;
+import com.tmobile.hsmservice.service.HsmObjectIndex;
+import com.tmobile.hsmservice.service.HsmServiceUtil;
+
+import iaik.pkcs.pkcs11.DefaultInitializeArgs;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Slot;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.AESSecretKey;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.objects.RSAPublicKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * SoftHSM2 token shared by the threads of a benchmark. The token is filled
+ * with tokenSize session AES keys besides the RSA key pair and AES key used by
+ * the benchmarks, all of which disappear when the module is finalized.
+ *
+ * Configured with the system properties hsm.benchmark.module (path of the
+ * PKCS11 library), hsm.benchmark.slot (id of the slot, defaults to the first
+ * slot with a token) and hsm.benchmark.pin (user pin).
+ */
+@State(Scope.Benchmark)
+public class TokenState {
+
+	static final String RSA_LABEL = "bench-rsa";
+
+	static final String AES_LABEL = "bench-aes";
+
+	@Param({ "10", "1000", "10000" })
+	public int tokenSize;
+
+	Module module;
+
+	Token token;
+
+	String userPin;
+
+	HsmServiceUtil hsmServiceUtil;
+
+	private Session ownerSession;
+
+	private final List<Session> threadSessions = new ArrayList<>();
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		module = Module.getInstance(System.getProperty("hsm.benchmark.module", "/usr/lib/softhsm/libsofthsm2.so"));
+		module.initialize(new DefaultInitializeArgs(null, false, true));
+		token = selectSlot(module).getToken();
+		userPin = System.getProperty("hsm.benchmark.pin", "1234");
+
+		ownerSession = token.openSession(Token.SessionType.SERIAL_SESSION, Token.SessionReadWriteBehavior.RW_SESSION,
+				null, null);
+		ownerSession.login(Session.UserType.USER, userPin.toCharArray());
+		createKeys(ownerSession);
+
+		HsmMetrics hsmMetrics = new HsmMetrics();
+		ReflectionTestUtils.setField(hsmMetrics, "meterRegistry", new SimpleMeterRegistry());
+		HsmObjectIndex hsmObjectIndex = new HsmObjectIndex();
+		ReflectionTestUtils.setField(hsmObjectIndex, "hsmMetrics", hsmMetrics);
+		ReflectionTestUtils.setField(hsmObjectIndex, "findBatchSize", 256);
+		hsmServiceUtil = new HsmServiceUtil();
+		ReflectionTestUtils.setField(hsmServiceUtil, "hsmObjectIndex", hsmObjectIndex);
+		ReflectionTestUtils.setField(hsmServiceUtil, "hsmMetrics", hsmMetrics);
+		ReflectionTestUtils.setField(hsmServiceUtil, "findBatchSize", 256);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws TokenException {
+		synchronized (threadSessions) {
+			for (Session session : threadSessions)
+				session.closeSession();
+		}
+		ownerSession.logout();
+		ownerSession.closeSession();
+		module.finalize(null);
+	}
+
+	/**
+	 * Open a RO session for a benchmark thread, closed with the token.
+	 */
+	Session openSession() throws TokenException {
+		Session session = token.openSession(Token.SessionType.SERIAL_SESSION,
+				Token.SessionReadWriteBehavior.RO_SESSION, null, null);
+		synchronized (threadSessions) {
+			threadSessions.add(session);
+		}
+		return session;
+	}
+
+	private Slot selectSlot(Module module) throws TokenException {
+		Slot[] slots = module.getSlotList(Module.SlotRequirement.TOKEN_PRESENT);
+		String slotId = System.getProperty("hsm.benchmark.slot");
+		for (Slot slot : slots) {
+			if (slotId == null || slot.getSlotID() == Long.decode(slotId))
+				return slot;
+		}
+		throw new IllegalStateException("No token found in slot " + slotId);
+	}
+
+	private void createKeys(Session session) throws TokenException {
+		for (int index = 0; index < tokenSize; index++)
+			session.generateKey(Mechanism.get(PKCS11Constants.CKM_AES_KEY_GEN), aesTemplate("bench-filler-" + index));
+		session.generateKey(Mechanism.get(PKCS11Constants.CKM_AES_KEY_GEN), aesTemplate(AES_LABEL));
+
+		RSAPublicKey publicKeyTemplate = new RSAPublicKey();
+		publicKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+		publicKeyTemplate.getVerify().setBooleanValue(Boolean.TRUE);
+		publicKeyTemplate.getEncrypt().setBooleanValue(Boolean.TRUE);
+		publicKeyTemplate.getLabel().setCharArrayValue(RSA_LABEL.toCharArray());
+		publicKeyTemplate.getPublicExponent().setByteArrayValue(new byte[] { 0x01, 0x00, 0x01 });
+		publicKeyTemplate.getModulusBits().setLongValue(2048L);
+		RSAPrivateKey privateKeyTemplate = new RSAPrivateKey();
+		privateKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+		privateKeyTemplate.getPrivate().setBooleanValue(Boolean.TRUE);
+		privateKeyTemplate.getSign().setBooleanValue(Boolean.TRUE);
+		privateKeyTemplate.getDecrypt().setBooleanValue(Boolean.TRUE);
+		privateKeyTemplate.getLabel().setCharArrayValue(RSA_LABEL.toCharArray());
+		session.generateKeyPair(Mechanism.get(PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN), publicKeyTemplate,
+				privateKeyTemplate);
+	}
+
+	private AESSecretKey aesTemplate(String label) {
+		AESSecretKey template = new AESSecretKey();
+		template.getToken().setBooleanValue(Boolean.FALSE);
+		template.getEncrypt().setBooleanValue(Boolean.TRUE);
+		template.getDecrypt().setBooleanValue(Boolean.TRUE);
+		template.getLabel().setCharArrayValue(label.toCharArray());
+		template.getValueLen().setLongValue(32L);
+		return template;
+	}
+}
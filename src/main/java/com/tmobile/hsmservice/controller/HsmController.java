@@ -1,25 +1,56 @@
 package com.tmobile.hsmservice.controller;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tmobile.hsmservice.dto.AesKeyDTO;
+import com.tmobile.hsmservice.dto.BatchDataDTO;
+import com.tmobile.hsmservice.dto.BatchItemResultDTO;
+import com.tmobile.hsmservice.dto.BinaryBatchDataDTO;
+import com.tmobile.hsmservice.dto.BinaryItemResultDTO;
+import com.tmobile.hsmservice.dto.BinarySignBatchDTO;
 import com.tmobile.hsmservice.dto.DataDTO;
+import com.tmobile.hsmservice.dto.EnvelopeDTO;
 import com.tmobile.hsmservice.dto.KeyDTO;
+import com.tmobile.hsmservice.dto.KeyGenJobDTO;
 import com.tmobile.hsmservice.dto.RSAKeyPairDTO;
+import com.tmobile.hsmservice.dto.SignBatchDTO;
+import com.tmobile.hsmservice.dto.SignatureDTO;
+import com.tmobile.hsmservice.dto.SlotCapabilitiesDTO;
+import com.tmobile.hsmservice.dto.VerificationDTO;
+import com.tmobile.hsmservice.dto.VerifyDTO;
+import com.tmobile.hsmservice.exception.StreamAbortedException;
+import com.tmobile.hsmservice.service.DigestAlgorithm;
+import com.tmobile.hsmservice.service.HsmEnvelopeService;
+import com.tmobile.hsmservice.service.HsmKeyGenJobService;
 import com.tmobile.hsmservice.service.HsmService;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 
 @RestController
@@ -31,26 +62,75 @@ public class HsmController {
 	@Autowired
 	private HsmService hsmService;
 
-	@Operation(summary = "Get list of objects i.e. keys present in a slot.")
+	@Autowired
+	private HsmEnvelopeService hsmEnvelopeService;
+
+	@Autowired
+	private HsmKeyGenJobService keyGenJobService;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Operation(summary = "Get the mechanisms supported by the tokens, with key size ranges and usages.")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Capabilities of the tokens."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id.")})
+	@GetMapping("/capabilities")
+	public ResponseEntity<List<SlotCapabilitiesDTO>> getCapabilities(@RequestParam(required = false) Long slotid) {
+		logger.info("Received request to get the capabilities of the tokens");
+		return new ResponseEntity<>(hsmService.getCapabilities(slotid), HttpStatus.OK);
+	}
+
+	@Operation(summary = "Get list of objects i.e. keys present in a slot, optionally a page at a time.")
 	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Found the keys."),
 			@ApiResponse(responseCode = "500", description = "Some error observed during retrieval of objects."),
-			@ApiResponse(responseCode = "400", description = "Invalid slot id.")})
+			@ApiResponse(responseCode = "400", description = "Invalid slot id or cursor.")})
 	@GetMapping("/objects")
 	public ResponseEntity<KeyDTO> getStoredObjects(
 			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
-			@NotNull(message = "Please provide slot id") @RequestParam long slotid) {
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@RequestParam(required = false) String cursor,
+			@Min(value = 0, message = "Please provide a positive limit") @RequestParam(defaultValue = "0") int limit) {
 		logger.info("******************Received request to retrieve objects from HSM");
-		KeyDTO keyDTO = hsmService.getObjects(userpin, slotid);
+		KeyDTO keyDTO = hsmService.getObjects(userpin, slotid, cursor, limit);
 		if (keyDTO == null)
 			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
 
 		return new ResponseEntity<>(keyDTO, HttpStatus.OK);
 	}
 
+	@Operation(summary = "Stream objects i.e. keys present in a slot as newline delimited JSON.")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Streamed the keys."),
+			@ApiResponse(responseCode = "500", description = "Some error observed during retrieval of objects."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id.")})
+	@GetMapping(value = "/objects", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public void streamStoredObjects(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			HttpServletResponse response) throws IOException {
+		logger.info("******************Received request to stream objects from HSM");
+		response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+		OutputStream outputStream = response.getOutputStream();
+		boolean retVal = hsmService.streamObjects(userpin, slotid, keyObject -> {
+			try {
+				outputStream.write(objectMapper.writeValueAsBytes(keyObject));
+				outputStream.write('\n');
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+
+		if (!retVal) {
+			if (response.isCommitted())
+				throw new StreamAbortedException("Streaming of objects of slot 0x" + Long.toHexString(slotid) + " failed");
+			response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+		}
+		outputStream.flush();
+	}
+
 	@Operation(summary = "Create RSA key pair in a slot")
 	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Created RSA Key pair successfully."),
 			@ApiResponse(responseCode = "500", description = "Some error observed during generation of RSA key pair."),
-			@ApiResponse(responseCode = "400", description = "Invalid slot id.")})
+			@ApiResponse(responseCode = "400", description = "Invalid slot id or reserved key label.")})
 	@PostMapping("/rsakey")
 	public ResponseEntity<RSAKeyPairDTO> saveRSAKeyPair(
 			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
@@ -65,6 +145,49 @@ public class HsmController {
 		return new ResponseEntity<>(rsaKeyPairDTO, HttpStatus.OK);
 	}
 
+	@Operation(summary = "Queue the generation of a RSA key pair in a slot, returning the id of the job")
+	@ApiResponses(value = { @ApiResponse(responseCode = "202", description = "Key generation job queued."),
+			@ApiResponse(responseCode = "429", description = "Too many key generation jobs pending."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id or reserved key label.")})
+	@PostMapping("/rsakey/jobs")
+	public ResponseEntity<KeyGenJobDTO> submitRSAKeyPairJob(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@NotNull(message = "Please provide key label") @RequestParam String label) {
+		logger.info("******************Received request to queue generation of RSA key pair");
+		String jobId = keyGenJobService.submit(slotid, userpin, label);
+
+		return new ResponseEntity<>(keyGenJobService.getStatus(jobId), HttpStatus.ACCEPTED);
+	}
+
+	@Operation(summary = "Get the status of a RSA key pair generation job, waiting up to waitms for it to finish")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Status of the job, with the key pair once it succeeded."),
+			@ApiResponse(responseCode = "400", description = "Unknown or expired job id.")})
+	@GetMapping("/rsakey/jobs/{jobid}")
+	public DeferredResult<ResponseEntity<KeyGenJobDTO>> getRSAKeyPairJob(@PathVariable String jobid,
+			@Min(value = 0, message = "Please provide a positive wait time")
+			@Max(value = 30000, message = "Please provide a wait time of at most 30000 ms")
+			@RequestParam(defaultValue = "0") long waitms) {
+		logger.info("******************Received request for status of key generation job {}", jobid);
+		KeyGenJobDTO status = keyGenJobService.getStatus(jobid);
+
+		DeferredResult<ResponseEntity<KeyGenJobDTO>> result = new DeferredResult<>(waitms);
+		if (waitms == 0 || isFinished(status)) {
+			result.setResult(new ResponseEntity<>(status, HttpStatus.OK));
+			return result;
+		}
+		result.onTimeout(
+				() -> result.setResult(new ResponseEntity<>(keyGenJobService.getStatus(jobid), HttpStatus.OK)));
+		keyGenJobService.whenDone(jobid)
+				.thenAccept(done -> result.setResult(new ResponseEntity<>(done, HttpStatus.OK)));
+		return result;
+	}
+
+	private boolean isFinished(KeyGenJobDTO status) {
+		return !HsmKeyGenJobService.JobStatus.PENDING.name().equals(status.status())
+				&& !HsmKeyGenJobService.JobStatus.RUNNING.name().equals(status.status());
+	}
+
 	@Operation(summary = "Encrypt and decrypt data using key provided")
 	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Data encrypted successfully."),
 			@ApiResponse(responseCode = "500", description = "Some error observed during data encryption."),
@@ -83,6 +206,42 @@ public class HsmController {
 		return new ResponseEntity<>(HttpStatus.OK);
 	}
 
+	@Operation(summary = "Encrypt raw bytes using the public key provided, returning the raw ciphertext")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Data encrypted successfully."),
+			@ApiResponse(responseCode = "500", description = "Some error observed during data encryption."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id or key label.")})
+	@PostMapping(value = "/encrypt", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public ResponseEntity<byte[]> encryptBinary(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@NotNull(message = "Please provide key label") @RequestParam String label, @RequestBody byte[] data) {
+		logger.info("******************Received request to encrypt {} bytes", data.length);
+		byte[] ciphertext = hsmService.encrypt(slotid, userpin, label, data);
+
+		if (ciphertext == null)
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+
+		return new ResponseEntity<>(ciphertext, HttpStatus.OK);
+	}
+
+	@Operation(summary = "Decrypt a raw ciphertext using the private key provided, returning the raw plaintext")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Data decrypted successfully."),
+			@ApiResponse(responseCode = "500", description = "Some error observed during data decryption."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id or key label.")})
+	@PostMapping(value = "/decrypt", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public ResponseEntity<byte[]> decryptBinary(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@NotNull(message = "Please provide key label") @RequestParam String label, @RequestBody byte[] ciphertext) {
+		logger.info("******************Received request to decrypt {} bytes", ciphertext.length);
+		byte[] plaintext = hsmService.decrypt(slotid, userpin, label, ciphertext);
+
+		if (plaintext == null)
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+
+		return new ResponseEntity<>(plaintext, HttpStatus.OK);
+	}
+
 	@Operation(summary = "Digitally sign the data using the key")
 	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Data signed successfully."),
 			@ApiResponse(responseCode = "500", description = "Some error observed during data signing."),
@@ -101,6 +260,260 @@ public class HsmController {
 		return new ResponseEntity<>(HttpStatus.OK);
 	}
 
+	@Operation(summary = "Digitally sign raw bytes using the key, returning the raw signature")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Data signed successfully."),
+			@ApiResponse(responseCode = "500", description = "Some error observed during data signing."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id.")})
+	@PostMapping(value = "/sign", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public ResponseEntity<byte[]> signBinary(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@NotNull(message = "Please provide key label") @RequestParam String label, @RequestBody byte[] data) {
+		logger.info("******************Received request to sign {} bytes digitally", data.length);
+		byte[] signature = hsmService.sign(slotid, userpin, label, data);
+
+		if (signature == null)
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+
+		return new ResponseEntity<>(signature, HttpStatus.OK);
+	}
+
+	@Operation(summary = "Digitally sign a document of any size, hashing it in the service and signing the hash using the key")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Document signed successfully."),
+			@ApiResponse(responseCode = "500", description = "Some error observed during document signing."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id, key label or hash algorithm.")})
+	@PostMapping(value = "/sign/digest", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public ResponseEntity<SignatureDTO> signDigest(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@NotNull(message = "Please provide key label") @RequestParam String label,
+			@RequestParam(defaultValue = "SHA-256") String hash, HttpServletRequest request) throws IOException {
+		logger.info("******************Received request to sign a document digest");
+		DigestAlgorithm algorithm = DigestAlgorithm.of(hash);
+		String signature = hsmService.signDigest(slotid, userpin, label, algorithm, request.getInputStream());
+
+		if (signature == null)
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+
+		return new ResponseEntity<>(new SignatureDTO(algorithm.name() + "withRSA", signature), HttpStatus.OK);
+	}
+
+	@Operation(summary = "Verify a digital signature using the public key, without using the HSM")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Signature verified, see the verification result."),
+			@ApiResponse(responseCode = "500", description = "Some error observed during signature verification."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id or key label.")})
+	@PostMapping("/verify")
+	public ResponseEntity<VerificationDTO> verifyData(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@NotNull(message = "Please provide key label") @RequestParam String label,
+			@Valid @RequestBody VerifyDTO verifyDTO) {
+		logger.info("******************Received request to verify a digital signature");
+		Boolean verified = hsmService.verifyData(slotid, userpin, label, verifyDTO.data(), verifyDTO.signature());
+
+		if (verified == null)
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+
+		return new ResponseEntity<>(new VerificationDTO(verified), HttpStatus.OK);
+	}
+
+	@Operation(summary = "Digitally sign many payloads using one or more keys")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Batch processed, see the result or error of every item."),
+			@ApiResponse(responseCode = "500", description = "Some error observed during batch signing."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id or batch.")})
+	@PostMapping("/sign/batch")
+	public ResponseEntity<List<BatchItemResultDTO>> signDataBatch(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@RequestParam(required = false) String label, @Valid @RequestBody SignBatchDTO signBatchDTO) {
+		logger.info("******************Received request to sign a batch of {} items", signBatchDTO.items().size());
+		List<BatchItemResultDTO> results = hsmService.signDataBatch(slotid, userpin, label, signBatchDTO.items());
+
+		if (results == null)
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+
+		return new ResponseEntity<>(results, HttpStatus.OK);
+	}
+
+	@Operation(summary = "Digitally sign many raw payloads using one or more keys, in CBOR")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Batch processed, see the raw signature or error of every item."),
+			@ApiResponse(responseCode = "500", description = "Some error observed during batch signing."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id or batch.")})
+	@PostMapping(value = "/sign/batch", consumes = MediaType.APPLICATION_CBOR_VALUE, produces = MediaType.APPLICATION_CBOR_VALUE)
+	public ResponseEntity<List<BinaryItemResultDTO>> signBatch(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@RequestParam(required = false) String label, @Valid @RequestBody BinarySignBatchDTO signBatchDTO) {
+		logger.info("******************Received request to sign a binary batch of {} items", signBatchDTO.items().size());
+		List<BinaryItemResultDTO> results = hsmService.signBatch(slotid, userpin, label, signBatchDTO.items());
+
+		if (results == null)
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+
+		return new ResponseEntity<>(results, HttpStatus.OK);
+	}
+
+	@Operation(summary = "Encrypt many payloads using the public key provided")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Batch processed, see the Base64 encoded ciphertext or error of every item."),
+			@ApiResponse(responseCode = "500", description = "Some error observed during batch encryption."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id, key label or batch.")})
+	@PostMapping("/encrypt/batch")
+	public ResponseEntity<List<BatchItemResultDTO>> encryptDataBatch(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@NotNull(message = "Please provide key label") @RequestParam String label,
+			@Valid @RequestBody BatchDataDTO batchDataDTO) {
+		logger.info("******************Received request to encrypt a batch of {} items", batchDataDTO.data().size());
+		List<BatchItemResultDTO> results = hsmService.encryptDataBatch(slotid, userpin, label, batchDataDTO.data());
+
+		if (results == null)
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+
+		return new ResponseEntity<>(results, HttpStatus.OK);
+	}
+
+	@Operation(summary = "Encrypt many raw payloads using the public key provided, in CBOR")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Batch processed, see the raw ciphertext or error of every item."),
+			@ApiResponse(responseCode = "500", description = "Some error observed during batch encryption."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id, key label or batch.")})
+	@PostMapping(value = "/encrypt/batch", consumes = MediaType.APPLICATION_CBOR_VALUE, produces = MediaType.APPLICATION_CBOR_VALUE)
+	public ResponseEntity<List<BinaryItemResultDTO>> encryptBatch(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@NotNull(message = "Please provide key label") @RequestParam String label,
+			@Valid @RequestBody BinaryBatchDataDTO batchDataDTO) {
+		logger.info("******************Received request to encrypt a binary batch of {} items", batchDataDTO.data().size());
+		List<BinaryItemResultDTO> results = hsmService.encryptBatch(slotid, userpin, label, batchDataDTO.data());
+
+		if (results == null)
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+
+		return new ResponseEntity<>(results, HttpStatus.OK);
+	}
+
+	@Operation(summary = "Decrypt many Base64 encoded ciphertexts using the private key provided")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Batch processed, see the plaintext or error of every item."),
+			@ApiResponse(responseCode = "500", description = "Some error observed during batch decryption."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id, key label or batch.")})
+	@PostMapping("/decrypt/batch")
+	public ResponseEntity<List<BatchItemResultDTO>> decryptDataBatch(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@NotNull(message = "Please provide key label") @RequestParam String label,
+			@Valid @RequestBody BatchDataDTO batchDataDTO) {
+		logger.info("******************Received request to decrypt a batch of {} items", batchDataDTO.data().size());
+		List<BatchItemResultDTO> results = hsmService.decryptDataBatch(slotid, userpin, label, batchDataDTO.data());
+
+		if (results == null)
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+
+		return new ResponseEntity<>(results, HttpStatus.OK);
+	}
+
+	@Operation(summary = "Decrypt many raw ciphertexts using the private key provided, in CBOR")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Batch processed, see the raw plaintext or error of every item."),
+			@ApiResponse(responseCode = "500", description = "Some error observed during batch decryption."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id, key label or batch.")})
+	@PostMapping(value = "/decrypt/batch", consumes = MediaType.APPLICATION_CBOR_VALUE, produces = MediaType.APPLICATION_CBOR_VALUE)
+	public ResponseEntity<List<BinaryItemResultDTO>> decryptBatch(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@NotNull(message = "Please provide key label") @RequestParam String label,
+			@Valid @RequestBody BinaryBatchDataDTO batchDataDTO) {
+		logger.info("******************Received request to decrypt a binary batch of {} items", batchDataDTO.data().size());
+		List<BinaryItemResultDTO> results = hsmService.decryptBatch(slotid, userpin, label, batchDataDTO.data());
+
+		if (results == null)
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+
+		return new ResponseEntity<>(results, HttpStatus.OK);
+	}
+
+	@Operation(summary = "Encrypt data in an envelope, wrapping the data key with the key encryption key provided")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Data encrypted in an envelope successfully."),
+			@ApiResponse(responseCode = "500", description = "Some error observed during envelope encryption."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id or key label.")})
+	@PostMapping("/envelope/encrypt")
+	public ResponseEntity<EnvelopeDTO> encryptEnvelope(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@NotNull(message = "Please provide key label") @RequestParam String label,
+			@Valid @RequestBody DataDTO dataDTO) {
+		logger.info("******************Received request to encrypt data in an envelope");
+		EnvelopeDTO envelopeDTO = hsmEnvelopeService.encrypt(slotid, userpin, label, dataDTO.data());
+
+		if (envelopeDTO == null)
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+
+		return new ResponseEntity<>(envelopeDTO, HttpStatus.OK);
+	}
+
+	@Operation(summary = "Decrypt data from an envelope")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Envelope decrypted successfully."),
+			@ApiResponse(responseCode = "500", description = "Some error observed during envelope decryption."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id or envelope.")})
+	@PostMapping("/envelope/decrypt")
+	public ResponseEntity<DataDTO> decryptEnvelope(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@Valid @RequestBody EnvelopeDTO envelopeDTO) {
+		logger.info("******************Received request to decrypt data from an envelope");
+		String data = hsmEnvelopeService.decrypt(slotid, userpin, envelopeDTO);
+
+		if (data == null)
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+
+		return new ResponseEntity<>(new DataDTO(data), HttpStatus.OK);
+	}
+
+	@Operation(summary = "Encrypt a stream under a data key wrapped by the AES key provided, in AES-GCM sealed chunks")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Stream encrypted successfully."),
+			@ApiResponse(responseCode = "500", description = "Some error observed during stream encryption."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id or key label.")})
+	@PostMapping(value = "/aes/encrypt/stream", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public void encryptStream(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@NotNull(message = "Please provide key label") @RequestParam String label,
+			HttpServletRequest request, HttpServletResponse response) throws IOException {
+		logger.info("******************Received request to encrypt a stream");
+		response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+		boolean retVal = hsmEnvelopeService.encryptStream(slotid, userpin, label, request.getInputStream(),
+				response.getOutputStream());
+
+		if (!retVal) {
+			if (response.isCommitted())
+				throw new StreamAbortedException("Encryption of stream with key " + label + " failed");
+			response.resetBuffer();
+			response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+		}
+		response.flushBuffer();
+	}
+
+	@Operation(summary = "Decrypt a stream encrypted by /aes/encrypt/stream, releasing each chunk once it verifies")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Stream decrypted successfully."),
+			@ApiResponse(responseCode = "500", description = "Some error observed during stream decryption."),
+			@ApiResponse(responseCode = "400", description = "Invalid slot id or key label.")})
+	@PostMapping(value = "/aes/decrypt/stream", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public void decryptStream(
+			@NotNull(message = "Please provide user pin") @RequestParam String userpin,
+			@NotNull(message = "Please provide slot id") @RequestParam long slotid,
+			@NotNull(message = "Please provide key label") @RequestParam String label,
+			HttpServletRequest request, HttpServletResponse response) throws IOException {
+		logger.info("******************Received request to decrypt a stream");
+		response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+		boolean retVal = hsmEnvelopeService.decryptStream(slotid, userpin, label, request.getInputStream(),
+				response.getOutputStream());
+
+		if (!retVal) {
+			if (response.isCommitted())
+				throw new StreamAbortedException("Decryption of stream with key " + label + " failed");
+			response.resetBuffer();
+			response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+		}
+		response.flushBuffer();
+	}
+
 	@Operation(summary = "Create AES key in a slot")
 	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Created AES Key successfully."),
 			@ApiResponse(responseCode = "500", description = "Some error observed during generation of AES key."),
@@ -120,5 +533,4 @@ public class HsmController {
 		return new ResponseEntity<>(aesKeyDTO, HttpStatus.OK);
 
 	}
-
 }
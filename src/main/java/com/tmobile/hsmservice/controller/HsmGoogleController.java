@@ -2,11 +2,13 @@ package com.tmobile.hsmservice.controller;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -15,8 +17,6 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import com.google.cloud.kms.v1.CryptoKey;
-import com.google.cloud.kms.v1.KeyManagementServiceClient.ListCryptoKeysPagedResponse;
-import com.google.cloud.kms.v1.KeyManagementServiceClient.ListKeyRingsPagedResponse;
 import com.google.cloud.kms.v1.KeyRing;
 import com.tmobile.hsmservice.dto.CryptoKeyDTO;
 import com.tmobile.hsmservice.dto.DataDTO;
@@ -50,10 +50,12 @@ public class HsmGoogleController {
 	@GetMapping("/keyring")
 	public ResponseEntity<List<KeyRingDTO>> getKeyRing() {
 		logger.info("Received request to get key rings");
-		ListKeyRingsPagedResponse pagedResponse = hsmGoogleService.getKeyRings();
+		List<KeyRing> keyRingList = hsmGoogleService.getKeyRings();
+		if (keyRingList == null)
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
 
 		List<KeyRingDTO> keyrings = new ArrayList<>();
-		for (KeyRing keyRing : pagedResponse.iterateAll()) {
+		for (KeyRing keyRing : keyRingList) {
 			KeyRingDTO keyRingDTO = new KeyRingDTO(keyRing.getName());
 			keyrings.add(keyRingDTO);
 			logger.info("name: {}", keyRing.getName());
@@ -129,10 +131,12 @@ public class HsmGoogleController {
 	public ResponseEntity<List<CryptoKeyDTO>> getCryptoKeys(
 			@NotNull(message = "Please provide key ring id") @RequestParam String keyringId) {
 		logger.info("Received request to get crypto keys");
-		ListCryptoKeysPagedResponse pagedResponse = hsmGoogleService.getCryptoKeys(keyringId);
+		List<CryptoKey> cryptoKeyList = hsmGoogleService.getCryptoKeys(keyringId);
+		if (cryptoKeyList == null)
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
 
 		List<CryptoKeyDTO> cryptoKeys = new ArrayList<>();
-		for (CryptoKey cryptoKey : pagedResponse.iterateAll()) {
+		for (CryptoKey cryptoKey : cryptoKeyList) {
 			logger.info("name: {}", cryptoKey.getName());
 			CryptoKeyDTO cryptoKeyDTO = new CryptoKeyDTO(cryptoKey.getName(), cryptoKey.getPurpose().name(),
 					cryptoKey.getVersionTemplate().getAlgorithm().name(),
@@ -171,6 +175,46 @@ public class HsmGoogleController {
 		return new ResponseEntity<>(HttpStatus.OK);
 	}
 
+	/**
+	 * Encrypt raw bytes using Symmetric key in a given Project and Location.
+	 * 
+	 * @param keyringid
+	 * @param keyid
+	 * @param data
+	 * @return the raw ciphertext
+	 */
+	@Operation(summary = "Encrypt raw bytes using AES key from Google Cloud HSM, returning the raw ciphertext.")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Encrypted data using AES key from Google Cloud HSM successfully."),
+			@ApiResponse(responseCode = "500", description = "Some error observed encryption of data."),
+			@ApiResponse(responseCode = "503", description = "Request timed out.")})
+	@PostMapping(value = "/encrypt", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public CompletableFuture<ResponseEntity<byte[]>> encryptBinary(
+			@NotNull(message = "Please provide key ring id") @RequestParam String keyringid,
+			@NotNull(message = "Please provide key id") @RequestParam String keyid, @RequestBody byte[] data) {
+		logger.info("Received request to encrypt {} bytes", data.length);
+		return hsmGoogleService.encryptAsync(keyringid, keyid, data).thenApply(this::toBinaryResponse);
+	}
+
+	/**
+	 * Decrypt raw bytes using Symmetric key in a given Project and Location.
+	 * 
+	 * @param keyringid
+	 * @param keyid
+	 * @param ciphertext
+	 * @return the raw plaintext
+	 */
+	@Operation(summary = "Decrypt a raw ciphertext using AES key from Google Cloud HSM, returning the raw plaintext.")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Decrypted data using AES key from Google Cloud HSM successfully."),
+			@ApiResponse(responseCode = "500", description = "Some error observed decryption of data."),
+			@ApiResponse(responseCode = "503", description = "Request timed out.")})
+	@PostMapping(value = "/decrypt", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public CompletableFuture<ResponseEntity<byte[]>> decryptBinary(
+			@NotNull(message = "Please provide key ring id") @RequestParam String keyringid,
+			@NotNull(message = "Please provide key id") @RequestParam String keyid, @RequestBody byte[] ciphertext) {
+		logger.info("Received request to decrypt {} bytes", ciphertext.length);
+		return hsmGoogleService.decryptAsync(keyringid, keyid, ciphertext).thenApply(this::toBinaryResponse);
+	}
+
 	/**
 	 * Encrypt data using RSA key in a given Project and Location.
 	 * 
@@ -222,4 +266,32 @@ public class HsmGoogleController {
 
 		return new ResponseEntity<>(HttpStatus.OK);
 	}
+
+	/**
+	 * Digitally sign raw bytes using RSA key in a given Project and Location.
+	 * 
+	 * @param keyringid
+	 * @param keyid
+	 * @param data
+	 * @return the raw signature
+	 */
+	@Operation(summary = "Digitally sign raw bytes using key from Google Cloud HSM, returning the raw signature.")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "Signing data using key from Google Cloud HSM is successfull."),
+			@ApiResponse(responseCode = "500", description = "Some error observed data signing."),
+			@ApiResponse(responseCode = "503", description = "Request timed out.")})
+	@PostMapping(value = "/sign", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public CompletableFuture<ResponseEntity<byte[]>> signBinary(
+			@NotNull(message = "Please provide key ring id") @RequestParam String keyringid,
+			@NotNull(message = "Please provide key id") @RequestParam String keyid, @RequestBody byte[] data) {
+		logger.info("Received request to digitially sign {} bytes", data.length);
+		return hsmGoogleService.signAsync(keyringid, keyid, data).thenApply(this::toBinaryResponse);
+	}
+
+	// the services complete with null after logging the error
+	private ResponseEntity<byte[]> toBinaryResponse(byte[] body) {
+		if (body == null)
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+
+		return new ResponseEntity<>(body, HttpStatus.OK);
+	}
 }
@@ -0,0 +1,12 @@
+package com.tmobile.hsmservice.dto;
+
+public record BatchItemResultDTO(int index, String result, String error) {
+
+	public static BatchItemResultDTO success(int index, String result) {
+		return new BatchItemResultDTO(index, result, null);
+	}
+
+	public static BatchItemResultDTO failure(int index, String error) {
+		return new BatchItemResultDTO(index, null, error);
+	}
+}
@@ -0,0 +1,10 @@
+package com.tmobile.hsmservice.dto;
+
+import java.util.List;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+
+public record BinaryBatchDataDTO(
+		@NotEmpty(message = "Please provide data to be processed") List<@NotNull(message = "Please provide data to be processed") byte[]> data) {
+}
@@ -0,0 +1,12 @@
+package com.tmobile.hsmservice.dto;
+
+public record BinaryItemResultDTO(int index, byte[] result, String error) {
+
+	public static BinaryItemResultDTO success(int index, byte[] result) {
+		return new BinaryItemResultDTO(index, result, null);
+	}
+
+	public static BinaryItemResultDTO failure(int index, String error) {
+		return new BinaryItemResultDTO(index, null, error);
+	}
+}
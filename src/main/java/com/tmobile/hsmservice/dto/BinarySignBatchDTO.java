@@ -0,0 +1,10 @@
+package com.tmobile.hsmservice.dto;
+
+import java.util.List;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+
+public record BinarySignBatchDTO(
+		@NotEmpty(message = "Please provide items to be signed") List<@Valid BinarySignItemDTO> items) {
+}
@@ -0,0 +1,6 @@
+package com.tmobile.hsmservice.dto;
+
+import jakarta.validation.constraints.NotNull;
+
+public record BinarySignItemDTO(String label, @NotNull(message = "Please provide data to be signed") byte[] data) {
+}
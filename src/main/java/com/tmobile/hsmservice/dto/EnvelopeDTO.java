@@ -0,0 +1,10 @@
+package com.tmobile.hsmservice.dto;
+
+import jakarta.validation.constraints.NotNull;
+
+public record EnvelopeDTO(@NotNull(message = "Please provide key encryption key label") String keklabel,
+		@NotNull(message = "Please provide key wrapping algorithm") String algorithm,
+		@NotNull(message = "Please provide wrapped data key") String wrappedkey,
+		@NotNull(message = "Please provide initialization vector") String iv,
+		@NotNull(message = "Please provide ciphertext") String ciphertext) {
+}
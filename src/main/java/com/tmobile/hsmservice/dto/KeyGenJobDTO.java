@@ -0,0 +1,4 @@
+package com.tmobile.hsmservice.dto;
+
+public record KeyGenJobDTO(String jobid, String status, RSAKeyPairDTO keypair, String error) {
+}
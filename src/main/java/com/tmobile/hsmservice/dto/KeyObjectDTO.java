@@ -0,0 +1,5 @@
+package com.tmobile.hsmservice.dto;
+
+public record KeyObjectDTO(String type, char[] label) {
+
+}
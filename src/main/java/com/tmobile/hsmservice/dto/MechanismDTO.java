@@ -0,0 +1,6 @@
+package com.tmobile.hsmservice.dto;
+
+import java.util.List;
+
+public record MechanismDTO(String name, long minkeysize, long maxkeysize, boolean hardware, List<String> usages) {
+}
@@ -0,0 +1,9 @@
+package com.tmobile.hsmservice.dto;
+
+import java.util.List;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+
+public record SignBatchDTO(@NotEmpty(message = "Please provide items to be signed") List<@Valid SignItemDTO> items) {
+}
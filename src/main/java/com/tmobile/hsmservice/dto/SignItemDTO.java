@@ -0,0 +1,6 @@
+package com.tmobile.hsmservice.dto;
+
+import jakarta.validation.constraints.NotNull;
+
+public record SignItemDTO(String label, @NotNull(message = "Please provide data to be signed") String data) {
+}
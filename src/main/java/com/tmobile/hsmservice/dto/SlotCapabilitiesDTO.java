@@ -0,0 +1,6 @@
+package com.tmobile.hsmservice.dto;
+
+import java.util.List;
+
+public record SlotCapabilitiesDTO(String slotid, String tokenlabel, List<MechanismDTO> mechanisms) {
+}
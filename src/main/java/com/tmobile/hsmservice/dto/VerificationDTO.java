@@ -0,0 +1,4 @@
+package com.tmobile.hsmservice.dto;
+
+public record VerificationDTO(boolean verified) {
+}
@@ -0,0 +1,7 @@
+package com.tmobile.hsmservice.dto;
+
+import jakarta.validation.constraints.NotNull;
+
+public record VerifyDTO(@NotNull(message = "Please provide data that was signed") String data,
+		@NotNull(message = "Please provide the Base64 encoded signature") String signature) {
+}
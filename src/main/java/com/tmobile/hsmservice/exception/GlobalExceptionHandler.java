@@ -8,7 +8,9 @@ import java.util.NoSuchElementException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
 import org.springframework.validation.ObjectError;
@@ -17,8 +19,10 @@ import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
 import org.springframework.web.method.annotation.HandlerMethodValidationException;
 
+import com.google.api.gax.rpc.ApiException;
 import com.google.gson.JsonObject;
 import io.grpc.StatusRuntimeException;
 import jakarta.validation.ConstraintViolation;
@@ -107,11 +111,50 @@ public class GlobalExceptionHandler {
 	@ResponseStatus(HttpStatus.BAD_REQUEST)
     @ExceptionHandler(NoSuchElementException.class)
     public ResponseEntity<String> handleExceptions(NoSuchElementException ex) {
-		logger.info("NoSuchElementException observed");
-		ex.printStackTrace();
+		logger.info("NoSuchElementException observed, message: {}", ex.getMessage());
 		JsonObject jsonObject = new JsonObject();
 		jsonObject.addProperty("message", ex.getMessage());
 		return new ResponseEntity<>(jsonObject.toString(), HttpStatus.BAD_REQUEST);
 		
 	}
+
+	@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+	@ExceptionHandler(SessionUnavailableException.class)
+	public ResponseEntity<String> handleExceptions(SessionUnavailableException ex) {
+		logger.info("SessionUnavailableException observed");
+		JsonObject jsonObject = new JsonObject();
+		jsonObject.addProperty("message", ex.getMessage());
+		return new ResponseEntity<>(jsonObject.toString(), HttpStatus.SERVICE_UNAVAILABLE);
+	}
+
+	@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+	@ExceptionHandler(HsmOverloadedException.class)
+	public ResponseEntity<String> handleExceptions(HsmOverloadedException ex) {
+		logger.info("HsmOverloadedException observed");
+		JsonObject jsonObject = new JsonObject();
+		jsonObject.addProperty("message", ex.getMessage());
+		return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+				.header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+				.body(jsonObject.toString());
+	}
+
+	@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+	@ExceptionHandler(AsyncRequestTimeoutException.class)
+	public ResponseEntity<String> handleExceptions(AsyncRequestTimeoutException ex) {
+		logger.info("AsyncRequestTimeoutException observed");
+		JsonObject jsonObject = new JsonObject();
+		jsonObject.addProperty("message", "Request not completed within spring.mvc.async.request-timeout");
+		return new ResponseEntity<>(jsonObject.toString(), HttpStatus.SERVICE_UNAVAILABLE);
+	}
+
+	// failed KMS RPCs of the async endpoints, e.g. 499 for a cancelled RPC, hence
+	// HttpStatusCode rather than HttpStatus
+	@ExceptionHandler(ApiException.class)
+	public ResponseEntity<String> handleExceptions(ApiException ex) {
+		logger.info("ApiException observed, code: {}", ex.getStatusCode().getCode());
+		JsonObject jsonObject = new JsonObject();
+		jsonObject.addProperty("message", ex.getMessage());
+		return new ResponseEntity<>(jsonObject.toString(),
+				HttpStatusCode.valueOf(ex.getStatusCode().getCode().getHttpStatusCode()));
+	}
 }
@@ -0,0 +1,21 @@
+package com.tmobile.hsmservice.exception;
+
+/**
+ * Thrown when a slot is at its concurrency limit and the request could not be
+ * queued, so the client should retry later.
+ */
+public class HsmOverloadedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long retryAfterSeconds;
+
+	public HsmOverloadedException(String message, long retryAfterSeconds) {
+		super(message);
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+}
@@ -0,0 +1,15 @@
+package com.tmobile.hsmservice.exception;
+
+/**
+ * Thrown when the token of a slot does not support a mechanism for an
+ * operation, or not with the requested key size, so the request is rejected
+ * before a session is used.
+ */
+public class MechanismNotSupportedException extends IllegalArgumentException {
+
+	private static final long serialVersionUID = 1L;
+
+	public MechanismNotSupportedException(String message) {
+		super(message);
+	}
+}
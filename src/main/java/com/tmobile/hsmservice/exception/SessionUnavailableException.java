@@ -0,0 +1,15 @@
+package com.tmobile.hsmservice.exception;
+
+/**
+ * Thrown when no PKCS11 session could be borrowed from the session pool of a
+ * slot within the configured timeout, or a shared load of {@link
+ * com.tmobile.hsmservice.service.HsmSingleFlight} did not complete in time.
+ */
+public class SessionUnavailableException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public SessionUnavailableException(String message) {
+		super(message);
+	}
+}
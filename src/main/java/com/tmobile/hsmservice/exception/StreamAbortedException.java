@@ -0,0 +1,16 @@
+package com.tmobile.hsmservice.exception;
+
+/**
+ * Thrown by streaming endpoints which failed after the response was committed.
+ * It is deliberately not mapped by {@link GlobalExceptionHandler}: the servlet
+ * container closes the connection instead of ending the body normally, so the
+ * client sees a truncated response rather than a complete 200.
+ */
+public class StreamAbortedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public StreamAbortedException(String message) {
+		super(message);
+	}
+}
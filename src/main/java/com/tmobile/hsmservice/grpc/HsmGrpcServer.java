@@ -0,0 +1,110 @@
+package com.tmobile.hsmservice.grpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import io.grpc.Grpc;
+import io.grpc.InsecureServerCredentials;
+import io.grpc.Server;
+import io.grpc.ServerCredentials;
+import io.grpc.ServerInterceptors;
+import io.grpc.TlsServerCredentials;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * gRPC server on hsm.grpc.port next to the REST endpoints, serving
+ * {@link HsmGrpcService} over HTTP/2, started only if hsm.grpc.enabled is set.
+ * TLS uses the key store of the REST endpoints, server.ssl.key-store.
+ */
+@Component
+public class HsmGrpcServer {
+
+	private Logger logger = LoggerFactory.getLogger(HsmGrpcServer.class);
+
+	@Value("${hsm.grpc.enabled:false}")
+	private boolean enabled;
+
+	@Value("${hsm.grpc.port:9443}")
+	private int port;
+
+	@Value("${hsm.grpc.use-plaintext:false}")
+	private boolean usePlaintext;
+
+	@Value("${hsm.grpc.shutdown-timeout-ms:5000}")
+	private long shutdownTimeoutMs;
+
+	@Value("${server.ssl.key-store:}")
+	private Resource keyStore;
+
+	@Value("${server.ssl.key-store-password:}")
+	private String keyStorePassword;
+
+	@Value("${server.ssl.key-store-type:PKCS12}")
+	private String keyStoreType;
+
+	@Autowired
+	private HsmGrpcService hsmGrpcService;
+
+	private Server server;
+
+	private ExecutorService executor;
+
+	@PostConstruct
+	public void postConstructRoutine() throws IOException, GeneralSecurityException {
+		if (!enabled)
+			return;
+		// calls block on the tokens and KMS, virtual threads are enough
+		executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("hsm-grpc-call-", 0).factory());
+		server = Grpc.newServerBuilderForPort(port, credentials())
+				.addService(ServerInterceptors.intercept(hsmGrpcService, hsmGrpcService.peerInterceptor()))
+				.executor(executor).build().start();
+		logger.info("gRPC server started on port {}", server.getPort());
+	}
+
+	@PreDestroy
+	public void preDestroyRoutine() throws InterruptedException {
+		if (server == null)
+			return;
+		// let running calls finish before the services below are destroyed
+		server.shutdown();
+		if (!server.awaitTermination(shutdownTimeoutMs, TimeUnit.MILLISECONDS))
+			server.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Port the server is bound to, e.g. when hsm.grpc.port is 0.
+	 */
+	public int getPort() {
+		return server.getPort();
+	}
+
+	private ServerCredentials credentials() throws IOException, GeneralSecurityException {
+		if (usePlaintext)
+			return InsecureServerCredentials.create();
+
+		KeyStore store = KeyStore.getInstance(keyStoreType);
+		char[] password = keyStorePassword.toCharArray();
+		try (InputStream in = keyStore.getInputStream()) {
+			store.load(in, password);
+		}
+		KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagerFactory.init(store, password);
+		return TlsServerCredentials.newBuilder().keyManager(keyManagerFactory.getKeyManagers()).build();
+	}
+}
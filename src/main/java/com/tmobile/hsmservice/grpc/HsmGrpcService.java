@@ -0,0 +1,295 @@
+package com.tmobile.hsmservice.grpc;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import com.tmobile.hsmservice.exception.HsmOverloadedException;
+import com.tmobile.hsmservice.exception.SessionUnavailableException;
+import com.tmobile.hsmservice.service.HsmAuditLog;
+import com.tmobile.hsmservice.service.HsmGoogleService;
+import com.tmobile.hsmservice.service.HsmService;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Grpc;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * gRPC front end of the sign, encrypt and decrypt operations of the tokens and
+ * of Cloud KMS. Unary calls fail with a status mapped like the REST errors of
+ * GlobalExceptionHandler. Requests of a stream run concurrently, at most
+ * hsm.grpc.max-in-flight per stream, and their failures are answered in the
+ * response so the stream stays open.
+ */
+@Component
+public class HsmGrpcService extends HsmGrpc.HsmImplBase {
+
+	private Logger logger = LoggerFactory.getLogger(HsmGrpcService.class);
+
+	private static final Context.Key<String> PEER = Context.key("hsm-peer");
+
+	@Value("${hsm.grpc.max-in-flight:64}")
+	private int maxInFlight;
+
+	@Autowired
+	private HsmService hsmService;
+
+	@Autowired
+	private HsmGoogleService hsmGoogleService;
+
+	// requests of a stream only wait for the token or KMS, virtual threads are enough
+	private final ExecutorService streamExecutor = Executors
+			.newThreadPerTaskExecutor(Thread.ofVirtual().name("hsm-grpc-", 0).factory());
+
+	@PreDestroy
+	public void preDestroyRoutine() {
+		streamExecutor.shutdownNow();
+	}
+
+	/**
+	 * Interceptor recording the address of the peer of each call, which is audited
+	 * as the caller.
+	 */
+	public ServerInterceptor peerInterceptor() {
+		return new ServerInterceptor() {
+
+			@Override
+			public <Q, R> ServerCall.Listener<Q> interceptCall(ServerCall<Q, R> call, Metadata headers,
+					ServerCallHandler<Q, R> next) {
+				SocketAddress address = call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
+				String peer = address instanceof InetSocketAddress inetAddress
+						? inetAddress.getAddress().getHostAddress()
+						: String.valueOf(address);
+				return Contexts.interceptCall(Context.current().withValue(PEER, peer), call, headers, next);
+			}
+		};
+	}
+
+	@Override
+	public void sign(SignRequest request, StreamObserver<SignResponse> responseObserver) {
+		unary(request, responseObserver, this::sign, PEER.get());
+	}
+
+	@Override
+	public void encrypt(EncryptRequest request, StreamObserver<EncryptResponse> responseObserver) {
+		unary(request, responseObserver, this::encrypt, PEER.get());
+	}
+
+	@Override
+	public void decrypt(DecryptRequest request, StreamObserver<DecryptResponse> responseObserver) {
+		unary(request, responseObserver, this::decrypt, PEER.get());
+	}
+
+	@Override
+	public StreamObserver<SignRequest> signStream(StreamObserver<SignResponse> responseObserver) {
+		return new ConcurrentStream<>(responseObserver, PEER.get(), this::sign,
+				(request, error) -> SignResponse.newBuilder().setId(request.getId()).setError(error).build());
+	}
+
+	@Override
+	public StreamObserver<EncryptRequest> encryptStream(StreamObserver<EncryptResponse> responseObserver) {
+		return new ConcurrentStream<>(responseObserver, PEER.get(), this::encrypt,
+				(request, error) -> EncryptResponse.newBuilder().setId(request.getId()).setError(error).build());
+	}
+
+	private SignResponse sign(SignRequest request) {
+		byte[] data = request.getData().toByteArray();
+		byte[] signature = switch (request.getKey().getKeyCase()) {
+		case TOKEN -> {
+			TokenKey key = request.getKey().getToken();
+			yield hsmService.sign(key.getSlotId(), key.getUserPin(), key.getLabel(), data);
+		}
+		case KMS -> {
+			KmsKey key = request.getKey().getKms();
+			yield hsmGoogleService.sign(key.getKeyRingId(), key.getKeyId(), data);
+		}
+		case KEY_NOT_SET -> throw new IllegalArgumentException("Please provide key");
+		};
+		return SignResponse.newBuilder().setId(request.getId()).setSignature(wrap(signature, "Signing")).build();
+	}
+
+	private EncryptResponse encrypt(EncryptRequest request) {
+		byte[] plaintext = request.getPlaintext().toByteArray();
+		byte[] ciphertext = switch (request.getKey().getKeyCase()) {
+		case TOKEN -> {
+			TokenKey key = request.getKey().getToken();
+			yield hsmService.encrypt(key.getSlotId(), key.getUserPin(), key.getLabel(), plaintext);
+		}
+		case KMS -> {
+			KmsKey key = request.getKey().getKms();
+			yield hsmGoogleService.encrypt(key.getKeyRingId(), key.getKeyId(), plaintext);
+		}
+		case KEY_NOT_SET -> throw new IllegalArgumentException("Please provide key");
+		};
+		return EncryptResponse.newBuilder().setId(request.getId()).setCiphertext(wrap(ciphertext, "Encryption"))
+				.build();
+	}
+
+	private DecryptResponse decrypt(DecryptRequest request) {
+		byte[] ciphertext = request.getCiphertext().toByteArray();
+		byte[] plaintext = switch (request.getKey().getKeyCase()) {
+		case TOKEN -> {
+			TokenKey key = request.getKey().getToken();
+			yield hsmService.decrypt(key.getSlotId(), key.getUserPin(), key.getLabel(), ciphertext);
+		}
+		case KMS -> {
+			KmsKey key = request.getKey().getKms();
+			yield hsmGoogleService.decrypt(key.getKeyRingId(), key.getKeyId(), ciphertext);
+		}
+		case KEY_NOT_SET -> throw new IllegalArgumentException("Please provide key");
+		};
+		return DecryptResponse.newBuilder().setId(request.getId()).setPlaintext(wrap(plaintext, "Decryption"))
+				.build();
+	}
+
+	// the services return null after logging the error
+	private ByteString wrap(byte[] result, String operation) {
+		if (result == null)
+			throw new IllegalStateException(operation + " failed, see the log of the service");
+		// the array is not modified once returned, so it is wrapped instead of copied
+		return UnsafeByteOperations.unsafeWrap(result);
+	}
+
+	private <Q, R> void unary(Q request, StreamObserver<R> responseObserver, Function<Q, R> operation,
+			String peer) {
+		R response;
+		try {
+			response = HsmAuditLog.callAs(peer, () -> operation.apply(request));
+		} catch (RuntimeException e) {
+			responseObserver.onError(toStatus(e).asRuntimeException());
+			return;
+		}
+		responseObserver.onNext(response);
+		responseObserver.onCompleted();
+	}
+
+	private Status toStatus(RuntimeException e) {
+		logger.info("{} observed", e.getClass().getSimpleName());
+		if (e instanceof StatusRuntimeException statusException)
+			return statusException.getStatus();
+		// errors of Cloud KMS keep their gRPC code
+		if (e instanceof ApiException apiException
+				&& apiException.getStatusCode().getTransportCode() instanceof Status.Code code)
+			return Status.fromCode(code).withDescription(e.getMessage());
+		if (e instanceof IllegalArgumentException)
+			return Status.INVALID_ARGUMENT.withDescription(e.getMessage());
+		if (e instanceof NoSuchElementException)
+			return Status.NOT_FOUND.withDescription(e.getMessage());
+		if (e instanceof HsmOverloadedException)
+			return Status.RESOURCE_EXHAUSTED.withDescription(e.getMessage());
+		if (e instanceof SessionUnavailableException)
+			return Status.UNAVAILABLE.withDescription(e.getMessage());
+		return Status.INTERNAL.withDescription(e.getMessage());
+	}
+
+	/**
+	 * Inbound side of a bidirectional stream. Each request runs on its own virtual
+	 * thread and its response is sent when it completes, so responses may arrive
+	 * out of order. Requests are only pulled from the client while fewer than
+	 * maxInFlight are running and the client keeps up reading the responses,
+	 * bounding the memory held per stream.
+	 */
+	private final class ConcurrentStream<Q, R> implements StreamObserver<Q> {
+
+		private final ServerCallStreamObserver<R> responseObserver;
+
+		private final String peer;
+
+		private final Function<Q, R> operation;
+
+		private final BiFunction<Q, String, R> failure;
+
+		private int running;
+
+		// requests to pull once the client is ready for more responses
+		private int owed;
+
+		private boolean halfClosed;
+
+		ConcurrentStream(StreamObserver<R> responseObserver, String peer, Function<Q, R> operation,
+				BiFunction<Q, String, R> failure) {
+			this.responseObserver = (ServerCallStreamObserver<R>) responseObserver;
+			this.peer = peer;
+			this.operation = operation;
+			this.failure = failure;
+			this.responseObserver.disableAutoRequest();
+			this.responseObserver.setOnReadyHandler(this::pullOwed);
+			this.responseObserver.request(maxInFlight);
+		}
+
+		@Override
+		public void onNext(Q request) {
+			synchronized (this) {
+				running++;
+			}
+			streamExecutor.execute(() -> {
+				R response;
+				try {
+					response = HsmAuditLog.callAs(peer, () -> operation.apply(request));
+				} catch (RuntimeException e) {
+					Status status = toStatus(e);
+					response = failure.apply(request,
+							status.getDescription() != null ? status.getDescription() : status.getCode().name());
+				}
+				complete(response);
+			});
+		}
+
+		private synchronized void complete(R response) {
+			running--;
+			if (responseObserver.isCancelled())
+				return;
+			responseObserver.onNext(response);
+			if (halfClosed) {
+				if (running == 0)
+					responseObserver.onCompleted();
+			} else if (responseObserver.isReady()) {
+				responseObserver.request(1);
+			} else {
+				owed++;
+			}
+		}
+
+		private synchronized void pullOwed() {
+			if (owed > 0 && !halfClosed) {
+				responseObserver.request(owed);
+				owed = 0;
+			}
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			// cancelled by the client, running requests finish without a response
+			logger.info("Stream cancelled by the client, message: {}", t.getLocalizedMessage());
+		}
+
+		@Override
+		public synchronized void onCompleted() {
+			halfClosed = true;
+			if (running == 0)
+				responseObserver.onCompleted();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.tmobile.hsmservice.service;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limit which adapts to the latency observed, after the gradient
+ * algorithm: while the latency stays close to the lowest latency seen the limit
+ * grows by its square root, as the latency rises above it the limit shrinks in
+ * proportion, and failed operations shrink it multiplicatively. Callers above
+ * the limit wait in a short bounded queue.
+ */
+class AdaptiveLimit {
+
+	// latency may grow by this factor over the lowest latency before the limit shrinks
+	private static final double TOLERANCE = 2.0;
+
+	// weight of a new estimate in the limit
+	private static final double SMOOTHING = 0.2;
+
+	private static final double BACKOFF_RATIO = 0.9;
+
+	// the lowest latency is re-learned after this many samples, to follow a slower token
+	private static final int MIN_LATENCY_WINDOW = 1000;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final int queueSize;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition released = lock.newCondition();
+
+	private double limit;
+
+	private int inFlight;
+
+	private int waiting;
+
+	private long minLatencyNanos = Long.MAX_VALUE;
+
+	private int samples;
+
+	AdaptiveLimit(int initialLimit, int minLimit, int maxLimit, int queueSize) {
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * Acquire a slot below the limit, waiting in the queue up to the timeout.
+	 *
+	 * @return number of operations in flight including this one, 0 if the limit
+	 *         is reached and the queue is full or the timeout elapsed
+	 */
+	int acquire(long timeoutNanos) throws InterruptedException {
+		lock.lock();
+		try {
+			if (inFlight < (int) limit)
+				return ++inFlight;
+			if (waiting >= queueSize || timeoutNanos <= 0)
+				return 0;
+			waiting++;
+			try {
+				long remaining = timeoutNanos;
+				while (inFlight >= (int) limit) {
+					if (remaining <= 0)
+						return 0;
+					remaining = released.awaitNanos(remaining);
+				}
+				return ++inFlight;
+			} finally {
+				waiting--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Release a slot and adjust the limit.
+	 *
+	 * @param latencyNanos:    latency of the operation
+	 * @param inFlightAtStart: operations in flight when the operation started
+	 * @param failed:          true if the operation failed for lack of capacity
+	 */
+	void release(long latencyNanos, int inFlightAtStart, boolean failed) {
+		lock.lock();
+		try {
+			inFlight--;
+			if (failed) {
+				limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+			} else {
+				if (++samples >= MIN_LATENCY_WINDOW) {
+					samples = 0;
+					minLatencyNanos = latencyNanos;
+				}
+				minLatencyNanos = Math.max(1, Math.min(minLatencyNanos, latencyNanos));
+				double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * minLatencyNanos / latencyNanos));
+				double estimate = limit * gradient + Math.sqrt(limit);
+				// do not grow a limit which the load does not reach
+				if (estimate < limit || inFlightAtStart * 2 >= limit)
+					limit = Math.max(minLimit, Math.min(maxLimit, (1 - SMOOTHING) * limit + SMOOTHING * estimate));
+			}
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Release a slot without a latency sample, for operations whose latency says
+	 * nothing about the load of the token.
+	 */
+	void release() {
+		lock.lock();
+		try {
+			inFlight--;
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int getLimit() {
+		lock.lock();
+		try {
+			return (int) limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int getWaiting() {
+		lock.lock();
+		try {
+			return waiting;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
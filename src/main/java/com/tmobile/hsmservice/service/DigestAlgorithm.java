@@ -0,0 +1,49 @@
+package com.tmobile.hsmservice.service;
+
+import java.util.HexFormat;
+
+/**
+ * Hash algorithms for signing with a hash computed in the JVM. The DigestInfo
+ * prefix is the DER encoding of the algorithm identifier which, followed by
+ * the hash, is what CKM_RSA_PKCS signs for the hash-and-sign mechanisms.
+ */
+public enum DigestAlgorithm {
+
+	SHA256("SHA-256", "3031300d060960864801650304020105000420"),
+	SHA384("SHA-384", "3041300d060960864801650304020205000430"),
+	SHA512("SHA-512", "3051300d060960864801650304020305000440");
+
+	private final String jcaName;
+
+	private final byte[] digestInfoPrefix;
+
+	DigestAlgorithm(String jcaName, String digestInfoPrefix) {
+		this.jcaName = jcaName;
+		this.digestInfoPrefix = HexFormat.of().parseHex(digestInfoPrefix);
+	}
+
+	public String jcaName() {
+		return jcaName;
+	}
+
+	/**
+	 * @return DER encoded DigestInfo of the hash
+	 */
+	public byte[] digestInfo(byte[] hash) {
+		byte[] digestInfo = new byte[digestInfoPrefix.length + hash.length];
+		System.arraycopy(digestInfoPrefix, 0, digestInfo, 0, digestInfoPrefix.length);
+		System.arraycopy(hash, 0, digestInfo, digestInfoPrefix.length, hash.length);
+		return digestInfo;
+	}
+
+	/**
+	 * @param name: SHA-256, SHA-384 or SHA-512, with or without the hyphen
+	 */
+	public static DigestAlgorithm of(String name) {
+		for (DigestAlgorithm algorithm : values()) {
+			if (algorithm.jcaName.equalsIgnoreCase(name) || algorithm.name().equalsIgnoreCase(name))
+				return algorithm;
+		}
+		throw new IllegalArgumentException("Unsupported hash algorithm " + name);
+	}
+}
@@ -0,0 +1,454 @@
+package com.tmobile.hsmservice.service;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.Principal;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Audit trail of the key operations: who called, on which key, which
+ * operation, the outcome and the duration. Payloads are never recorded.
+ *
+ * Callers only claim a preallocated entry of a ring buffer with a CAS and fill
+ * it in, nothing is allocated or locked and no IO is done on the request path.
+ * When the ring is full the record is dropped and counted in hsm.audit.dropped
+ * rather than making the caller wait. A background writer drains the ring in
+ * batches into JSON lines appended to a memory mapped file, which is rotated
+ * at hsm.audit.file-size bytes keeping the newest hsm.audit.max-files files.
+ * The writer parks while the ring is empty and is woken by the first record
+ * published after it went to sleep.
+ */
+@Component
+public class HsmAuditLog {
+
+	private Logger logger = LoggerFactory.getLogger(HsmAuditLog.class);
+
+	public static final String SUCCESS = "success";
+
+	public static final String ERROR = "error";
+
+	private static final String FILE_PREFIX = "audit-";
+
+	private static final String FILE_SUFFIX = ".log";
+
+	private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS")
+			.withZone(ZoneOffset.UTC);
+
+	private static final int FILE_TIMESTAMP_LENGTH = "yyyyMMdd-HHmmss-SSS".length();
+
+	// files are named by their timestamp, then by the attempt if one exists with the same timestamp
+	private static final Comparator<Path> FILE_ORDER = Comparator
+			.comparing((Path path) -> fileKey(path).substring(0, FILE_TIMESTAMP_LENGTH))
+			.thenComparingInt(HsmAuditLog::fileAttempt);
+
+	// a busy writer waits this long for more records, to write them in batches
+	private static final long BATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static final ThreadLocal<String> CALLER = new ThreadLocal<>();
+
+	@Value("${hsm.audit.enabled:true}")
+	private boolean enabled;
+
+	@Value("${hsm.audit.directory:audit}")
+	private Path directory;
+
+	@Value("${hsm.audit.buffer-size:65536}")
+	private int bufferSize;
+
+	@Value("${hsm.audit.file-size:67108864}")
+	private int fileSize;
+
+	@Value("${hsm.audit.max-files:10}")
+	private int maxFiles;
+
+	@Value("${hsm.audit.flush-interval-ms:1000}")
+	private long flushIntervalMs;
+
+	@Autowired
+	private HsmMetrics hsmMetrics;
+
+	private Entry[] entries;
+
+	private int mask;
+
+	// sequence of the entry last published in each slot of the ring
+	private AtomicLongArray published;
+
+	private final AtomicLong claimed = new AtomicLong();
+
+	// next sequence to be written, only advanced by the writer
+	private volatile long consumed;
+
+	private final LongAdder dropped = new LongAdder();
+
+	private volatile boolean running;
+
+	// true while the writer parks on an empty ring, until a record unparks it
+	private volatile boolean sleeping;
+
+	private Thread writer;
+
+	private FileChannel channel;
+
+	private MappedByteBuffer mapped;
+
+	private Path file;
+
+	/**
+	 * Entry of the ring, reused once written. Only references to strings the
+	 * caller already holds are stored.
+	 */
+	private static final class Entry {
+
+		long timestamp;
+
+		long durationNanos;
+
+		String caller;
+
+		String backend;
+
+		long slotId;
+
+		String keyRing;
+
+		String key;
+
+		String operation;
+
+		String outcome;
+
+		int items;
+	}
+
+	@PostConstruct
+	public void postConstructRoutine() throws IOException {
+		if (!enabled)
+			return;
+		open();
+		writer = new Thread(this::drain, "hsm-audit-writer");
+		writer.setDaemon(true);
+		writer.start();
+		logger.info("Audit log of {} entries written to {}", entries.length, directory.toAbsolutePath());
+	}
+
+	private void open() throws IOException {
+		int capacity = Integer.highestOneBit(Math.max(bufferSize - 1, 1)) << 1;
+		entries = new Entry[capacity];
+		for (int index = 0; index < capacity; index++)
+			entries[index] = new Entry();
+		mask = capacity - 1;
+		published = new AtomicLongArray(capacity);
+		for (int index = 0; index < capacity; index++)
+			published.set(index, -1);
+
+		Files.createDirectories(directory);
+		rotate();
+
+		hsmMetrics.gauge("hsm.audit.dropped", dropped, LongAdder::sum);
+		hsmMetrics.gauge("hsm.audit.pending", this, audit -> audit.claimed.get() - audit.consumed);
+
+		running = true;
+	}
+
+	@PreDestroy
+	public void preDestroyRoutine() throws InterruptedException {
+		if (writer == null)
+			return;
+		running = false;
+		LockSupport.unpark(writer);
+		writer.join(TimeUnit.SECONDS.toMillis(5));
+	}
+
+	/**
+	 * Run the call on behalf of the caller, for front ends other than the REST
+	 * controllers, e.g. with the address of a gRPC peer.
+	 */
+	public static <T> T callAs(String caller, Supplier<T> call) {
+		String previous = CALLER.get();
+		CALLER.set(caller);
+		try {
+			return call.get();
+		} finally {
+			if (previous == null)
+				CALLER.remove();
+			else
+				CALLER.set(previous);
+		}
+	}
+
+	/**
+	 * Record an operation on a token.
+	 *
+	 * @param operation: e.g. sign, encrypt, generate-key-pair
+	 * @param key:       label of the key, null if the operation uses no key
+	 * @param items:     number of payloads processed
+	 * @param start:     System.nanoTime() at the start of the operation
+	 * @param outcome:   {@link #SUCCESS} or {@link #ERROR}
+	 */
+	public void recordPkcs11(String operation, long slotId, String key, int items, long start, String outcome) {
+		record(HsmMetrics.BACKEND_PKCS11, currentCaller(), operation, slotId, null, key, items, start, outcome);
+	}
+
+	/**
+	 * Record an operation on Cloud KMS.
+	 *
+	 * @param keyRing: id of the key ring, null if the operation is not on a key ring
+	 * @param key:     id of the crypto key, null if the operation uses no key
+	 */
+	public void recordKms(String operation, String keyRing, String key, int items, long start, String outcome) {
+		record(HsmMetrics.BACKEND_KMS, currentCaller(), operation, -1, keyRing, key, items, start, outcome);
+	}
+
+	/**
+	 * Record an operation on Cloud KMS which completes on another thread, e.g.
+	 * with future.whenComplete(...). The caller and the start are taken now, a
+	 * null result or a failure is recorded as {@link #ERROR}.
+	 */
+	public <T> BiConsumer<T, Throwable> kmsCompletion(String operation, String keyRing, String key, int items) {
+		long start = System.nanoTime();
+		String caller = currentCaller();
+		return (result, failure) -> record(HsmMetrics.BACKEND_KMS, caller, operation, -1, keyRing, key, items, start,
+				failure == null && result != null ? SUCCESS : ERROR);
+	}
+
+	private void record(String backend, String caller, String operation, long slotId, String keyRing, String key,
+			int items, long start, String outcome) {
+		if (!running)
+			return;
+		long durationNanos = System.nanoTime() - start;
+
+		long sequence;
+		do {
+			sequence = claimed.get();
+			if (sequence - consumed >= entries.length) {
+				dropped.increment();
+				return;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1));
+
+		Entry entry = entries[(int) sequence & mask];
+		entry.timestamp = System.currentTimeMillis();
+		entry.durationNanos = durationNanos;
+		entry.caller = caller;
+		entry.backend = backend;
+		entry.slotId = slotId;
+		entry.keyRing = keyRing;
+		entry.key = key;
+		entry.operation = operation;
+		entry.outcome = outcome;
+		entry.items = items;
+		// publishes the fields written above to the writer
+		published.set((int) sequence & mask, sequence);
+		if (sleeping)
+			LockSupport.unpark(writer);
+	}
+
+	/**
+	 * Caller set by {@link #callAs}, else the authenticated principal of the
+	 * current request or the address of the client. Work not started by a
+	 * request, e.g. background key generation, is recorded as internal.
+	 */
+	public static String currentCaller() {
+		String caller = CALLER.get();
+		if (caller != null)
+			return caller;
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		if (!(attributes instanceof ServletRequestAttributes servletAttributes))
+			return "internal";
+		HttpServletRequest request = servletAttributes.getRequest();
+		Principal principal = request.getUserPrincipal();
+		return principal != null ? principal.getName() : request.getRemoteAddr();
+	}
+
+	private void drain() {
+		StringBuilder line = new StringBuilder(256);
+		long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+		long lastFlush = System.nanoTime();
+		boolean dirty = false;
+		while (true) {
+			boolean stopping = !running;
+			boolean written = drainPublished(line) > 0;
+			dirty |= written;
+
+			long sinceFlush = System.nanoTime() - lastFlush;
+			if (dirty && (stopping || sinceFlush >= flushIntervalNanos)) {
+				mapped.force();
+				lastFlush = System.nanoTime();
+				sinceFlush = 0;
+				dirty = false;
+			}
+			if (stopping)
+				break;
+			if (written) {
+				LockSupport.parkNanos(BATCH_NANOS);
+				continue;
+			}
+			// announce the sleep before checking the ring once more, so a record
+			// published in between either is seen here or unparks the writer
+			sleeping = true;
+			if (published.get((int) consumed & mask) != consumed && running)
+				LockSupport.parkNanos(dirty ? flushIntervalNanos - sinceFlush : flushIntervalNanos);
+			sleeping = false;
+		}
+		close();
+	}
+
+	/**
+	 * Write the records published in order, up to the first one not published yet.
+	 *
+	 * @return number of records written
+	 */
+	private int drainPublished(StringBuilder line) {
+		long first = consumed;
+		long next = first;
+		while (published.get((int) next & mask) == next) {
+			format(entries[(int) next & mask], line);
+			append(line);
+			next++;
+			// hand entries back to the callers in batches, not one by one
+			if ((next & 255) == 0)
+				consumed = next;
+		}
+		consumed = next;
+		return (int) (next - first);
+	}
+
+	private void format(Entry entry, StringBuilder line) {
+		line.setLength(0);
+		line.append("{\"timestamp\":\"").append(Instant.ofEpochMilli(entry.timestamp)).append('"');
+		appendString(line, "caller", entry.caller);
+		appendString(line, "backend", entry.backend);
+		if (entry.slotId >= 0)
+			line.append(",\"slot\":\"0x").append(Long.toHexString(entry.slotId)).append('"');
+		appendString(line, "keyRing", entry.keyRing);
+		appendString(line, "key", entry.key);
+		appendString(line, "operation", entry.operation);
+		appendString(line, "outcome", entry.outcome);
+		line.append(",\"items\":").append(entry.items);
+		line.append(",\"durationMicros\":").append(TimeUnit.NANOSECONDS.toMicros(entry.durationNanos));
+		line.append("}\n");
+	}
+
+	private void appendString(StringBuilder line, String name, String value) {
+		if (value == null)
+			return;
+		line.append(",\"").append(name).append("\":\"");
+		// labels are chosen by the callers, escaped to keep one record per line
+		for (int index = 0; index < value.length(); index++) {
+			char c = value.charAt(index);
+			if (c == '"' || c == '\\')
+				line.append('\\').append(c);
+			else if (c < 0x20)
+				line.append(String.format("\\u%04x", (int) c));
+			else
+				line.append(c);
+		}
+		line.append('"');
+	}
+
+	private void append(StringBuilder line) {
+		byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+		try {
+			if (bytes.length > mapped.remaining())
+				rotate();
+			mapped.put(bytes, 0, Math.min(bytes.length, mapped.remaining()));
+		} catch (IOException e) {
+			logger.error("Audit record not written to {}, message: {}", file, e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Close the current file and map a new one, deleting the oldest files beyond
+	 * hsm.audit.max-files.
+	 */
+	private void rotate() throws IOException {
+		close();
+		Path next = directory.resolve(FILE_PREFIX + FILE_TIMESTAMP.format(Instant.now()) + FILE_SUFFIX);
+		for (int attempt = 1; Files.exists(next); attempt++)
+			next = directory.resolve(FILE_PREFIX + FILE_TIMESTAMP.format(Instant.now()) + "-" + attempt + FILE_SUFFIX);
+		file = next;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+
+		try (Stream<Path> files = Files.list(directory)) {
+			List<Path> audits = files.filter(path -> {
+				String name = path.getFileName().toString();
+				return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX)
+						&& name.length() >= FILE_PREFIX.length() + FILE_TIMESTAMP_LENGTH + FILE_SUFFIX.length();
+			}).sorted(FILE_ORDER).toList();
+			for (int index = 0; index < audits.size() - maxFiles; index++)
+				Files.deleteIfExists(audits.get(index));
+		}
+	}
+
+	private static String fileKey(Path path) {
+		String name = path.getFileName().toString();
+		return name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length());
+	}
+
+	/**
+	 * @return attempt in the name of the file, 0 for the first file of its
+	 *         timestamp
+	 */
+	private static int fileAttempt(Path path) {
+		String key = fileKey(path);
+		if (key.length() <= FILE_TIMESTAMP_LENGTH + 1)
+			return 0;
+		try {
+			return Integer.parseInt(key.substring(FILE_TIMESTAMP_LENGTH + 1));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private void close() {
+		if (channel == null)
+			return;
+		try {
+			mapped.force();
+			// the mapping is sized ahead, cut the file to the records written
+			channel.truncate(mapped.position());
+		} catch (IOException e) {
+			// e.g. a mapped file can not be truncated on Windows, readers stop at the first NUL
+			logger.warn("Audit file {} not truncated, message: {}", file, e.getLocalizedMessage());
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.warn("Audit file {} not closed, message: {}", file, e.getLocalizedMessage());
+		}
+		channel = null;
+	}
+}
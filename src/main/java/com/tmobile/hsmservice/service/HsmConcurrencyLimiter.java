@@ -0,0 +1,162 @@
+package com.tmobile.hsmservice.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.tmobile.hsmservice.exception.HsmOverloadedException;
+
+/**
+ * Bulkhead with an adaptive concurrency limit per slot, so that requests beyond
+ * what a token can serve are rejected early instead of piling up in blocking
+ * native calls.
+ */
+@Component
+public class HsmConcurrencyLimiter {
+
+	private Logger logger = LoggerFactory.getLogger(HsmConcurrencyLimiter.class);
+
+	@Value("${pkcs11.limiter.initial-limit:8}")
+	private int initialLimit;
+
+	@Value("${pkcs11.limiter.min-limit:1}")
+	private int minLimit;
+
+	@Value("${pkcs11.limiter.max-limit:64}")
+	private int maxLimit;
+
+	@Value("${pkcs11.limiter.queue-size:16}")
+	private int queueSize;
+
+	@Value("${pkcs11.limiter.queue-timeout-ms:50}")
+	private long queueTimeoutMs;
+
+	@Value("${pkcs11.limiter.retry-after-seconds:1}")
+	private long retryAfterSeconds;
+
+	@Autowired
+	private HsmMetrics hsmMetrics;
+
+	private final Map<Long, AdaptiveLimit> slotLimits = new ConcurrentHashMap<>();
+
+	/**
+	 * Acquire a permit for an operation on the slot.
+	 *
+	 * @throws HsmOverloadedException : if the slot is at its limit and the
+	 *                                request could not be queued in time
+	 */
+	public Permit acquire(long slotId) {
+		return acquire(slotId, true);
+	}
+
+	/**
+	 * Acquire a permit for an operation on the slot.
+	 *
+	 * @param sampled: false for long-running or background operations, e.g. key
+	 *                 pair generation or enumerating the token, which count
+	 *                 against the limit but whose latency does not adjust it
+	 * @throws HsmOverloadedException : if the slot is at its limit and the
+	 *                                request could not be queued in time
+	 */
+	public Permit acquire(long slotId, boolean sampled) {
+		AdaptiveLimit slotLimit = slotLimits.computeIfAbsent(slotId, id -> {
+			hsmMetrics.slotGauge("hsm.limiter.limit", id, this::getLimit);
+			hsmMetrics.slotGauge("hsm.limiter.in.flight", id, this::getInFlight);
+			hsmMetrics.slotGauge("hsm.limiter.queued", id, this::getQueued);
+			return new AdaptiveLimit(initialLimit, minLimit, maxLimit, queueSize);
+		});
+		int inFlight;
+		try {
+			inFlight = slotLimit.acquire(TimeUnit.MILLISECONDS.toNanos(queueTimeoutMs));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			inFlight = 0;
+		}
+		if (inFlight == 0) {
+			logger.warn("Slot 0x{} overloaded at a limit of {} operations", Long.toHexString(slotId),
+					slotLimit.getLimit());
+			throw new HsmOverloadedException("Slot 0x" + Long.toHexString(slotId) + " is overloaded, retry later",
+					retryAfterSeconds);
+		}
+		return new Permit(slotLimit, inFlight, sampled);
+	}
+
+	/**
+	 * @return current limit of the slot, the initial limit if the slot has not
+	 *         been used yet
+	 */
+	public int getLimit(long slotId) {
+		AdaptiveLimit slotLimit = slotLimits.get(slotId);
+		return slotLimit == null ? initialLimit : slotLimit.getLimit();
+	}
+
+	private int getInFlight(long slotId) {
+		AdaptiveLimit slotLimit = slotLimits.get(slotId);
+		return slotLimit == null ? 0 : slotLimit.getInFlight();
+	}
+
+	private int getQueued(long slotId) {
+		AdaptiveLimit slotLimit = slotLimits.get(slotId);
+		return slotLimit == null ? 0 : slotLimit.getWaiting();
+	}
+
+	/**
+	 * @return true if the slot runs at half of its limit or more, so background
+	 *         work should give way
+	 */
+	public boolean isBusy(long slotId) {
+		AdaptiveLimit slotLimit = slotLimits.get(slotId);
+		return slotLimit != null && slotLimit.getInFlight() * 2 >= slotLimit.getLimit();
+	}
+
+	/**
+	 * Forget the limit of a slot, e.g. when its token has been removed.
+	 */
+	public void invalidate(long slotId) {
+		slotLimits.remove(slotId);
+	}
+
+	/**
+	 * Permit for one operation. The latency is measured from acquiring to closing
+	 * the permit, unless the permit is not sampled.
+	 */
+	public static class Permit implements AutoCloseable {
+
+		private final AdaptiveLimit slotLimit;
+
+		private final int inFlightAtStart;
+
+		private final boolean sampled;
+
+		private final long start = System.nanoTime();
+
+		private boolean failed;
+
+		private Permit(AdaptiveLimit slotLimit, int inFlightAtStart, boolean sampled) {
+			this.slotLimit = slotLimit;
+			this.inFlightAtStart = inFlightAtStart;
+			this.sampled = sampled;
+		}
+
+		/**
+		 * Mark the operation as failed for lack of capacity, which shrinks the limit.
+		 */
+		public void failed() {
+			failed = true;
+		}
+
+		@Override
+		public void close() {
+			if (sampled)
+				slotLimit.release(System.nanoTime() - start, inFlightAtStart, failed);
+			else
+				slotLimit.release();
+		}
+	}
+}
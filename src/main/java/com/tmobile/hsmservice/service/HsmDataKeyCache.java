@@ -0,0 +1,80 @@
+package com.tmobile.hsmservice.service;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded, time limited cache of unwrapped envelope data keys, so repeated
+ * decrypts of the same envelope do not reach the HSM. Keys are zeroed when
+ * evicted or expired.
+ */
+@Component
+public class HsmDataKeyCache {
+
+	@Value("${pkcs11.envelope.data-key-cache.max-size:1024}")
+	private int maxSize;
+
+	@Value("${pkcs11.envelope.data-key-cache.ttl-ms:300000}")
+	private long ttlMs;
+
+	private final Map<String, CachedDataKey> dataKeys = new LinkedHashMap<>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedDataKey> eldest) {
+			if (size() <= maxSize)
+				return false;
+			eldest.getValue().destroy();
+			return true;
+		}
+	};
+
+	/**
+	 * @return copy of the cached data key, null if not cached or expired
+	 */
+	public synchronized byte[] get(String cacheKey) {
+		CachedDataKey cached = dataKeys.get(cacheKey);
+		if (cached == null)
+			return null;
+		if (cached.expiresAt() < System.currentTimeMillis()) {
+			dataKeys.remove(cacheKey);
+			cached.destroy();
+			return null;
+		}
+		return cached.value().clone();
+	}
+
+	/**
+	 * @param slotId: slot of the key encryption key which wrapped the data key
+	 */
+	public synchronized void put(long slotId, String cacheKey, byte[] dataKey) {
+		CachedDataKey previous = dataKeys.put(cacheKey,
+				new CachedDataKey(slotId, dataKey.clone(), System.currentTimeMillis() + ttlMs));
+		if (previous != null)
+			previous.destroy();
+	}
+
+	/**
+	 * Drop the data keys of a slot, e.g. when its token has been removed.
+	 */
+	public synchronized void invalidate(long slotId) {
+		dataKeys.values().removeIf(cached -> {
+			if (cached.slotId() != slotId)
+				return false;
+			cached.destroy();
+			return true;
+		});
+	}
+
+	private record CachedDataKey(long slotId, byte[] value, long expiresAt) {
+
+		void destroy() {
+			Arrays.fill(value, (byte) 0);
+		}
+	}
+}
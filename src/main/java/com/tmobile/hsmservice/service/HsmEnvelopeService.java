@@ -0,0 +1,544 @@
+package com.tmobile.hsmservice.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.tmobile.hsmservice.dto.EnvelopeDTO;
+import com.tmobile.hsmservice.exception.MechanismNotSupportedException;
+import com.tmobile.hsmservice.service.HsmSlot.Usage;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.AESSecretKey;
+import iaik.pkcs.pkcs11.objects.PrivateKey;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Envelope encryption with HSM resident keys as key encryption keys (KEK). The
+ * payload is encrypted in the JVM with AES-GCM under a fresh data key and only
+ * the data key is wrapped under the KEK, so throughput does not depend on the
+ * operations per second of the HSM.
+ */
+@Service
+public class HsmEnvelopeService {
+
+	private Logger logger = LoggerFactory.getLogger(HsmEnvelopeService.class);
+
+	// CKM_AES_KEY_WRAP (RFC 3394) is not defined by the PKCS11Constants of the wrapper
+	private static final long CKM_AES_KEY_WRAP = 0x00002109L;
+
+	private static final int DATA_KEY_LENGTH = 32;
+
+	private static final int AES_BLOCK_SIZE = 16;
+
+	// streams start with a header: version, key wrap algorithm, chunk size, wrapped data key and nonce prefix
+	private static final int STREAM_VERSION = 1;
+
+	private static final int STREAM_NONCE_PREFIX_LENGTH = 8;
+
+	private static final int MAX_STREAM_CHUNK_SIZE = 1 << 24;
+
+	private static final int GCM_IV_LENGTH = 12;
+
+	private static final int GCM_TAG_LENGTH = 128;
+
+	/**
+	 * Encryption of the data key under the key encryption key. AES_CBC_PAD is used
+	 * with AES keys on tokens which offer CKM_AES_KEY_WRAP for C_WrapKey only; the
+	 * wrapped key is the IV followed by the encrypted data key and a tampered
+	 * wrapped key fails the GCM tag of the payload.
+	 */
+	public enum KeyWrapAlgorithm {
+		AES_KEY_WRAP, AES_CBC_PAD, RSA_PKCS
+	}
+
+	@Autowired
+	private HsmSlotRegistry slotRegistry;
+
+	@Autowired
+	private HsmSessionPool sessionPool;
+
+	@Autowired
+	private HsmServiceUtil hsmServiceUtil;
+
+	@Autowired
+	private HsmPublicKeyCache publicKeyCache;
+
+	@Autowired
+	private HsmDataKeyCache dataKeyCache;
+
+	@Autowired
+	private HsmMetrics hsmMetrics;
+
+	@Autowired
+	private HsmAuditLog auditLog;
+
+	@Value("${pkcs11.stream.chunk-size:65536}")
+	private int streamChunkSize;
+
+	private final SecureRandom secureRandom = new SecureRandom();
+
+	private final Map<Long, Map<String, KeyWrapAlgorithm>> kekAlgorithms = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	public void postConstructRoutine() {
+		slotRegistry.addRemovalListener(slotId -> {
+			kekAlgorithms.remove(slotId);
+			dataKeyCache.invalidate(slotId);
+		});
+	}
+
+	/**
+	 * Encrypt data under a fresh data key wrapped by the key encryption key of the
+	 * label. The data key is generated in the JVM. AES keys encrypt it on the token
+	 * in a single C_Encrypt, RSA keys wrap it in the JVM with their cached public
+	 * key.
+	 *
+	 * @return the envelope, null on error
+	 */
+	public EnvelopeDTO encrypt(long slotId, String userPin, String kekLabel, String data) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		byte[] dataKey = null;
+		try {
+			HsmSlot matchedSlot = slotRegistry.getSlot(slotId);
+			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.slotId()));
+
+			dataKey = new byte[DATA_KEY_LENGTH];
+			secureRandom.nextBytes(dataKey);
+			WrappedKey wrappedKey = wrapDataKey(matchedSlot, userPin, kekLabel, dataKey, false);
+
+			byte[] iv = new byte[GCM_IV_LENGTH];
+			secureRandom.nextBytes(iv);
+			Cipher aesCipher = Cipher.getInstance("AES/GCM/NoPadding");
+			aesCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(dataKey, "AES"), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+			aesCipher.updateAAD(kekLabel.getBytes(StandardCharsets.UTF_8));
+			byte[] ciphertext = aesCipher.doFinal(data.getBytes(StandardCharsets.UTF_8));
+
+			dataKeyCache.put(slotId, cacheKey(slotId, kekLabel, wrappedKey.value()), dataKey);
+			logger.info("Data encrypted in envelope with key encryption key {}", kekLabel);
+
+			outcome = HsmAuditLog.SUCCESS;
+			Base64.Encoder encoder = Base64.getEncoder();
+			return new EnvelopeDTO(kekLabel, wrappedKey.algorithm().name(), encoder.encodeToString(wrappedKey.value()),
+					encoder.encodeToString(iv), encoder.encodeToString(ciphertext));
+		} catch (TokenException | GeneralSecurityException exception) {
+			logger.error("Error observed, message: {}", exception.getLocalizedMessage());
+		} finally {
+			if (dataKey != null)
+				Arrays.fill(dataKey, (byte) 0);
+			auditLog.recordPkcs11("envelope-encrypt", slotId, kekLabel, 1, start, outcome);
+		}
+		return null;
+	}
+
+	/**
+	 * Decrypt an envelope. The data key is unwrapped on the token unless it is in
+	 * the data key cache, and cached once the payload verified.
+	 *
+	 * @return the plaintext, null on error
+	 */
+	public String decrypt(long slotId, String userPin, EnvelopeDTO envelope) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		byte[] dataKey = null;
+		try {
+			HsmSlot matchedSlot = slotRegistry.getSlot(slotId);
+			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.slotId()));
+
+			KeyWrapAlgorithm algorithm = KeyWrapAlgorithm.valueOf(envelope.algorithm());
+			Base64.Decoder decoder = Base64.getDecoder();
+			WrappedKey wrappedKey = new WrappedKey(algorithm, decoder.decode(envelope.wrappedkey()));
+			dataKey = cachedDataKey(matchedSlot, userPin, envelope.keklabel(), wrappedKey);
+			boolean unwrapped = dataKey == null;
+			if (unwrapped)
+				dataKey = unwrapDataKey(matchedSlot, userPin, envelope.keklabel(), wrappedKey);
+
+			Cipher aesCipher = Cipher.getInstance("AES/GCM/NoPadding");
+			aesCipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(dataKey, "AES"),
+					new GCMParameterSpec(GCM_TAG_LENGTH, decoder.decode(envelope.iv())));
+			aesCipher.updateAAD(envelope.keklabel().getBytes(StandardCharsets.UTF_8));
+			byte[] plaintext = aesCipher.doFinal(decoder.decode(envelope.ciphertext()));
+			// only a data key which authenticated the payload is cached
+			if (unwrapped)
+				dataKeyCache.put(slotId, cacheKey(slotId, envelope.keklabel(), wrappedKey.value()), dataKey);
+			logger.info("Envelope decrypted with key encryption key {}", envelope.keklabel());
+			outcome = HsmAuditLog.SUCCESS;
+			return new String(plaintext, StandardCharsets.UTF_8);
+		} catch (TokenException | GeneralSecurityException exception) {
+			logger.error("Error observed, message: {}", exception.getLocalizedMessage());
+		} finally {
+			if (dataKey != null)
+				Arrays.fill(dataKey, (byte) 0);
+			auditLog.recordPkcs11("envelope-decrypt", slotId, envelope.keklabel(), 1, start, outcome);
+		}
+		return null;
+	}
+
+	/**
+	 * Encrypt a stream under a fresh data key wrapped by the AES key of the label.
+	 * The stream is sealed in the JVM with AES-GCM in chunks of
+	 * pkcs11.stream.chunk-size bytes, each under a nonce of its number and flagged
+	 * if it is the last one, so reordered, truncated or tampered streams fail to
+	 * decrypt. Only wrapping the data key uses a session, the stream is read and
+	 * written without holding one.
+	 *
+	 * @return true if the stream was encrypted, false on error
+	 */
+	public boolean encryptStream(long slotId, String userPin, String kekLabel, InputStream in, OutputStream out) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		byte[] dataKey = null;
+		try {
+			HsmSlot matchedSlot = slotRegistry.getSlot(slotId);
+			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.slotId()));
+
+			dataKey = new byte[DATA_KEY_LENGTH];
+			secureRandom.nextBytes(dataKey);
+			WrappedKey wrappedKey = wrapDataKey(matchedSlot, userPin, kekLabel, dataKey, true);
+			byte[] noncePrefix = new byte[STREAM_NONCE_PREFIX_LENGTH];
+			secureRandom.nextBytes(noncePrefix);
+			byte[] header = streamHeader(wrappedKey, streamChunkSize, noncePrefix);
+			out.write(header);
+
+			ChunkCipher cipher = new ChunkCipher(dataKey, header, noncePrefix);
+			long total = 0;
+			byte[] chunk = in.readNBytes(streamChunkSize);
+			while (true) {
+				// the last chunk is only known once the next read comes back empty
+				byte[] next = chunk.length < streamChunkSize ? new byte[0] : in.readNBytes(streamChunkSize);
+				out.write(cipher.seal(chunk, next.length == 0));
+				total += chunk.length;
+				if (next.length == 0)
+					break;
+				chunk = next;
+			}
+			logger.info("Stream of {} bytes encrypted with AES key {}", total, kekLabel);
+			outcome = HsmAuditLog.SUCCESS;
+			return true;
+		} catch (TokenException | GeneralSecurityException exception) {
+			logger.error("Error observed, message: {}", exception.getLocalizedMessage());
+		} catch (IOException exception) {
+			logger.error("Error observed in streaming, message: {}", exception.getLocalizedMessage());
+		} finally {
+			if (dataKey != null)
+				Arrays.fill(dataKey, (byte) 0);
+			auditLog.recordPkcs11("encrypt-stream", slotId, kekLabel, 1, start, outcome);
+		}
+		return false;
+	}
+
+	/**
+	 * Decrypt a stream written by {@link #encryptStream}. The plaintext of a chunk
+	 * is only written once its tag verified, a stream failing verification stops
+	 * at the last verified chunk.
+	 *
+	 * @return true if the stream was decrypted and verified completely, false on
+	 *         error
+	 */
+	public boolean decryptStream(long slotId, String userPin, String kekLabel, InputStream in, OutputStream out) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		byte[] dataKey = null;
+		try {
+			HsmSlot matchedSlot = slotRegistry.getSlot(slotId);
+			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.slotId()));
+
+			DataInputStream headerIn = new DataInputStream(in);
+			if (headerIn.readUnsignedByte() != STREAM_VERSION)
+				throw new IllegalArgumentException("Unsupported stream version");
+			KeyWrapAlgorithm algorithm = switch (headerIn.readUnsignedByte()) {
+			case 1 -> KeyWrapAlgorithm.AES_KEY_WRAP;
+			case 2 -> KeyWrapAlgorithm.AES_CBC_PAD;
+			default -> throw new IllegalArgumentException("Unsupported key wrap algorithm of stream");
+			};
+			int chunkSize = headerIn.readInt();
+			if (chunkSize <= 0 || chunkSize > MAX_STREAM_CHUNK_SIZE)
+				throw new IllegalArgumentException("Invalid chunk size of stream: " + chunkSize);
+			byte[] wrapped = new byte[headerIn.readUnsignedShort()];
+			headerIn.readFully(wrapped);
+			byte[] noncePrefix = new byte[STREAM_NONCE_PREFIX_LENGTH];
+			headerIn.readFully(noncePrefix);
+			WrappedKey wrappedKey = new WrappedKey(algorithm, wrapped);
+
+			dataKey = cachedDataKey(matchedSlot, userPin, kekLabel, wrappedKey);
+			boolean unwrapped = dataKey == null;
+			if (unwrapped)
+				dataKey = unwrapDataKey(matchedSlot, userPin, kekLabel, wrappedKey);
+			ChunkCipher cipher = new ChunkCipher(dataKey, streamHeader(wrappedKey, chunkSize, noncePrefix),
+					noncePrefix);
+			int sealedSize = chunkSize + GCM_TAG_LENGTH / 8;
+			long total = 0;
+			byte[] chunk = in.readNBytes(sealedSize);
+			while (true) {
+				byte[] next = chunk.length < sealedSize ? new byte[0] : in.readNBytes(sealedSize);
+				byte[] plaintext = cipher.open(chunk, next.length == 0);
+				if (unwrapped) {
+					// the data key authenticated the first chunk
+					dataKeyCache.put(slotId, cacheKey(slotId, kekLabel, wrappedKey.value()), dataKey);
+					unwrapped = false;
+				}
+				out.write(plaintext);
+				total += plaintext.length;
+				if (next.length == 0)
+					break;
+				chunk = next;
+			}
+			logger.info("Stream of {} bytes decrypted with AES key {}", total, kekLabel);
+			outcome = HsmAuditLog.SUCCESS;
+			return true;
+		} catch (TokenException | GeneralSecurityException exception) {
+			logger.error("Error observed, message: {}", exception.getLocalizedMessage());
+		} catch (IOException exception) {
+			logger.error("Error observed in streaming, message: {}", exception.getLocalizedMessage());
+		} finally {
+			if (dataKey != null)
+				Arrays.fill(dataKey, (byte) 0);
+			auditLog.recordPkcs11("decrypt-stream", slotId, kekLabel, 1, start, outcome);
+		}
+		return false;
+	}
+
+	/**
+	 * Wrap the data key under the key encryption key of the label. RSA keys wrap in
+	 * the JVM with their cached public key, AES keys on the token, see
+	 * {@link #encryptDataKey}.
+	 *
+	 * @param aesOnly: true if only AES key encryption keys are accepted
+	 */
+	private WrappedKey wrapDataKey(HsmSlot slot, String userPin, String kekLabel, byte[] dataKey, boolean aesOnly)
+			throws TokenException, GeneralSecurityException {
+		KeyWrapAlgorithm algorithm = kekAlgorithm(slot, userPin, kekLabel);
+		if (algorithm == KeyWrapAlgorithm.RSA_PKCS) {
+			if (aesOnly)
+				throw new NoSuchElementException("No AES key found with label " + kekLabel);
+			// RSA/ECB/PKCS1Padding with the public key is what C_WrapKey computes with CKM_RSA_PKCS
+			Cipher rsaCipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+			rsaCipher.init(Cipher.ENCRYPT_MODE, publicKeyCache.getPublicKey(slot, userPin, kekLabel));
+			return new WrappedKey(algorithm, rsaCipher.doFinal(dataKey));
+		}
+
+		if (!slot.supports(CKM_AES_KEY_WRAP, Usage.ENCRYPT)) {
+			slot.checkMechanism(PKCS11Constants.CKM_AES_CBC_PAD, Usage.ENCRYPT);
+			algorithm = KeyWrapAlgorithm.AES_CBC_PAD;
+		}
+		KeyWrapAlgorithm aesAlgorithm = algorithm;
+		return new WrappedKey(algorithm, sessionPool.execute(slot, userPin, false,
+				session -> encryptDataKey(session, aesAlgorithm, kekLabel, dataKey)));
+	}
+
+	/**
+	 * @return copy of the cached data key, to be zeroed by the caller, null if it
+	 *         is not cached or the session pool is not logged in with the pin
+	 */
+	private byte[] cachedDataKey(HsmSlot slot, String userPin, String kekLabel, WrappedKey wrappedKey) {
+		byte[] dataKey = null;
+		if (sessionPool.isLoggedInWith(slot.slotId(), userPin))
+			dataKey = dataKeyCache.get(cacheKey(slot.slotId(), kekLabel, wrappedKey.value()));
+		hsmMetrics.cacheAccess("data-key", dataKey != null);
+		return dataKey;
+	}
+
+	/**
+	 * Unwrap the data key on the token. It is not cached here: the caller caches
+	 * it once it authenticated the payload, so forged envelopes neither get a
+	 * data key cached nor evict valid ones.
+	 *
+	 * @return the data key, to be zeroed by the caller
+	 * @throws MechanismNotSupportedException : if the token does not offer
+	 *                                        CKM_AES_KEY_WRAP for C_Decrypt
+	 */
+	private byte[] unwrapDataKey(HsmSlot slot, String userPin, String kekLabel, WrappedKey wrappedKey)
+			throws TokenException {
+		// only wrapped with CKM_AES_KEY_WRAP on tokens which offer it for C_Encrypt
+		if (wrappedKey.algorithm() == KeyWrapAlgorithm.AES_KEY_WRAP)
+			slot.checkMechanism(CKM_AES_KEY_WRAP, Usage.DECRYPT);
+		return sessionPool.execute(slot, userPin, false,
+				session -> unwrap(session, wrappedKey.algorithm(), kekLabel, wrappedKey.value()));
+	}
+
+	private byte[] streamHeader(WrappedKey wrappedKey, int chunkSize, byte[] noncePrefix) throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream headerOut = new DataOutputStream(header);
+		headerOut.writeByte(STREAM_VERSION);
+		headerOut.writeByte(wrappedKey.algorithm() == KeyWrapAlgorithm.AES_KEY_WRAP ? 1 : 2);
+		headerOut.writeInt(chunkSize);
+		headerOut.writeShort(wrappedKey.value().length);
+		headerOut.write(wrappedKey.value());
+		headerOut.write(noncePrefix);
+		return header.toByteArray();
+	}
+
+	private KeyWrapAlgorithm kekAlgorithm(HsmSlot slot, String userPin, String kekLabel) throws TokenException {
+		Map<String, KeyWrapAlgorithm> algorithms = kekAlgorithms.computeIfAbsent(slot.slotId(),
+				slotId -> new ConcurrentHashMap<>());
+		KeyWrapAlgorithm algorithm = algorithms.get(kekLabel);
+		if (algorithm != null)
+			return algorithm;
+
+		algorithm = sessionPool.execute(slot, userPin, false, session -> {
+			if (hsmServiceUtil.getSecretKey(session, kekLabel) != null)
+				return KeyWrapAlgorithm.AES_KEY_WRAP;
+			if (hsmServiceUtil.getPublicKey(session, kekLabel) != null)
+				return KeyWrapAlgorithm.RSA_PKCS;
+			throw new NoSuchElementException("No key encryption key found with label " + kekLabel);
+		});
+		algorithms.put(kekLabel, algorithm);
+		return algorithm;
+	}
+
+	/**
+	 * Encrypt the data key under the AES key encryption key, with CKM_AES_KEY_WRAP
+	 * (RFC 3394) where the token offers it for C_Encrypt and CKM_AES_CBC_PAD
+	 * otherwise. Both only need CKA_ENCRYPT on the key encryption key.
+	 */
+	private byte[] encryptDataKey(Session session, KeyWrapAlgorithm algorithm, String kekLabel, byte[] dataKey)
+			throws TokenException {
+		AESSecretKey kek = hsmServiceUtil.getSecretKey(session, kekLabel);
+		if (kek == null)
+			throw new NoSuchElementException("No AES key found with label " + kekLabel);
+
+		if (algorithm == KeyWrapAlgorithm.AES_KEY_WRAP) {
+			session.encryptInit(Mechanism.get(CKM_AES_KEY_WRAP), kek);
+			return hsmMetrics.recordPkcs11("wrap", slotId(session), "CKM_AES_KEY_WRAP",
+					() -> session.encrypt(dataKey));
+		}
+
+		byte[] iv = new byte[AES_BLOCK_SIZE];
+		secureRandom.nextBytes(iv);
+		Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_AES_CBC_PAD);
+		mechanism.setParameters(new InitializationVectorParameters(iv));
+		session.encryptInit(mechanism, kek);
+		byte[] encrypted = hsmMetrics.recordPkcs11("wrap", slotId(session), "CKM_AES_CBC_PAD",
+				() -> session.encrypt(dataKey));
+		byte[] wrappedKey = Arrays.copyOf(iv, AES_BLOCK_SIZE + encrypted.length);
+		System.arraycopy(encrypted, 0, wrappedKey, AES_BLOCK_SIZE, encrypted.length);
+		return wrappedKey;
+	}
+
+	/**
+	 * Decrypt the data key on the token. RSA wrapped keys are decrypted with the
+	 * private key as existing key pairs are not generated with CKA_UNWRAP, AES
+	 * wrapped keys with C_Decrypt, so the data key never becomes an object on the
+	 * token.
+	 */
+	private byte[] unwrap(Session session, KeyWrapAlgorithm algorithm, String kekLabel, byte[] wrappedKey)
+			throws TokenException {
+		if (algorithm == KeyWrapAlgorithm.RSA_PKCS) {
+			PrivateKey kek = hsmServiceUtil.getPrivateKey(session, kekLabel);
+			if (kek == null)
+				throw new NoSuchElementException("No private key found with label " + kekLabel);
+			session.decryptInit(Mechanism.get(PKCS11Constants.CKM_RSA_PKCS), kek);
+			return hsmMetrics.recordPkcs11("decrypt", slotId(session), "CKM_RSA_PKCS",
+					() -> session.decrypt(wrappedKey));
+		}
+
+		AESSecretKey kek = hsmServiceUtil.getSecretKey(session, kekLabel);
+		if (kek == null)
+			throw new NoSuchElementException("No AES key found with label " + kekLabel);
+
+		if (algorithm == KeyWrapAlgorithm.AES_CBC_PAD) {
+			if (wrappedKey.length <= AES_BLOCK_SIZE)
+				throw new IllegalArgumentException("Wrapped key is shorter than the IV");
+			Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_AES_CBC_PAD);
+			mechanism.setParameters(new InitializationVectorParameters(Arrays.copyOf(wrappedKey, AES_BLOCK_SIZE)));
+			session.decryptInit(mechanism, kek);
+			byte[] encrypted = Arrays.copyOfRange(wrappedKey, AES_BLOCK_SIZE, wrappedKey.length);
+			return hsmMetrics.recordPkcs11("unwrap", slotId(session), "CKM_AES_CBC_PAD",
+					() -> session.decrypt(encrypted));
+		}
+
+		session.decryptInit(Mechanism.get(CKM_AES_KEY_WRAP), kek);
+		return hsmMetrics.recordPkcs11("unwrap", slotId(session), "CKM_AES_KEY_WRAP",
+				() -> session.decrypt(wrappedKey));
+	}
+
+	private long slotId(Session session) {
+		return session.getToken().getSlot().getSlotID();
+	}
+
+	private String cacheKey(long slotId, String kekLabel, byte[] wrappedKey) {
+		return Long.toHexString(slotId) + ':' + kekLabel + ':' + Base64.getEncoder().encodeToString(wrappedKey);
+	}
+
+	private record WrappedKey(KeyWrapAlgorithm algorithm, byte[] value) {
+	}
+
+	/**
+	 * AES-GCM of the chunks of a stream. The nonce is the random prefix of the
+	 * stream followed by the number of the chunk; the header of the stream and
+	 * whether the chunk is the last one are authenticated with each chunk.
+	 */
+	private static final class ChunkCipher {
+
+		private final Cipher cipher;
+
+		private final SecretKeySpec key;
+
+		private final byte[] header;
+
+		private final byte[] nonce = new byte[GCM_IV_LENGTH];
+
+		private int counter;
+
+		ChunkCipher(byte[] dataKey, byte[] header, byte[] noncePrefix) throws GeneralSecurityException {
+			this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+			this.key = new SecretKeySpec(dataKey, "AES");
+			this.header = header;
+			System.arraycopy(noncePrefix, 0, nonce, 0, STREAM_NONCE_PREFIX_LENGTH);
+		}
+
+		byte[] seal(byte[] chunk, boolean last) throws GeneralSecurityException {
+			init(Cipher.ENCRYPT_MODE, last);
+			return cipher.doFinal(chunk);
+		}
+
+		/**
+		 * @throws AEADBadTagException : if the chunk was tampered with, reordered or
+		 *                             is not the last one although the stream ends
+		 */
+		byte[] open(byte[] sealed, boolean last) throws GeneralSecurityException {
+			init(Cipher.DECRYPT_MODE, last);
+			return cipher.doFinal(sealed);
+		}
+
+		private void init(int mode, boolean last) throws GeneralSecurityException {
+			if (counter == -1)
+				throw new GeneralSecurityException("Stream exceeds the maximum number of chunks");
+			nonce[8] = (byte) (counter >>> 24);
+			nonce[9] = (byte) (counter >>> 16);
+			nonce[10] = (byte) (counter >>> 8);
+			nonce[11] = (byte) counter;
+			counter++;
+			cipher.init(mode, key, new GCMParameterSpec(GCM_TAG_LENGTH, nonce));
+			cipher.updateAAD(header);
+			cipher.updateAAD(new byte[] { (byte) (last ? 1 : 0) });
+		}
+	}
+}
@@ -12,15 +12,24 @@ import java.security.Signature;
 import java.security.spec.MGF1ParameterSpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 import javax.crypto.Cipher;
 import javax.crypto.spec.OAEPParameterSpec;
 import javax.crypto.spec.PSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import com.google.cloud.kms.v1.AsymmetricDecryptResponse;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.cloud.kms.v1.AsymmetricSignRequest;
 import com.google.cloud.kms.v1.AsymmetricSignResponse;
 import com.google.cloud.kms.v1.CreateKeyRingRequest;
 import com.google.cloud.kms.v1.CryptoKey;
@@ -29,21 +38,27 @@ import com.google.cloud.kms.v1.CryptoKeyName;
 import com.google.cloud.kms.v1.CryptoKeyVersion.CryptoKeyVersionAlgorithm;
 import com.google.cloud.kms.v1.CryptoKeyVersionName;
 import com.google.cloud.kms.v1.CryptoKeyVersionTemplate;
+import com.google.cloud.kms.v1.DecryptRequest;
 import com.google.cloud.kms.v1.DecryptResponse;
 import com.google.cloud.kms.v1.Digest;
+import com.google.cloud.kms.v1.EncryptRequest;
 import com.google.cloud.kms.v1.EncryptResponse;
 import com.google.cloud.kms.v1.KeyManagementServiceClient;
-import com.google.cloud.kms.v1.KeyManagementServiceClient.ListCryptoKeysPagedResponse;
-import com.google.cloud.kms.v1.KeyManagementServiceClient.ListKeyRingsPagedResponse;
+import com.google.cloud.kms.v1.KeyManagementServiceSettings;
 import com.google.cloud.kms.v1.KeyRing;
 import com.google.cloud.kms.v1.KeyRingName;
 import com.google.cloud.kms.v1.LocationName;
 import com.google.cloud.kms.v1.ProtectionLevel;
 import com.google.cloud.kms.v1.PublicKey;
 import com.google.protobuf.ByteString;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.UnsafeByteOperations;
 import com.tmobile.hsmservice.controller.HsmGoogleController;
 import com.tmobile.hsmservice.dto.CryptoKeyDTO;
 
+import io.grpc.ManagedChannelBuilder;
+import jakarta.annotation.PreDestroy;
+
 @Service
 public class HsmGoogleService {
 
@@ -55,22 +70,75 @@ public class HsmGoogleService {
 	@Value("${hsm.google-cloud.location}")
 	private String location;
 
-	public ListKeyRingsPagedResponse getKeyRings() {
-		// Initialize client that will be used to send requests. This client only
-		// needs to be created once, and can be reused for multiple requests. After
-		// completing all of your requests, call the "close" method on the client to
-		// safely clean up any remaining background resources.
-		try (KeyManagementServiceClient client = KeyManagementServiceClient.create()) {
-			// Build the parent from the project and location.
-			LocationName parent = LocationName.of(projectId, location);
+	@Value("${hsm.google-cloud.endpoint:}")
+	private String endpoint;
+
+	@Value("${hsm.google-cloud.use-plaintext:false}")
+	private boolean usePlaintext;
+
+	@Autowired
+	private HsmMetrics hsmMetrics;
+
+	@Autowired
+	private HsmAuditLog auditLog;
+
+	@Autowired
+	private HsmSingleFlight singleFlight;
+
+	private KeyManagementServiceClient client;
+
+	/**
+	 * The client holds a gRPC channel and its executors, so it is created once on
+	 * first use and shared by all requests instead of being created per call.
+	 * Created lazily as building it resolves the credentials.
+	 */
+	private synchronized KeyManagementServiceClient kmsClient() throws IOException {
+		if (client == null) {
+			KeyManagementServiceSettings.Builder settings = KeyManagementServiceSettings.newBuilder();
+			if (!endpoint.isEmpty()) {
+				logger.info("Using Cloud KMS endpoint {}", endpoint);
+				settings.setEndpoint(endpoint);
+				if (usePlaintext) {
+					// local stand-ins of KMS serve without TLS and credentials
+					settings.setTransportChannelProvider(KeyManagementServiceSettings
+							.defaultGrpcTransportProviderBuilder().setChannelConfigurator(ManagedChannelBuilder::usePlaintext)
+							.build());
+					settings.setCredentialsProvider(NoCredentialsProvider.create());
+				}
+			}
+			client = KeyManagementServiceClient.create(settings.build());
+		}
+		return client;
+	}
 
-			// Call the API to get key rings.
-			ListKeyRingsPagedResponse response = client.listKeyRings(parent);
+	@PreDestroy
+	public synchronized void close() {
+		if (client != null)
+			client.close();
+	}
 
-			return response;
+	public List<KeyRing> getKeyRings() {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		try {
+			// Concurrent pollers share one listing, read to the last page so that
+			// they do not fetch the further pages each on their own.
+			List<KeyRing> keyRings = singleFlight.execute("key-rings", () -> {
+				KeyManagementServiceClient client = kmsClient();
+				// Build the parent from the project and location.
+				LocationName parent = LocationName.of(projectId, location);
+
+				// Call the API to get key rings.
+				return hsmMetrics.recordKms("listKeyRings", () -> listAll(client.listKeyRings(parent).iterateAll()));
+			});
+
+			outcome = HsmAuditLog.SUCCESS;
+			return keyRings;
 		} catch (IOException e) {
-			e.printStackTrace();
+			logger.error("Error observed, message: {}", e.getLocalizedMessage());
 			return null;
+		} finally {
+			auditLog.recordKms("list-key-rings", null, null, 0, start, outcome);
 		}
 	}
 
@@ -78,26 +146,33 @@ public class HsmGoogleService {
 
 		logger.info("Key ring to be created with id: {}", keyringId);
 
-		// Initialize client that will be used to send requests. This client only
-		// needs to be created once, and can be reused for multiple requests. After
-		// completing all of your requests, call the "close" method on the client to
-		// safely clean up any remaining background resources.
-		try (KeyManagementServiceClient keyManagementServiceClient = KeyManagementServiceClient.create()) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		try {
+			KeyManagementServiceClient keyManagementServiceClient = kmsClient();
 			CreateKeyRingRequest request = CreateKeyRingRequest.newBuilder()
 					.setParent(LocationName.of(projectId, location).toString()).setKeyRingId(keyringId)
 					.setKeyRing(KeyRing.newBuilder().build()).build();
 
-			return keyManagementServiceClient.createKeyRing(request);
+			KeyRing keyRing = hsmMetrics.recordKms("createKeyRing",
+					() -> keyManagementServiceClient.createKeyRing(request));
+			outcome = HsmAuditLog.SUCCESS;
+			return keyRing;
 		} catch (IOException e) {
-			e.printStackTrace();
+			logger.error("Error observed, message: {}", e.getLocalizedMessage());
 			return null;
+		} finally {
+			auditLog.recordKms("create-key-ring", keyringId, null, 0, start, outcome);
 		}
 
 	}
 
 	public CryptoKey createCryptoKey(String keyringId, CryptoKeyDTO cryptoKeyDTO) {
 
-		try (KeyManagementServiceClient client = KeyManagementServiceClient.create()) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		try {
+			KeyManagementServiceClient client = kmsClient();
 
 			KeyRingName keyRingName = KeyRingName.of(projectId, location, keyringId);
 
@@ -107,57 +182,244 @@ public class HsmGoogleService {
 							.setProtectionLevel(ProtectionLevel.valueOf(cryptoKeyDTO.protectionlevel())))
 					.putAllLabels(cryptoKeyDTO.labels()).build();
 
-			return client.createCryptoKey(keyRingName, cryptoKeyDTO.name(), key);
+			CryptoKey cryptoKey = hsmMetrics.recordKms("createCryptoKey",
+					() -> client.createCryptoKey(keyRingName, cryptoKeyDTO.name(), key));
+			outcome = HsmAuditLog.SUCCESS;
+			return cryptoKey;
 		} catch (IOException e) {
-			e.printStackTrace();
+			logger.error("Error observed, message: {}", e.getLocalizedMessage());
 			return null;
+		} finally {
+			auditLog.recordKms("create-crypto-key", keyringId, cryptoKeyDTO.name(), 0, start, outcome);
 		}
 
 	}
 
-	public ListCryptoKeysPagedResponse getCryptoKeys(String keyRingId) {
-		// Initialize client that will be used to send requests. This client only
-		// needs to be created once, and can be reused for multiple requests. After
-		// completing all of your requests, call the "close" method on the client to
-		// safely clean up any remaining background resources.
-		try (KeyManagementServiceClient client = KeyManagementServiceClient.create()) {
-			// Build the parent from the project and location.
-
-			KeyRingName keyRingName = KeyRingName.of(projectId, location, keyRingId);
-			// Call the API to get key rings.
-			return client.listCryptoKeys(keyRingName);
+	public List<CryptoKey> getCryptoKeys(String keyRingId) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		try {
+			List<CryptoKey> cryptoKeys = singleFlight.execute("crypto-keys:" + keyRingId, () -> {
+				KeyManagementServiceClient client = kmsClient();
+				// Build the parent from the project and location.
+
+				KeyRingName keyRingName = KeyRingName.of(projectId, location, keyRingId);
+				// Call the API to get key rings.
+				return hsmMetrics.recordKms("listCryptoKeys",
+						() -> listAll(client.listCryptoKeys(keyRingName).iterateAll()));
+			});
+			outcome = HsmAuditLog.SUCCESS;
+			return cryptoKeys;
 		} catch (IOException e) {
-			e.printStackTrace();
+			logger.error("Error observed, message: {}", e.getLocalizedMessage());
 			return null;
+		} finally {
+			auditLog.recordKms("list-crypto-keys", keyRingId, null, 0, start, outcome);
 		}
 	}
 
 	public boolean encryptData(String keyringId, String keyId, String data) {
 
-		try (KeyManagementServiceClient client = KeyManagementServiceClient.create()) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		try {
+			KeyManagementServiceClient client = kmsClient();
 
 			// Build the key version name from the project, location, key ring, key,
 			// and key version.
 			CryptoKeyName keyVersionName = CryptoKeyName.of(projectId, location, keyringId, keyId);
 
 			// Encrypt the plaintext.
-			EncryptResponse encryptResponse = client.encrypt(keyVersionName, ByteString.copyFromUtf8(data));
-			logger.info("Encrypted Text (Base64 encoded): {}", Base64.getEncoder().encodeToString(encryptResponse.getCiphertext().toByteArray()));
+			EncryptResponse encryptResponse = hsmMetrics.recordKms("encrypt",
+					() -> client.encrypt(keyVersionName, ByteString.copyFromUtf8(data)));
 
-			DecryptResponse decryptResponse = client.decrypt(keyVersionName, encryptResponse.getCiphertext());
-			logger.info("Decrypted Text: {}", decryptResponse.getPlaintext().toStringUtf8());
+			hsmMetrics.recordKms("decrypt", () -> client.decrypt(keyVersionName, encryptResponse.getCiphertext()));
+			outcome = HsmAuditLog.SUCCESS;
 			return true;
 
 		} catch (IOException e) {
-			e.printStackTrace();
+			logger.error("Error observed, message: {}", e.getLocalizedMessage());
 			return false;
+		} finally {
+			auditLog.recordKms("encrypt", keyringId, keyId, 1, start, outcome);
+		}
+
+	}
+
+	/**
+	 * Encrypt raw bytes with the symmetric crypto key.
+	 *
+	 * @return ciphertext, null on error
+	 */
+	public byte[] encrypt(String keyringId, String keyId, byte[] plaintext) {
+		long start = System.nanoTime();
+		byte[] result = null;
+		try {
+			KeyManagementServiceClient client = kmsClient();
+			CryptoKeyName keyName = CryptoKeyName.of(projectId, location, keyringId, keyId);
+			// the request only reads the bytes, so they are wrapped instead of copied
+			EncryptResponse response = hsmMetrics.recordKms("encrypt",
+					() -> client.encrypt(keyName, UnsafeByteOperations.unsafeWrap(plaintext)));
+			result = response.getCiphertext().toByteArray();
+		} catch (IOException e) {
+			logger.error("Error observed, message: {}", e.getLocalizedMessage());
+		} finally {
+			auditLog.recordKms("encrypt", keyringId, keyId, 1, start,
+					result != null ? HsmAuditLog.SUCCESS : HsmAuditLog.ERROR);
+		}
+		return result;
+	}
+
+	/**
+	 * Decrypt raw bytes with the symmetric crypto key.
+	 *
+	 * @return plaintext, null on error
+	 */
+	public byte[] decrypt(String keyringId, String keyId, byte[] ciphertext) {
+		long start = System.nanoTime();
+		byte[] result = null;
+		try {
+			KeyManagementServiceClient client = kmsClient();
+			CryptoKeyName keyName = CryptoKeyName.of(projectId, location, keyringId, keyId);
+			DecryptResponse response = hsmMetrics.recordKms("decrypt",
+					() -> client.decrypt(keyName, UnsafeByteOperations.unsafeWrap(ciphertext)));
+			result = response.getPlaintext().toByteArray();
+		} catch (IOException e) {
+			logger.error("Error observed, message: {}", e.getLocalizedMessage());
+		} finally {
+			auditLog.recordKms("decrypt", keyringId, keyId, 1, start,
+					result != null ? HsmAuditLog.SUCCESS : HsmAuditLog.ERROR);
+		}
+		return result;
+	}
+
+	/**
+	 * Sign raw bytes with version 1 of the asymmetric crypto key, hashing them
+	 * with SHA-256 in the JVM.
+	 *
+	 * @return signature, null on error
+	 */
+	public byte[] sign(String keyringId, String keyId, byte[] data) {
+		long start = System.nanoTime();
+		byte[] signature = null;
+		try {
+			CryptoKeyVersionName keyVersionName = CryptoKeyVersionName.of(projectId, location, keyringId, keyId, "1");
+			signature = signData(kmsClient(), keyVersionName, data);
+		} catch (IOException | NoSuchAlgorithmException e) {
+			logger.error("Error observed, message: {}", e.getLocalizedMessage());
+		} finally {
+			auditLog.recordKms("sign", keyringId, keyId, 1, start,
+					signature != null ? HsmAuditLog.SUCCESS : HsmAuditLog.ERROR);
+		}
+		return signature;
+	}
+
+	/**
+	 * Encrypt raw bytes with the symmetric crypto key without blocking the caller,
+	 * see {@link #encrypt}.
+	 *
+	 * @return future of the ciphertext, completed with null if the client could not
+	 *         be created, completed exceptionally with the ApiException of a
+	 *         failed RPC
+	 */
+	public CompletableFuture<byte[]> encryptAsync(String keyringId, String keyId, byte[] plaintext) {
+		EncryptRequest request = EncryptRequest.newBuilder()
+				.setName(CryptoKeyName.of(projectId, location, keyringId, keyId).toString())
+				.setPlaintext(UnsafeByteOperations.unsafeWrap(plaintext)).build();
+		return callAsync("encrypt", "encrypt", keyringId, keyId, client -> client.encryptCallable().futureCall(request))
+				.thenApply(response -> response == null ? null : response.getCiphertext().toByteArray());
+	}
+
+	/**
+	 * Decrypt raw bytes with the symmetric crypto key without blocking the caller,
+	 * see {@link #decrypt}.
+	 *
+	 * @return future of the plaintext, completed with null if the client could not
+	 *         be created, completed exceptionally with the ApiException of a
+	 *         failed RPC
+	 */
+	public CompletableFuture<byte[]> decryptAsync(String keyringId, String keyId, byte[] ciphertext) {
+		DecryptRequest request = DecryptRequest.newBuilder()
+				.setName(CryptoKeyName.of(projectId, location, keyringId, keyId).toString())
+				.setCiphertext(UnsafeByteOperations.unsafeWrap(ciphertext)).build();
+		return callAsync("decrypt", "decrypt", keyringId, keyId, client -> client.decryptCallable().futureCall(request))
+				.thenApply(response -> response == null ? null : response.getPlaintext().toByteArray());
+	}
+
+	/**
+	 * Sign raw bytes with version 1 of the asymmetric crypto key without blocking
+	 * the caller, see {@link #sign}. The SHA-256 hash is computed before the call
+	 * returns.
+	 *
+	 * @return future of the signature, completed with null if the hash could not
+	 *         be computed or the client created, completed exceptionally with
+	 *         the ApiException of a failed RPC
+	 */
+	public CompletableFuture<byte[]> signAsync(String keyringId, String keyId, byte[] data) {
+		byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("SHA-256").digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			logger.error("Error observed, message: {}", e.getLocalizedMessage());
+			return CompletableFuture.completedFuture(null);
+		}
+		AsymmetricSignRequest request = AsymmetricSignRequest.newBuilder()
+				.setName(CryptoKeyVersionName.of(projectId, location, keyringId, keyId, "1").toString())
+				.setDigest(Digest.newBuilder().setSha256(UnsafeByteOperations.unsafeWrap(hash))).build();
+		return callAsync("asymmetricSign", "sign", keyringId, keyId,
+				client -> client.asymmetricSignCallable().futureCall(request))
+				.thenApply(response -> response == null ? null : response.getSignature().toByteArray());
+	}
+
+	/**
+	 * Issue an RPC through the future callable of the client. The future completes
+	 * on a thread of the client and is timed and audited on completion, the
+	 * deadline of the RPC is the one configured in the client settings.
+	 *
+	 * @param operation:      name of the RPC for the metrics
+	 * @param auditOperation: name of the operation for the audit log
+	 */
+	private <T> CompletableFuture<T> callAsync(String operation, String auditOperation, String keyringId,
+			String keyId, Function<KeyManagementServiceClient, ApiFuture<T>> call) {
+		CompletableFuture<T> future;
+		try {
+			KeyManagementServiceClient client = kmsClient();
+			future = hsmMetrics.recordKmsAsync(operation, () -> toCompletableFuture(call.apply(client)));
+		} catch (IOException e) {
+			logger.error("Error observed, message: {}", e.getLocalizedMessage());
+			future = CompletableFuture.completedFuture(null);
 		}
+		return future.whenComplete(auditLog.kmsCompletion(auditOperation, keyringId, keyId, 1));
+	}
+
+	private static <T> CompletableFuture<T> toCompletableFuture(ApiFuture<T> apiFuture) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		ApiFutures.addCallback(apiFuture, new ApiFutureCallback<T>() {
+
+			@Override
+			public void onSuccess(T result) {
+				future.complete(result);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				future.completeExceptionally(t);
+			}
+		}, MoreExecutors.directExecutor());
+		return future;
+	}
 
+	// fetches all pages, the result is shared read only by coalesced callers
+	private static <T> List<T> listAll(Iterable<T> elements) {
+		return StreamSupport.stream(elements.spliterator(), false).toList();
 	}
 
 	public boolean encryptDataAsymmetric(String keyringId, String keyId, String data) {
 
-		try (KeyManagementServiceClient client = KeyManagementServiceClient.create()) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		try {
+			KeyManagementServiceClient client = kmsClient();
 
 			// Build the key version name from the project, location, key ring, key,
 			// and key version.
@@ -165,7 +427,7 @@ public class HsmGoogleService {
 			CryptoKeyVersionName keyVersionName = CryptoKeyVersionName.of(projectId, location, keyringId, keyId, "1");
 
 			// Get the public key.
-			PublicKey publicKey = client.getPublicKey(keyVersionName);
+			PublicKey publicKey = hsmMetrics.recordKms("getPublicKey", () -> client.getPublicKey(keyVersionName));
 
 			// Convert the public PEM key to a DER key
 			byte[] derKey = convertPemToDer(publicKey.getPem());
@@ -179,31 +441,34 @@ public class HsmGoogleService {
 					PSource.PSpecified.DEFAULT);
 			cipher.init(Cipher.ENCRYPT_MODE, rsaKey, oaepParams);
 			byte[] ciphertext = cipher.doFinal(data.getBytes(StandardCharsets.UTF_8));
-			logger.info("Encrypted text (Base64 encoded): {}", Base64.getEncoder().encodeToString(ciphertext));
 			decryptDataAsymmetric(keyringId, keyId, ciphertext);
+			outcome = HsmAuditLog.SUCCESS;
 			return true;
-		} catch (IOException e) {
-			e.printStackTrace();
-			return false;
-		} catch (GeneralSecurityException e) {
-			e.printStackTrace();
+		} catch (IOException | GeneralSecurityException e) {
+			logger.error("Error observed, message: {}", e.getLocalizedMessage());
 			return false;
+		} finally {
+			auditLog.recordKms("encrypt-asymmetric", keyringId, keyId, 1, start, outcome);
 		}
 
 	}
 
 	public boolean decryptDataAsymmetric(String keyringId, String keyId, byte[] ciphertext) {
 
-		try (KeyManagementServiceClient client = KeyManagementServiceClient.create()) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		try {
+			KeyManagementServiceClient client = kmsClient();
 			CryptoKeyVersionName keyVersionName = CryptoKeyVersionName.of(projectId, location, keyringId, keyId, "1");
 
 			// Decrypt the ciphertext.
-			AsymmetricDecryptResponse response = client.asymmetricDecrypt(keyVersionName,
-					ByteString.copyFrom(ciphertext));
-			logger.info("Decrypted Text: {}", response.getPlaintext().toStringUtf8());
+			hsmMetrics.recordKms("asymmetricDecrypt",
+					() -> client.asymmetricDecrypt(keyVersionName, ByteString.copyFrom(ciphertext)));
+			outcome = HsmAuditLog.SUCCESS;
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			logger.error("Error observed, message: {}", e.getLocalizedMessage());
+		} finally {
+			auditLog.recordKms("decrypt-asymmetric", keyringId, keyId, 1, start, outcome);
 		}
 		return false;
 	}
@@ -220,7 +485,10 @@ public class HsmGoogleService {
 
 	public boolean signDataAndVerifySignature(String keyringId, String keyId, String data) {
 
-		try (KeyManagementServiceClient client = KeyManagementServiceClient.create()) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		try {
+			KeyManagementServiceClient client = kmsClient();
 			// Build the key version name from the project, location, key ring, key,
 			// and key version.
 			CryptoKeyVersionName keyVersionName = CryptoKeyVersionName.of(projectId, location, keyringId, keyId, "1");
@@ -231,16 +499,13 @@ public class HsmGoogleService {
 
 			byte[] signature = signData(client, keyVersionName, plaintext);
 			verifySignature(client, keyVersionName, plaintext, signature);
+			outcome = HsmAuditLog.SUCCESS;
 			return true;
-		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
-			return false;
-		} catch (IOException e1) {
-			e1.printStackTrace();
-			return false;
-		} catch (GeneralSecurityException e) {
-			e.printStackTrace();
+		} catch (IOException | GeneralSecurityException e) {
+			logger.error("Error observed, message: {}", e.getLocalizedMessage());
 			return false;
+		} finally {
+			auditLog.recordKms("sign", keyringId, keyId, 1, start, outcome);
 		}
 
 	}
@@ -255,19 +520,17 @@ public class HsmGoogleService {
 		Digest digest = Digest.newBuilder().setSha256(ByteString.copyFrom(hash)).build();
 
 		// Sign the digest.
-		AsymmetricSignResponse result = client.asymmetricSign(keyVersionName, digest);
+		AsymmetricSignResponse result = hsmMetrics.recordKms("asymmetricSign",
+				() -> client.asymmetricSign(keyVersionName, digest));
 
 		// Get the signature.
-		byte[] signature = result.getSignature().toByteArray();
-
-		logger.info("Signature (Base64 encoded): {}", Base64.getEncoder().encodeToString(signature));
-		return signature;
+		return result.getSignature().toByteArray();
 	}
 
 	private void verifySignature(KeyManagementServiceClient client, CryptoKeyVersionName keyVersionName,
 			byte[] plaintext, byte[] signature) throws NoSuchAlgorithmException, GeneralSecurityException {
 		// Get the public key.
-		PublicKey publicKey = client.getPublicKey(keyVersionName);
+		PublicKey publicKey = hsmMetrics.recordKms("getPublicKey", () -> client.getPublicKey(keyVersionName));
 
 		// Convert the public PEM key to a DER key (see helper below).
 		byte[] derKey = convertPemToDer(publicKey.getPem());
@@ -0,0 +1,167 @@
+package com.tmobile.hsmservice.service;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.tmobile.hsmservice.dto.KeyGenJobDTO;
+import com.tmobile.hsmservice.dto.RSAKeyPairDTO;
+import com.tmobile.hsmservice.exception.HsmOverloadedException;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * RSA key pair generation as background jobs, so provisioning bursts neither
+ * hold request threads for the duration of a key generation nor take more than
+ * pkcs11.keygen.parallelism RW sessions at a time.
+ */
+@Service
+public class HsmKeyGenJobService {
+
+	private Logger logger = LoggerFactory.getLogger(HsmKeyGenJobService.class);
+
+	public enum JobStatus {
+		PENDING, RUNNING, SUCCEEDED, FAILED
+	}
+
+	@Value("${pkcs11.keygen.parallelism:2}")
+	private int parallelism;
+
+	@Value("${pkcs11.keygen.max-pending:100}")
+	private int maxPending;
+
+	@Value("${pkcs11.keygen.job-retention-ms:3600000}")
+	private long jobRetentionMs;
+
+	@Autowired
+	private HsmService hsmService;
+
+	@Autowired
+	private HsmMetrics hsmMetrics;
+
+	private ExecutorService keyGenExecutor;
+
+	private final Map<String, KeyGenJob> jobs = new ConcurrentHashMap<>();
+
+	private final AtomicInteger pending = new AtomicInteger();
+
+	@PostConstruct
+	public void postConstructRoutine() {
+		keyGenExecutor = Executors.newFixedThreadPool(parallelism, Thread.ofVirtual().name("hsm-keygen-", 0).factory());
+		hsmMetrics.gauge("hsm.keygen.jobs.pending", pending, AtomicInteger::get);
+	}
+
+	@PreDestroy
+	public void preDestroyRoutine() {
+		keyGenExecutor.shutdownNow();
+	}
+
+	/**
+	 * Queue the generation of a RSA key pair.
+	 *
+	 * @return id of the job
+	 * @throws HsmOverloadedException   : if too many jobs are pending
+	 * @throws IllegalArgumentException : if the label is reserved for the key
+	 *                                  pair pool
+	 */
+	public String submit(long slotId, String userPin, String label) {
+		HsmKeyPairPool.checkLabel(label);
+		purgeExpired();
+		if (pending.incrementAndGet() > maxPending) {
+			pending.decrementAndGet();
+			throw new HsmOverloadedException("Too many key generation jobs pending, retry later", 1);
+		}
+
+		KeyGenJob job = new KeyGenJob(UUID.randomUUID().toString());
+		jobs.put(job.id, job);
+		CompletableFuture.supplyAsync(() -> {
+			job.status = JobStatus.RUNNING;
+			return hsmService.saveKeyPair(slotId, userPin, label);
+		}, keyGenExecutor).whenComplete((keyPair, throwable) -> {
+			pending.decrementAndGet();
+			job.complete(keyPair, throwable);
+			logger.info("Key generation job {} for label {} finished: {}", job.id, label, job.status);
+		});
+		logger.info("Key generation job {} for label {} queued", job.id, label);
+		return job.id;
+	}
+
+	/**
+	 * @throws NoSuchElementException : if the job is unknown or expired
+	 */
+	public KeyGenJobDTO getStatus(String jobId) {
+		return jobOf(jobId).toDTO();
+	}
+
+	/**
+	 * @return future completed with the status of the job once it has finished
+	 * @throws NoSuchElementException : if the job is unknown or expired
+	 */
+	public CompletableFuture<KeyGenJobDTO> whenDone(String jobId) {
+		KeyGenJob job = jobOf(jobId);
+		return job.done.thenApply(ignored -> job.toDTO());
+	}
+
+	private KeyGenJob jobOf(String jobId) {
+		KeyGenJob job = jobs.get(jobId);
+		if (job == null)
+			throw new NoSuchElementException("No key generation job found with id " + jobId);
+		return job;
+	}
+
+	private void purgeExpired() {
+		long expiredBefore = System.currentTimeMillis() - jobRetentionMs;
+		jobs.values().removeIf(job -> job.completedAt != 0 && job.completedAt < expiredBefore);
+	}
+
+	private static class KeyGenJob {
+
+		private final String id;
+
+		private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+		private volatile JobStatus status = JobStatus.PENDING;
+
+		private volatile RSAKeyPairDTO keyPair;
+
+		private volatile String error;
+
+		private volatile long completedAt;
+
+		KeyGenJob(String id) {
+			this.id = id;
+		}
+
+		void complete(RSAKeyPairDTO keyPair, Throwable throwable) {
+			if (throwable != null) {
+				Throwable cause = throwable.getCause() != null ? throwable.getCause() : throwable;
+				error = cause.getMessage();
+				status = JobStatus.FAILED;
+			} else if (keyPair == null) {
+				error = "Some error observed during generation of RSA key pair";
+				status = JobStatus.FAILED;
+			} else {
+				this.keyPair = keyPair;
+				status = JobStatus.SUCCEEDED;
+			}
+			completedAt = System.currentTimeMillis();
+			done.complete(null);
+		}
+
+		KeyGenJobDTO toDTO() {
+			return new KeyGenJobDTO(id, status.name(), keyPair, error);
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package com.tmobile.hsmservice.service;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.tmobile.hsmservice.service.HsmObjectIndex.KeyClass;
+import com.tmobile.hsmservice.service.HsmSlot.Usage;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.objects.RSAPublicKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Pool of RSA key pairs generated ahead of time on each token, so provisioning
+ * a key pair costs an attribute update instead of a key generation. Pooled key
+ * pairs carry a reserved label until they are assigned. The pool is refilled in
+ * the background on tokens which are logged in, and not while the token is
+ * busy serving requests.
+ */
+@Component
+public class HsmKeyPairPool {
+
+	private Logger logger = LoggerFactory.getLogger(HsmKeyPairPool.class);
+
+	static final String LABEL_PREFIX = "hsm-pool-";
+
+	/**
+	 * Reject a label requested for a key pair which is reserved for pooled key
+	 * pairs. Key pairs carrying it are not listed and are taken into the pool
+	 * after a restart.
+	 *
+	 * @throws IllegalArgumentException : if the label has the reserved prefix
+	 */
+	public static void checkLabel(String label) {
+		if (label != null && label.startsWith(LABEL_PREFIX))
+			throw new IllegalArgumentException("Labels starting with " + LABEL_PREFIX + " are reserved");
+	}
+
+	@Value("${pkcs11.keypair-pool.size:0}")
+	private int size;
+
+	@Value("${pkcs11.keypair-pool.refill-interval-ms:1000}")
+	private long refillIntervalMs;
+
+	@Value("${pkcs11.keypair-pool.refill-batch:1}")
+	private int refillBatch;
+
+	@Autowired
+	private HsmSlotRegistry slotRegistry;
+
+	@Autowired
+	private HsmSessionPool sessionPool;
+
+	@Autowired
+	private HsmServiceUtil hsmServiceUtil;
+
+	@Autowired
+	private HsmObjectIndex hsmObjectIndex;
+
+	@Autowired
+	private HsmConcurrencyLimiter concurrencyLimiter;
+
+	@Autowired
+	private HsmMetrics hsmMetrics;
+
+	private final Map<Long, SlotKeyPairs> slotKeyPairs = new ConcurrentHashMap<>();
+
+	private ScheduledExecutorService refiller;
+
+	@PostConstruct
+	public void postConstructRoutine() {
+		if (size <= 0)
+			return;
+		slotRegistry.addRemovalListener(slotKeyPairs::remove);
+		refiller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "hsm-keypair-pool");
+			thread.setDaemon(true);
+			return thread;
+		});
+		refiller.scheduleWithFixedDelay(this::refill, refillIntervalMs, refillIntervalMs, TimeUnit.MILLISECONDS);
+		logger.info("Key pair pool of {} key pairs per slot enabled", size);
+	}
+
+	@PreDestroy
+	public void preDestroyRoutine() {
+		if (refiller != null)
+			refiller.shutdownNow();
+	}
+
+	/**
+	 * Assign a pooled key pair of the token to the label, setting CKA_LABEL of both
+	 * keys, so the key pair carries the same attributes as one generated for the
+	 * label. A key pair which cannot be relabelled is destroyed, as it may be left
+	 * half renamed, and the caller generates a key pair instead.
+	 *
+	 * @param session: RW session of the token
+	 * @param label:   label of the key pair
+	 * @return the key pair, null if no pooled key pair is available or it could
+	 *         not be assigned
+	 */
+	public KeyPair take(Session session, String label) throws TokenException {
+		SlotKeyPairs keyPairs = slotKeyPairs.get(session.getToken().getSlot().getSlotID());
+		if (keyPairs == null)
+			return null;
+
+		PooledKeyPair pooled;
+		while ((pooled = keyPairs.available.poll()) != null) {
+			try {
+				return assign(session, pooled, label);
+			} catch (TokenException e) {
+				discard(session, pooled, label);
+				if (!(e instanceof PKCS11Exception pkcs11Exception)
+						|| pkcs11Exception.getErrorCode() != PKCS11Constants.CKR_OBJECT_HANDLE_INVALID) {
+					logger.warn("Pooled key pair {} could not be assigned to label {}, error: {}", pooled.label(), label,
+							e.getLocalizedMessage());
+					return null;
+				}
+				// deleted from the token since it was pooled
+				logger.info("Pooled key pair {} no longer exists", pooled.label());
+			}
+		}
+		return null;
+	}
+
+	private KeyPair assign(Session session, PooledKeyPair pooled, String label) throws TokenException {
+		RSAPrivateKey privateKeyTemplate = new RSAPrivateKey();
+		privateKeyTemplate.getLabel().setCharArrayValue(label.toCharArray());
+		RSAPublicKey publicKeyTemplate = new RSAPublicKey();
+		publicKeyTemplate.getLabel().setCharArrayValue(label.toCharArray());
+
+		RSAPrivateKey privateKey = new RSAPrivateKey();
+		privateKey.setObjectHandle(pooled.privateKeyHandle());
+		RSAPublicKey publicKey = new RSAPublicKey();
+		publicKey.setObjectHandle(pooled.publicKeyHandle());
+		session.setAttributeValues(privateKey, privateKeyTemplate);
+		session.setAttributeValues(publicKey, publicKeyTemplate);
+
+		privateKey.getLabel().setCharArrayValue(label.toCharArray());
+		publicKey.getLabel().setCharArrayValue(label.toCharArray());
+		publicKey.getKeyGenMechanism().setMechanism(Mechanism.get(PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN));
+
+		hsmObjectIndex.evict(session, KeyClass.PRIVATE_KEY, pooled.label());
+		hsmObjectIndex.evict(session, KeyClass.PUBLIC_KEY, pooled.label());
+		hsmObjectIndex.put(session, KeyClass.PRIVATE_KEY, privateKey);
+		hsmObjectIndex.put(session, KeyClass.PUBLIC_KEY, publicKey);
+		logger.info("Pooled key pair {} assigned to label {}", pooled.label(), label);
+		return new KeyPair(publicKey, privateKey);
+	}
+
+	/**
+	 * Destroy what is left of a key pair which could not be assigned, under either
+	 * label.
+	 */
+	private void discard(Session session, PooledKeyPair pooled, String label) {
+		RSAPrivateKey privateKey = new RSAPrivateKey();
+		privateKey.setObjectHandle(pooled.privateKeyHandle());
+		RSAPublicKey publicKey = new RSAPublicKey();
+		publicKey.setObjectHandle(pooled.publicKeyHandle());
+		for (Key key : new Key[] { privateKey, publicKey }) {
+			try {
+				session.destroyObject(key);
+			} catch (TokenException e) {
+				logger.debug("Key of pooled key pair {} not destroyed: {}", pooled.label(), e.getLocalizedMessage());
+			}
+		}
+		for (KeyClass keyClass : new KeyClass[] { KeyClass.PRIVATE_KEY, KeyClass.PUBLIC_KEY }) {
+			hsmObjectIndex.evict(session, keyClass, pooled.label());
+			hsmObjectIndex.evict(session, keyClass, label);
+		}
+	}
+
+	private void refill() {
+		for (HsmSlot slot : slotRegistry.getSlots()) {
+			try {
+				refill(slot);
+			} catch (TokenException | RuntimeException e) {
+				logger.error("Key pair pool of slot 0x{} not refilled, error: {}", Long.toHexString(slot.slotId()),
+						e.getLocalizedMessage());
+			}
+		}
+	}
+
+	private void refill(HsmSlot slot) throws TokenException {
+		if (!slot.supports(PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN, Usage.GENERATE_KEY_PAIR))
+			return;
+		SlotKeyPairs keyPairs = slotKeyPairs.computeIfAbsent(slot.slotId(), slotId -> {
+			hsmMetrics.slotGauge("hsm.keypair.pool.available", slotId, id -> {
+				SlotKeyPairs available = slotKeyPairs.get(id);
+				return available == null ? 0 : available.available.size();
+			});
+			return new SlotKeyPairs();
+		});
+		if (!keyPairs.adopted) {
+			// key pairs pooled before a restart are still on the token
+			if (sessionPool.executeIfLoggedIn(slot, false, session -> adopt(session, keyPairs)) == null)
+				return;
+			keyPairs.adopted = true;
+		}
+
+		for (int generated = 0; generated < refillBatch && keyPairs.available.size() < size; generated++) {
+			if (concurrencyLimiter.isBusy(slot.slotId()))
+				return;
+			String label = LABEL_PREFIX + UUID.randomUUID();
+			KeyPair keyPair = sessionPool.executeIfLoggedIn(slot, true,
+					session -> hsmServiceUtil.generateRSAKeyPair(session, label));
+			if (keyPair == null)
+				return;
+			keyPairs.available.offer(new PooledKeyPair(label, keyPair.getPrivateKey().getObjectHandle(),
+					keyPair.getPublicKey().getObjectHandle()));
+		}
+	}
+
+	private Integer adopt(Session session, SlotKeyPairs keyPairs) throws TokenException {
+		int adopted = 0;
+		for (String label : hsmObjectIndex.getLabels(session, KeyClass.PRIVATE_KEY, LABEL_PREFIX)) {
+			if (!isPoolLabel(label))
+				continue;
+			Long privateKeyHandle = hsmObjectIndex.getHandle(session, KeyClass.PRIVATE_KEY, label);
+			Long publicKeyHandle = hsmObjectIndex.getHandle(session, KeyClass.PUBLIC_KEY, label);
+			if (privateKeyHandle == null || publicKeyHandle == null)
+				continue;
+			if (!isUnassigned(session, privateKeyHandle, label) || !isUnassigned(session, publicKeyHandle, label)) {
+				logger.warn("Key pair {} not adopted, it was not left by the pool", label);
+				continue;
+			}
+			keyPairs.available.offer(new PooledKeyPair(label, privateKeyHandle, publicKeyHandle));
+			adopted++;
+		}
+		if (adopted > 0)
+			logger.info("{} pooled key pairs found on slot 0x{}", adopted,
+					Long.toHexString(session.getToken().getSlot().getSlotID()));
+		return adopted;
+	}
+
+	// labels of pooled key pairs are the prefix and a random UUID, see refill
+	private static boolean isPoolLabel(String label) {
+		String uuid = label.substring(LABEL_PREFIX.length());
+		try {
+			return UUID.fromString(uuid).toString().equals(uuid);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * A key left by the pool still carries the label it was generated with and,
+	 * like all keys generated by the service, no CKA_ID. A CKA_ID marks a key
+	 * provisioned by someone else.
+	 */
+	private boolean isUnassigned(Session session, long handle, String label) throws TokenException {
+		Key key = hsmServiceUtil.getKey(session, handle);
+		if (key == null)
+			return false;
+		char[] keyLabel = key.getLabel().getCharArrayValue();
+		byte[] id = key.getId().getByteArrayValue();
+		return keyLabel != null && label.equals(String.valueOf(keyLabel)) && (id == null || id.length == 0);
+	}
+
+	private static class SlotKeyPairs {
+
+		private final Queue<PooledKeyPair> available = new ConcurrentLinkedQueue<>();
+
+		private volatile boolean adopted;
+	}
+
+	private record PooledKeyPair(String label, long privateKeyHandle, long publicKeyHandle) {
+	}
+}
@@ -0,0 +1,162 @@
+package com.tmobile.hsmservice.service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Micrometer instrumentation of the PKCS11 and Cloud KMS operations. Operation
+ * latencies are recorded in the hsm.operation timer, tagged by backend,
+ * operation, slot, mechanism and outcome; percentiles and histograms are
+ * configured under management.metrics.distribution.
+ */
+@Component
+public class HsmMetrics {
+
+	static final String BACKEND_PKCS11 = "pkcs11";
+
+	static final String BACKEND_KMS = "kms";
+
+	private static final String OPERATION_TIMER = "hsm.operation";
+
+	// slot of the operations of the KMS backend
+	private static final long NO_SLOT = -1;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	// meters are looked up per operation, registering them builds their id every time
+	private final Map<TimerKey, Timer> timers = new ConcurrentHashMap<>();
+
+	private final Map<String, Counter[]> cacheCounters = new ConcurrentHashMap<>();
+
+	private final Map<String, Boolean> slotGauges = new ConcurrentHashMap<>();
+
+	@FunctionalInterface
+	public interface TimedCall<T, E extends Exception> {
+
+		T call() throws E;
+	}
+
+	/**
+	 * Time a native operation on a token.
+	 *
+	 * @param operation: e.g. sign, encrypt, keygen
+	 * @param slotId:    slot of the token
+	 * @param mechanism: mechanism of the operation, CKM_* name
+	 */
+	public <T, E extends Exception> T recordPkcs11(String operation, long slotId, String mechanism,
+			TimedCall<T, E> call) throws E {
+		return record(BACKEND_PKCS11, operation, slotId, mechanism, call);
+	}
+
+	/**
+	 * Time a Cloud KMS RPC.
+	 *
+	 * @param operation: name of the RPC, e.g. asymmetricSign
+	 */
+	public <T, E extends Exception> T recordKms(String operation, TimedCall<T, E> call) throws E {
+		return record(BACKEND_KMS, operation, NO_SLOT, "none", call);
+	}
+
+	/**
+	 * Time a Cloud KMS RPC which completes asynchronously, until its future
+	 * completes.
+	 *
+	 * @param operation: name of the RPC, e.g. asymmetricSign
+	 */
+	public <T> CompletableFuture<T> recordKmsAsync(String operation, Supplier<CompletableFuture<T>> call) {
+		long start = System.nanoTime();
+		CompletableFuture<T> future;
+		try {
+			future = call.get();
+		} catch (RuntimeException e) {
+			timer(BACKEND_KMS, operation, NO_SLOT, "none", false).record(System.nanoTime() - start,
+					TimeUnit.NANOSECONDS);
+			throw e;
+		}
+		return future.whenComplete((result, failure) -> timer(BACKEND_KMS, operation, NO_SLOT, "none",
+				failure == null).record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+	}
+
+	private <T, E extends Exception> T record(String backend, String operation, long slotId, String mechanism,
+			TimedCall<T, E> call) throws E {
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			T result = call.call();
+			success = true;
+			return result;
+		} finally {
+			timer(backend, operation, slotId, mechanism, success).record(System.nanoTime() - start,
+					TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private Timer timer(String backend, String operation, long slotId, String mechanism, boolean success) {
+		TimerKey key = new TimerKey(backend, operation, slotId, mechanism, success);
+		Timer timer = timers.get(key);
+		if (timer != null)
+			return timer;
+		return timers.computeIfAbsent(key, id -> Timer.builder(OPERATION_TIMER)
+				.tags(Tags.of("backend", backend, "operation", operation, "slot",
+						slotId == NO_SLOT ? "none" : "0x" + Long.toHexString(slotId), "mechanism", mechanism,
+						"outcome", success ? "success" : "error"))
+				.register(meterRegistry));
+	}
+
+	/**
+	 * Count a cache lookup. The hit ratio is published as gauge next to the
+	 * counters.
+	 */
+	public void cacheAccess(String cache, boolean hit) {
+		Counter[] counters = cacheCounters.get(cache);
+		if (counters == null)
+			counters = cacheCounters.computeIfAbsent(cache, name -> {
+				Counter hits = Counter.builder("hsm.cache.requests").tags("cache", name, "result", "hit")
+						.register(meterRegistry);
+				Counter misses = Counter.builder("hsm.cache.requests").tags("cache", name, "result", "miss")
+						.register(meterRegistry);
+				Gauge.builder("hsm.cache.hit.ratio", () -> {
+					double total = hits.count() + misses.count();
+					return total == 0 ? 0 : hits.count() / total;
+				}).tags("cache", name).register(meterRegistry);
+				return new Counter[] { hits, misses };
+			});
+		(hit ? counters[0] : counters[1]).increment();
+	}
+
+	/**
+	 * Register a gauge of a slot once, reading the value through the function
+	 * with the slot id so it follows the slot across token replacements.
+	 */
+	public void slotGauge(String name, long slotId, ToDoubleFunction<Long> value) {
+		String slot = "0x" + Long.toHexString(slotId);
+		slotGauges.computeIfAbsent(name + ':' + slot, key -> {
+			Gauge.builder(name, () -> value.applyAsDouble(slotId)).tags("slot", slot).register(meterRegistry);
+			return Boolean.TRUE;
+		});
+	}
+
+	private record TimerKey(String backend, String operation, long slotId, String mechanism, boolean success) {
+	}
+
+	/**
+	 * Register a gauge not bound to a slot.
+	 */
+	public <S> void gauge(String name, S state, ToDoubleFunction<S> value) {
+		Gauge.builder(name, state, value).strongReference(true).register(meterRegistry);
+	}
+}
@@ -0,0 +1,188 @@
+package com.tmobile.hsmservice.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.AESSecretKey;
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.objects.RSAPublicKey;
+
+/**
+ * Index of key labels to object handles, kept per token. The index is filled
+ * once per token in a single batched pass, updated when keys are generated and
+ * looked up on the token only when a label is missing or its handle turned out
+ * to be stale.
+ */
+@Component
+public class HsmObjectIndex {
+
+	private Logger logger = LoggerFactory.getLogger(HsmObjectIndex.class);
+
+	@Value("${pkcs11.find-batch-size:256}")
+	private int findBatchSize;
+
+	@Autowired
+	private HsmMetrics hsmMetrics;
+
+	private final Map<Long, SlotIndex> slotIndexes = new ConcurrentHashMap<>();
+
+	public enum KeyClass {
+		PRIVATE_KEY, PUBLIC_KEY, SECRET_KEY
+	}
+
+	/**
+	 * Resolve the handle of a key by label.
+	 *
+	 * @param session:  logged in session of the token
+	 * @param keyClass: class of the key
+	 * @param label:    label of the key
+	 * @return handle of the key, null if no key with the label exists
+	 * @throws TokenException : if the token could not be searched
+	 */
+	public Long getHandle(Session session, KeyClass keyClass, String label) throws TokenException {
+		Map<String, Long> handles = indexOf(session).handles(keyClass);
+		Long handle = handles.get(label);
+		hsmMetrics.cacheAccess("object-index", handle != null);
+		if (handle != null)
+			return handle;
+
+		handle = hsmMetrics.recordPkcs11("find", slotId(session), "none",
+				() -> find(session, template(keyClass, label)));
+		if (handle != null)
+			handles.putIfAbsent(label, handle);
+		return handle;
+	}
+
+	/**
+	 * List the labels of the keys of a class starting with the prefix.
+	 */
+	public List<String> getLabels(Session session, KeyClass keyClass, String prefix) throws TokenException {
+		return indexOf(session).handles(keyClass).keySet().stream().filter(label -> label.startsWith(prefix))
+				.toList();
+	}
+
+	/**
+	 * Record a key created on the token.
+	 */
+	public void put(Session session, KeyClass keyClass, Key key) throws TokenException {
+		char[] label = key.getLabel().getCharArrayValue();
+		if (label != null)
+			indexOf(session).handles(keyClass).putIfAbsent(String.valueOf(label), key.getObjectHandle());
+	}
+
+	/**
+	 * Drop a handle which the token reported as invalid.
+	 */
+	public void evict(Session session, KeyClass keyClass, String label) {
+		SlotIndex slotIndex = slotIndexes.get(slotId(session));
+		if (slotIndex != null)
+			slotIndex.handles(keyClass).remove(label);
+	}
+
+	/**
+	 * Forget the index of a slot, e.g. when its token has been removed.
+	 */
+	public void invalidate(long slotId) {
+		slotIndexes.remove(slotId);
+	}
+
+	private SlotIndex indexOf(Session session) throws TokenException {
+		SlotIndex slotIndex = slotIndexes.computeIfAbsent(slotId(session), slotId -> new SlotIndex());
+		if (!slotIndex.filled) {
+			synchronized (slotIndex) {
+				if (!slotIndex.filled) {
+					hsmMetrics.recordPkcs11("find-all", slotId(session), "none", () -> {
+						fill(session, slotIndex);
+						return null;
+					});
+					slotIndex.filled = true;
+					logger.info("Object index of slot 0x{} filled with {} private, {} public and {} secret keys",
+							Long.toHexString(slotId(session)), slotIndex.privateKeys.size(), slotIndex.publicKeys.size(),
+							slotIndex.secretKeys.size());
+				}
+			}
+		}
+		return slotIndex;
+	}
+
+	private void fill(Session session, SlotIndex slotIndex) throws TokenException {
+		// single pass over all objects, classifying the keys as they come
+		session.findObjectsInit(new iaik.pkcs.pkcs11.objects.Object());
+		try {
+			iaik.pkcs.pkcs11.objects.Object[] objects;
+			while ((objects = session.findObjects(findBatchSize)).length > 0) {
+				for (iaik.pkcs.pkcs11.objects.Object object : objects) {
+					KeyClass keyClass = classOf(object);
+					if (keyClass != null && ((Key) object).getLabel().getCharArrayValue() != null)
+						slotIndex.handles(keyClass).putIfAbsent(
+								String.valueOf(((Key) object).getLabel().getCharArrayValue()), object.getObjectHandle());
+				}
+			}
+		} finally {
+			session.findObjectsFinal();
+		}
+	}
+
+	private KeyClass classOf(iaik.pkcs.pkcs11.objects.Object object) {
+		if (object instanceof RSAPrivateKey)
+			return KeyClass.PRIVATE_KEY;
+		if (object instanceof RSAPublicKey)
+			return KeyClass.PUBLIC_KEY;
+		if (object instanceof AESSecretKey)
+			return KeyClass.SECRET_KEY;
+		return null;
+	}
+
+	private Long find(Session session, Key template) throws TokenException {
+		session.findObjectsInit(template);
+		try {
+			iaik.pkcs.pkcs11.objects.Object[] objects = session.findObjects(1);
+			return objects.length > 0 ? objects[0].getObjectHandle() : null;
+		} finally {
+			session.findObjectsFinal();
+		}
+	}
+
+	private Key template(KeyClass keyClass, String label) {
+		Key template = switch (keyClass) {
+		case PRIVATE_KEY -> new RSAPrivateKey();
+		case PUBLIC_KEY -> new RSAPublicKey();
+		case SECRET_KEY -> new AESSecretKey();
+		};
+		template.getLabel().setCharArrayValue(label.toCharArray());
+		return template;
+	}
+
+	private long slotId(Session session) {
+		return session.getToken().getSlot().getSlotID();
+	}
+
+	private static class SlotIndex {
+
+		private final Map<String, Long> privateKeys = new ConcurrentHashMap<>();
+
+		private final Map<String, Long> publicKeys = new ConcurrentHashMap<>();
+
+		private final Map<String, Long> secretKeys = new ConcurrentHashMap<>();
+
+		private volatile boolean filled;
+
+		Map<String, Long> handles(KeyClass keyClass) {
+			return switch (keyClass) {
+			case PRIVATE_KEY -> privateKeys;
+			case PUBLIC_KEY -> publicKeys;
+			case SECRET_KEY -> secretKeys;
+			};
+		}
+	}
+}
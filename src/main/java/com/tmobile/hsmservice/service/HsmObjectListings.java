@@ -0,0 +1,72 @@
+package com.tmobile.hsmservice.service;
+
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Object handles of paged listings of the tokens. The first page enumerates
+ * the token once and keeps its handles here, so that the following pages only
+ * read the keys of their page instead of enumerating the token again. Listings
+ * expire after pkcs11.listing.ttl-ms; a page of an expired listing enumerates
+ * the token again and continues after the last handle of the previous page.
+ */
+@Component
+public class HsmObjectListings {
+
+	@Value("${pkcs11.listing.ttl-ms:60000}")
+	private long ttlMs;
+
+	@Value("${pkcs11.listing.max-listings:256}")
+	private int maxListings;
+
+	private final Map<String, Listing> listings = new ConcurrentHashMap<>();
+
+	private final SecureRandom secureRandom = new SecureRandom();
+
+	private record Listing(long slotId, long[] handles, long expiresAt) {
+	}
+
+	/**
+	 * Keep the handles of a listing for its following pages.
+	 *
+	 * @param slotId:  slot of the token
+	 * @param handles: handles of the listing in ascending order, not modified
+	 *                 afterwards
+	 * @return id of the listing, null if too many listings are kept
+	 */
+	public String save(long slotId, long[] handles) {
+		long now = System.currentTimeMillis();
+		listings.values().removeIf(listing -> listing.expiresAt() <= now);
+		if (listings.size() >= maxListings)
+			return null;
+
+		byte[] id = new byte[8];
+		secureRandom.nextBytes(id);
+		String listingId = HexFormat.of().formatHex(id);
+		listings.put(listingId, new Listing(slotId, handles, now + ttlMs));
+		return listingId;
+	}
+
+	/**
+	 * @return handles of the listing of the slot, null if the listing is unknown
+	 *         or expired
+	 */
+	public long[] getHandles(String listingId, long slotId) {
+		Listing listing = listings.get(listingId);
+		if (listing == null || listing.slotId() != slotId || listing.expiresAt() <= System.currentTimeMillis())
+			return null;
+		return listing.handles();
+	}
+
+	/**
+	 * Forget the listings of a slot, e.g. when its token has been removed.
+	 */
+	public void invalidate(long slotId) {
+		listings.values().removeIf(listing -> listing.slotId() == slotId);
+	}
+}
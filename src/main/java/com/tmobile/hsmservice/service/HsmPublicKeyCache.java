@@ -0,0 +1,88 @@
+package com.tmobile.hsmservice.service;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.objects.PublicKey;
+import iaik.pkcs.pkcs11.objects.RSAPublicKey;
+
+/**
+ * Cache of RSA public keys exported from the tokens as JCA keys, so that public
+ * key operations (encrypt, verify) run in the JVM without using a session.
+ */
+@Component
+public class HsmPublicKeyCache {
+
+	private Logger logger = LoggerFactory.getLogger(HsmPublicKeyCache.class);
+
+	@Autowired
+	private HsmSessionPool sessionPool;
+
+	@Autowired
+	private HsmServiceUtil hsmServiceUtil;
+
+	@Autowired
+	private HsmMetrics hsmMetrics;
+
+	private final Map<Long, Map<String, java.security.PublicKey>> slotKeys = new ConcurrentHashMap<>();
+
+	/**
+	 * Get the public key of the label as JCA key, reading modulus and public
+	 * exponent from the token on the first use only.
+	 *
+	 * @param slot:    slot of the token
+	 * @param userPin: user pin, verified against the pin the slot is logged in with
+	 * @param label:   label of the public key
+	 * @return public key
+	 * @throws TokenException : if the key could not be read from the token
+	 */
+	public java.security.PublicKey getPublicKey(HsmSlot slot, String userPin, String label) throws TokenException {
+		Map<String, java.security.PublicKey> keys = slotKeys.computeIfAbsent(slot.slotId(),
+				slotId -> new ConcurrentHashMap<>());
+		java.security.PublicKey publicKey = keys.get(label);
+		boolean hit = publicKey != null && sessionPool.isLoggedInWith(slot.slotId(), userPin);
+		hsmMetrics.cacheAccess("public-key", hit);
+		if (hit)
+			return publicKey;
+
+		publicKey = sessionPool.execute(slot, userPin, false, session -> {
+			PublicKey handle = hsmServiceUtil.getPublicKey(session, label);
+			Key key = handle == null ? null : hsmServiceUtil.getKey(session, handle.getObjectHandle());
+			if (!(key instanceof RSAPublicKey rsaPublicKey))
+				throw new NoSuchElementException("No public key found with label " + label);
+			return toPublicKey(rsaPublicKey);
+		});
+		keys.put(label, publicKey);
+		logger.info("Public key {} of slot 0x{} cached", label, Long.toHexString(slot.slotId()));
+		return publicKey;
+	}
+
+	/**
+	 * Forget the keys of a slot, e.g. when its token has been removed.
+	 */
+	public void invalidate(long slotId) {
+		slotKeys.remove(slotId);
+	}
+
+	private java.security.PublicKey toPublicKey(RSAPublicKey rsaPublicKey) {
+		BigInteger modulus = new BigInteger(1, rsaPublicKey.getModulus().getByteArrayValue());
+		BigInteger publicExponent = new BigInteger(1, rsaPublicKey.getPublicExponent().getByteArrayValue());
+		try {
+			return KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(modulus, publicExponent));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("RSA public key could not be created", e);
+		}
+	}
+}
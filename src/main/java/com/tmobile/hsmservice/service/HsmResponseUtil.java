@@ -7,8 +7,6 @@ import com.tmobile.hsmservice.dto.RSAKeyPairDTO;
 
 import iaik.pkcs.pkcs11.objects.AESSecretKey;
 import iaik.pkcs.pkcs11.objects.KeyPair;
-import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
-import iaik.pkcs.pkcs11.objects.RSAPublicKey;
 
 @Component
 public class HsmResponseUtil {
@@ -22,9 +20,4 @@ public class HsmResponseUtil {
 				keypair.getPublicKey().getLabel().getCharArrayValue(),
 				keypair.getPublicKey().getKeyGenMechanism().getMechanism().getName());
 	}
-
-	public RSAKeyPairDTO createRsaKeyPairDTO(RSAPrivateKey privateKey, RSAPublicKey publicKey) {
-		return new RSAKeyPairDTO(privateKey.getLabel().getCharArrayValue(), publicKey.getLabel().getCharArrayValue(),
-				publicKey.getKeyGenMechanism().getMechanism().getName());
-	}
 }
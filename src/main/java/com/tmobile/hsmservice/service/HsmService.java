@@ -1,13 +1,24 @@
 package com.tmobile.hsmservice.service;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
-import java.util.Objects;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.crypto.Cipher;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,21 +27,29 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.tmobile.hsmservice.dto.AesKeyDTO;
+import com.tmobile.hsmservice.dto.BatchItemResultDTO;
+import com.tmobile.hsmservice.dto.BinaryItemResultDTO;
+import com.tmobile.hsmservice.dto.BinarySignItemDTO;
 import com.tmobile.hsmservice.dto.KeyDTO;
+import com.tmobile.hsmservice.dto.KeyObjectDTO;
+import com.tmobile.hsmservice.dto.MechanismDTO;
 import com.tmobile.hsmservice.dto.PrivateKeyDTO;
 import com.tmobile.hsmservice.dto.PublicKeyDTO;
 import com.tmobile.hsmservice.dto.RSAKeyPairDTO;
+import com.tmobile.hsmservice.dto.SignItemDTO;
+import com.tmobile.hsmservice.dto.SlotCapabilitiesDTO;
+
+import com.tmobile.hsmservice.service.HsmSlot.Usage;
 
+import iaik.pkcs.pkcs11.DefaultInitializeArgs;
 import iaik.pkcs.pkcs11.Mechanism;
 import iaik.pkcs.pkcs11.Module;
-import iaik.pkcs.pkcs11.Session;
-import iaik.pkcs.pkcs11.Slot;
-import iaik.pkcs.pkcs11.Token;
 import iaik.pkcs.pkcs11.TokenException;
 import iaik.pkcs.pkcs11.objects.AESSecretKey;
+import iaik.pkcs.pkcs11.objects.Key;
 import iaik.pkcs.pkcs11.objects.KeyPair;
-import iaik.pkcs.pkcs11.objects.PrivateKey;
-import iaik.pkcs.pkcs11.objects.PublicKey;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.objects.RSAPublicKey;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
@@ -49,273 +68,796 @@ public class HsmService {
 	@Autowired
 	private HsmResponseUtil hsmDTOUtil;
 
+	@Autowired
+	private HsmSessionPool sessionPool;
+
+	@Autowired
+	private HsmSlotRegistry slotRegistry;
+
+	@Autowired
+	private HsmObjectIndex hsmObjectIndex;
+
+	@Autowired
+	private HsmPublicKeyCache publicKeyCache;
+
+	@Autowired
+	private HsmSlotRouter slotRouter;
+
+	@Autowired
+	private HsmConcurrencyLimiter concurrencyLimiter;
+
+	@Autowired
+	private HsmKeyPairPool keyPairPool;
+
+	@Autowired
+	private HsmMetrics hsmMetrics;
+
+	@Autowired
+	private HsmAuditLog auditLog;
+
+	@Autowired
+	private HsmSingleFlight singleFlight;
+
+	@Autowired
+	private HsmObjectListings objectListings;
+
+	private static final String PRIVATE_KEY_TYPE = "privatekey";
+
+	private static final String PUBLIC_KEY_TYPE = "publickey";
+
+	private static final String AES_KEY_TYPE = "aeskey";
+
+	@Value("${pkcs11.stream.chunk-size:65536}")
+	private int streamChunkSize;
+
+	@Value("${pkcs11.stream.batch-size:64}")
+	private int streamBatchSize;
+
+	@Value("${pkcs11.batch.parallelism:4}")
+	private int batchParallelism;
+
+	@Value("${pkcs11.batch.max-items:10000}")
+	private int batchMaxItems;
+
 	private Module pkcs11Module;
 
+	private ExecutorService batchExecutor;
+
 	@PostConstruct
 	public void postConstructRoutine() {
+		// batch chunks only wait for the native threads of the slots, virtual threads are enough
+		batchExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("hsm-batch-", 0).factory());
+
 		// initialize pkcs11 module
 		try {
 			pkcs11Module = Module.getInstance(modulePath);
-			pkcs11Module.initialize(null);
+			// the slots call the module from several native threads at once, the module
+			// has to lock with the locking primitives of the OS
+			pkcs11Module.initialize(new DefaultInitializeArgs(null, false, true));
 			logger.info("PKCS11 module initialized successfully");
+
+			slotRegistry.addRemovalListener(sessionPool::invalidate);
+			slotRegistry.addRemovalListener(hsmObjectIndex::invalidate);
+			slotRegistry.addRemovalListener(objectListings::invalidate);
+			slotRegistry.addRemovalListener(publicKeyCache::invalidate);
+			slotRegistry.addRemovalListener(concurrencyLimiter::invalidate);
+			slotRegistry.initialize(pkcs11Module);
 		} catch (IOException e) {
 			logger.error("PKCS11 Module not found at path: {}", modulePath);
-			e.printStackTrace();
 		} catch (TokenException e) {
 			logger.error("PKCS11 Module not initialized, error: {}", e.getMessage());
-			e.printStackTrace();
 		}
 	}
 
 	@PreDestroy
 	public void preDestroyRoutine() {
-		// destroy pkcs11 module
+		// stop watching slots and batches, close pooled sessions, then destroy pkcs11 module
+		slotRegistry.shutdown();
+		batchExecutor.shutdownNow();
+		sessionPool.closeAll();
 		try {
 			pkcs11Module.finalize(null);
 		} catch (TokenException e) {
 			logger.error("PKCS11 Module not destroyed, error: {}", e.getMessage());
-			e.printStackTrace();
 		}
 	}
 
-	public KeyDTO getObjects(String userPin, long slotId) {
-		Session session = null;
-		try {
-			// Get list of slots with tokens.
-			Slot[] slotsWithTokens = pkcs11Module.getSlotList(Module.SlotRequirement.TOKEN_PRESENT);
-			Optional<Slot> matchedSlot = Arrays.asList(slotsWithTokens).stream()
-					.filter(slot -> slot.getSlotID() == slotId).findFirst();
-
-			if (matchedSlot.isEmpty())
-				throw new IllegalArgumentException("Invalid slotId :0x" + Long.toHexString(slotId));
-
-			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.get().getSlotID()));
-
-			session = matchedSlot.get().getToken().openSession(Token.SessionType.SERIAL_SESSION,
-					Token.SessionReadWriteBehavior.RO_SESSION, null, null);
-
-			// Login to the session.
-			session.login(Session.UserType.USER, userPin.toCharArray());
-
-			List<PrivateKey> privateKeys = hsmServiceUtil.getPrivateKeys(session);
-
-			List<PrivateKeyDTO> privateKeyDTOs = privateKeys.stream()
-					.filter(privateKey -> Objects.nonNull(privateKey.getLabel().getCharArrayValue()))
-					.map(privateKey -> new PrivateKeyDTO(privateKey.getLabel().getCharArrayValue()))
-					.collect(Collectors.toList());
-
-			List<PublicKey> publicKeys = hsmServiceUtil.getPublicKeys(session);
-
-			List<PublicKeyDTO> publicKeyDTOs = publicKeys.stream()
-					.filter(publicKey -> Objects.nonNull(publicKey.getLabel().getCharArrayValue()))
-					.map(publicKey -> new PublicKeyDTO(publicKey.getLabel().getCharArrayValue()))
-					.collect(Collectors.toList());
-
-			List<AESSecretKey> aesKeys = hsmServiceUtil.getAESKeys(session);
+	/**
+	 * Get the capability matrix read when the tokens were registered: mechanisms
+	 * with their key size range and usages. No session or login is needed.
+	 *
+	 * @param slotId: slot to describe, null for all slots
+	 */
+	public List<SlotCapabilitiesDTO> getCapabilities(Long slotId) {
+		List<HsmSlot> slots = slotId == null ? new ArrayList<>(slotRegistry.getSlots())
+				: List.of(slotRegistry.getSlot(slotId));
+		slots.sort((first, second) -> Long.compare(first.slotId(), second.slotId()));
+
+		List<SlotCapabilitiesDTO> capabilities = new ArrayList<>(slots.size());
+		for (HsmSlot slot : slots) {
+			List<MechanismDTO> mechanisms = new ArrayList<>(slot.capabilities().size());
+			slot.capabilities().forEach((mechanism, mechanismInfo) -> {
+				List<String> usages = new ArrayList<>();
+				for (Usage usage : Usage.values()) {
+					if (usage.isSet(mechanismInfo))
+						usages.add(usage.name());
+				}
+				mechanisms.add(new MechanismDTO(Mechanism.get(mechanism).getName(), mechanismInfo.getMinKeySize(),
+						mechanismInfo.getMaxKeySize(), mechanismInfo.isHw(), usages));
+			});
+			capabilities.add(new SlotCapabilitiesDTO("0x" + Long.toHexString(slot.slotId()), slot.tokenLabel(),
+					mechanisms));
+		}
+		return capabilities;
+	}
 
-			List<AesKeyDTO> aesKeyDTOs = aesKeys.stream()
-					.filter(aesKey -> Objects.nonNull(aesKey.getLabel().getCharArrayValue()))
-					.map(aesKey -> new AesKeyDTO(aesKey.getLabel().getCharArrayValue())).collect(Collectors.toList());
+	public KeyDTO getObjects(String userPin, long slotId) {
+		return getObjects(userPin, slotId, null, 0);
+	}
 
-			KeyDTO keyDTO = new KeyDTO(privateKeyDTOs, publicKeyDTOs, aesKeyDTOs);
-			logger.info("Objects stored on token '{}' successfully retrieved!",
-					matchedSlot.get().getToken().getTokenInfo().getLabel().trim());
+	/**
+	 * Get the keys stored on the token, a page at a time. The handles enumerated
+	 * for the first page are kept for the following pages, see
+	 * {@link HsmObjectListings}.
+	 *
+	 * @param cursor: cursor returned with the previous page, null for the first page
+	 * @param limit:  maximum number of keys in the page, 0 for all keys
+	 * @return keys of the page with the cursor of the next page, null on error
+	 */
+	public KeyDTO getObjects(String userPin, long slotId, String cursor, int limit) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		try {
+			HsmSlot matchedSlot = slotRegistry.getSlot(slotId);
+			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.slotId()));
+			int separator = cursor == null ? -1 : cursor.indexOf('.');
+			String listingId = separator < 0 ? null : cursor.substring(0, separator);
+			long after = cursor == null ? 0 : parseCursor(cursor.substring(separator + 1));
+
+			// pollers list the same page concurrently, they share one enumeration of the token
+			String flightKey = "objects:" + slotId + ':' + (userPin == null ? "-" : singleFlight.digest(userPin)) + ':'
+					+ cursor + ':' + limit;
+			KeyDTO keyDTO = singleFlight.execute(flightKey,
+					() -> sessionPool.executeLongRunning(matchedSlot, userPin, false, session -> {
+				List<PrivateKeyDTO> privateKeyDTOs = new ArrayList<>();
+				List<PublicKeyDTO> publicKeyDTOs = new ArrayList<>();
+				List<AesKeyDTO> aesKeyDTOs = new ArrayList<>();
+
+				long[] handles = listingId == null ? null : objectListings.getHandles(listingId, slotId);
+				boolean saved = handles != null;
+				if (handles == null)
+					handles = hsmServiceUtil.getObjectHandles(session);
+				int index = cursor == null ? 0 : firstHandleAfter(handles, after);
+				int count = 0;
+				for (; index < handles.length && (limit <= 0 || count < limit); index++) {
+					Key key = hsmServiceUtil.getKey(session, handles[index]);
+					String type = listedType(key);
+					if (type == null)
+						continue;
+
+					char[] label = key.getLabel().getCharArrayValue();
+					switch (type) {
+					case PRIVATE_KEY_TYPE -> privateKeyDTOs.add(new PrivateKeyDTO(label));
+					case PUBLIC_KEY_TYPE -> publicKeyDTOs.add(new PublicKeyDTO(label));
+					default -> aesKeyDTOs.add(new AesKeyDTO(label));
+					}
+					count++;
+				}
+
+				String nextCursor = null;
+				if (index < handles.length) {
+					String nextListingId = saved ? listingId : objectListings.save(slotId, handles);
+					nextCursor = (nextListingId == null ? "" : nextListingId + '.') + Long.toHexString(handles[index - 1]);
+				}
+				return new KeyDTO(privateKeyDTOs, publicKeyDTOs, aesKeyDTOs, nextCursor);
+			}));
+			logger.info("Objects stored on token '{}' successfully retrieved!", matchedSlot.tokenLabel());
+			outcome = HsmAuditLog.SUCCESS;
 			return keyDTO;
 		} catch (TokenException exception) {
-			exception.printStackTrace();
-			logger.error("Error observed: {}", exception.getCause());
 			logger.error("Error observed: {}", exception.getLocalizedMessage());
 		} finally {
-			try {
-				if (Objects.nonNull(session))
-					session.closeSession();
-			} catch (TokenException e) {
-				logger.error("Error observed in closing the session: {}", e.getLocalizedMessage());
-				e.printStackTrace();
-			}
+			auditLog.recordPkcs11("list-objects", slotId, null, 0, start, outcome);
 		}
 		return null;
 	}
 
-	public RSAKeyPairDTO saveKeyPair(long slotId, String userpin, String label) {
-		Session session = null;
+	/**
+	 * Stream the keys stored on the token to the consumer, keeping only the object
+	 * handles of the token and one batch of keys in memory. The consumer is called
+	 * between batches, without holding a session, so a slow client never blocks a
+	 * session or a native thread of the slot.
+	 *
+	 * @return true if all keys were streamed, false on error or if the consumer
+	 *         failed to write
+	 */
+	public boolean streamObjects(String userPin, long slotId, Consumer<KeyObjectDTO> consumer) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
 		try {
+			HsmSlot matchedSlot = slotRegistry.getSlot(slotId);
+			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.slotId()));
+
+			long[] handles = sessionPool.executeLongRunning(matchedSlot, userPin, false,
+					hsmServiceUtil::getObjectHandles);
+			int count = 0;
+			for (int from = 0; from < handles.length; from += streamBatchSize) {
+				int first = from;
+				int end = Math.min(handles.length, from + streamBatchSize);
+				List<KeyObjectDTO> batch = sessionPool.executeLongRunning(matchedSlot, userPin, false, session -> {
+					List<KeyObjectDTO> keys = new ArrayList<>(end - first);
+					for (int index = first; index < end; index++) {
+						Key key = hsmServiceUtil.getKey(session, handles[index]);
+						String type = listedType(key);
+						if (type != null)
+							keys.add(new KeyObjectDTO(type, key.getLabel().getCharArrayValue()));
+					}
+					return keys;
+				});
+				batch.forEach(consumer);
+				count += batch.size();
+			}
+			logger.info("{} objects stored on token '{}' successfully streamed!", count, matchedSlot.tokenLabel());
+			outcome = HsmAuditLog.SUCCESS;
+			return true;
+		} catch (TokenException exception) {
+			logger.error("Error observed: {}", exception.getLocalizedMessage());
+		} catch (UncheckedIOException exception) {
+			logger.info("Streaming of objects aborted by the client: {}", exception.getLocalizedMessage());
+		} finally {
+			auditLog.recordPkcs11("list-objects", slotId, null, 0, start, outcome);
+		}
+		return false;
+	}
 
-			// Get list of slots with tokens.
-			Slot[] slotsWithTokens = pkcs11Module.getSlotList(Module.SlotRequirement.TOKEN_PRESENT);
-
-			Optional<Slot> matchedSlot = Arrays.asList(slotsWithTokens).stream()
-					.filter(slot -> slot.getSlotID() == slotId).findFirst();
-
-			if (matchedSlot.isEmpty())
-				throw new IllegalArgumentException("Invalid slotId :0x" + Long.toHexString(slotId));
+	/**
+	 * Type of a key in listings, after the filters of the first release: RSA
+	 * private keys which can sign, RSA public keys and AES keys. Keys of the key
+	 * pair pool are internal and not listed.
+	 *
+	 * @return privatekey, publickey or aeskey, null if the key is not listed
+	 */
+	private String listedType(Key key) throws TokenException {
+		char[] label = key == null ? null : key.getLabel().getCharArrayValue();
+		if (label == null || String.valueOf(label).startsWith(HsmKeyPairPool.LABEL_PREFIX))
+			return null;
+		if (key instanceof RSAPrivateKey privateKey && Boolean.TRUE.equals(privateKey.getSign().getBooleanValue()))
+			return PRIVATE_KEY_TYPE;
+		if (key instanceof RSAPublicKey)
+			return PUBLIC_KEY_TYPE;
+		if (key instanceof AESSecretKey)
+			return AES_KEY_TYPE;
+		return null;
+	}
 
-			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.get().getSlotID()));
+	private long parseCursor(String cursor) {
+		try {
+			return Long.parseUnsignedLong(cursor, 16);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid cursor :" + cursor);
+		}
+	}
 
-			session = matchedSlot.get().getToken().openSession(Token.SessionType.SERIAL_SESSION,
-					Token.SessionReadWriteBehavior.RW_SESSION, null, null);
-			// Login to the session.
-			session.login(Session.UserType.USER, userpin.toCharArray());
+	private int firstHandleAfter(long[] handles, long after) {
+		int index = Arrays.binarySearch(handles, after);
+		return index >= 0 ? index + 1 : -index - 1;
+	}
 
-			KeyPair generatedKeyPair = hsmServiceUtil.generateRSAKeyPair(session, label);
+	public RSAKeyPairDTO saveKeyPair(long slotId, String userpin, String label) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		try {
+			HsmKeyPairPool.checkLabel(label);
+			HsmSlot matchedSlot = slotRegistry.getSlot(slotId);
+			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.slotId()));
+			matchedSlot.checkMechanism(PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN, Usage.GENERATE_KEY_PAIR,
+					HsmServiceUtil.RSA_MODULUS_BITS);
+
+			KeyPair generatedKeyPair = sessionPool.executeLongRunning(matchedSlot, userpin, true, session -> {
+				// a pre-generated key pair only needs its label set
+				KeyPair pooledKeyPair = keyPairPool.take(session, label);
+				return pooledKeyPair != null ? pooledKeyPair : hsmServiceUtil.generateRSAKeyPair(session, label);
+			});
 
 			if (generatedKeyPair != null) {
 				logger.info("RSA key pair successfully generated!");
+				outcome = HsmAuditLog.SUCCESS;
 				return hsmDTOUtil.createRsaKeyPairDTO(generatedKeyPair);
 			}
 
 		} catch (TokenException exception) {
-			exception.printStackTrace();
 			logger.error("Error observed: {}", exception.getLocalizedMessage());
-			return hsmDTOUtil.createRsaKeyPairDTO(hsmServiceUtil.getPrivateKey(), hsmServiceUtil.getPublicKey());
 		} finally {
-			try {
-				session.logout();
-				session.closeSession();
-			} catch (TokenException e) {
-				logger.error("Error observed in closing the session: {}", e.getLocalizedMessage());
-				e.printStackTrace();
-			}
+			auditLog.recordPkcs11("generate-key-pair", slotId, label, 0, start, outcome);
 		}
 
 		return null;
 	}
 
 	public AesKeyDTO saveAESKey(long slotId, String userPin, String label) {
-		Session session = null;
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
 		try {
+			HsmSlot matchedSlot = slotRegistry.getSlot(slotId);
+			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.slotId()));
+			matchedSlot.checkMechanism(PKCS11Constants.CKM_AES_KEY_GEN, Usage.GENERATE, HsmServiceUtil.AES_KEY_BYTES);
 
-			// Get list of slots with tokens.
-			Slot[] slotsWithTokens = pkcs11Module.getSlotList(Module.SlotRequirement.TOKEN_PRESENT);
-
-			Optional<Slot> matchedSlot = Arrays.asList(slotsWithTokens).stream()
-					.filter(slot -> slot.getSlotID() == slotId).findFirst();
-
-			if (matchedSlot.isEmpty())
-				throw new IllegalArgumentException("Invalid slotId :0x" + Long.toHexString(slotId));
-
-			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.get().getSlotID()));
-			session = matchedSlot.get().getToken().openSession(Token.SessionType.SERIAL_SESSION,
-					Token.SessionReadWriteBehavior.RW_SESSION, null, null);
-			// Login to the session.
-			session.login(Session.UserType.USER, userPin.toCharArray());
-
-			AESSecretKey generatedSecretKey = hsmServiceUtil.createAESKey(session, label.toCharArray());
+			AESSecretKey generatedSecretKey = sessionPool.execute(matchedSlot, userPin, true,
+					session -> hsmServiceUtil.createAESKey(session, label.toCharArray()));
 
 			if (generatedSecretKey != null) {
 				logger.info("AES key successfully generated!");
+				outcome = HsmAuditLog.SUCCESS;
 				return hsmDTOUtil.createAesKeyDTO(generatedSecretKey);
 			}
 
 		} catch (TokenException exception) {
 			logger.error("Error observed, message: {}", exception.getLocalizedMessage());
-			return hsmDTOUtil.createAesKeyDTO(hsmServiceUtil.getAesSecretKey());
 		} finally {
-			try {
-				session.logout();
-				session.closeSession();
-			} catch (TokenException e) {
-				logger.error("Error observed in closing the session: {}", e.getLocalizedMessage());
-				e.printStackTrace();
-			}
+			auditLog.recordPkcs11("generate-key", slotId, label, 0, start, outcome);
 		}
 		return null;
 	}
 
 	public boolean encryptData(long slotId, String userPin, String keyLabel, String data) {
-		Session session = null;
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
 		try {
+			HsmSlot matchedSlot = slotRegistry.getSlot(slotId);
+			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.slotId()));
+			matchedSlot.checkMechanism(PKCS11Constants.CKM_RSA_PKCS, Usage.DECRYPT);
+
+			// Encrypt data using the cached public key, in the JVM.
+			logger.info("Data to be encrypted using public key labelled {}", keyLabel);
+			byte[] encryptedData = encryptLocally(publicKeyCache.getPublicKey(matchedSlot, userPin, keyLabel),
+					data.getBytes(StandardCharsets.UTF_8));
+
+			sessionPool.execute(matchedSlot, userPin, false, session -> {
+				// Decrypt data using Private Key.
+				hsmServiceUtil.initWithPrivateKey(session, keyLabel,
+						key -> session.decryptInit(Mechanism.get(PKCS11Constants.CKM_RSA_PKCS), key));
+				byte[] decryptedDataBytes = hsmMetrics.recordPkcs11("decrypt", matchedSlot.slotId(), "CKM_RSA_PKCS",
+						() -> session.decrypt(encryptedData));
+				logger.info("Data decrypted successfully");
+				return new String(decryptedDataBytes, StandardCharsets.UTF_8);
+			});
+			outcome = HsmAuditLog.SUCCESS;
 
-			// Get list of slots with tokens.
-			Slot[] slotsWithTokens = pkcs11Module.getSlotList(Module.SlotRequirement.TOKEN_PRESENT);
+		} catch (TokenException exception) {
+			logger.error("Error observed, message: {}", exception.getLocalizedMessage());
 
-			Optional<Slot> matchedSlot = Arrays.asList(slotsWithTokens).stream()
-					.filter(slot -> slot.getSlotID() == slotId).findFirst();
+		} catch (GeneralSecurityException exception) {
+			logger.error("Error observed, message: {}", exception.getLocalizedMessage());
 
-			if (matchedSlot.isEmpty())
-				throw new IllegalArgumentException("Invalid slotId :0x" + Long.toHexString(slotId));
+		} finally {
+			auditLog.recordPkcs11("encrypt", slotId, keyLabel, 1, start, outcome);
+		}
+		return true;
 
-			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.get().getSlotID()));
-			session = matchedSlot.get().getToken().openSession(Token.SessionType.SERIAL_SESSION,
-					Token.SessionReadWriteBehavior.RO_SESSION, null, null);
-			// Login to the session.
+	}
 
-			session.login(Session.UserType.USER, userPin.toCharArray());
+	/**
+	 * Verify a signature created with CKM_RSA_PKCS, in the JVM using the cached
+	 * public key of the label.
+	 *
+	 * @param signature: Base64 encoded signature
+	 * @return true if the signature is valid, false if invalid, null on error
+	 */
+	public Boolean verifyData(long slotId, String userPin, String keyLabel, String data, String signature) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		try {
+			HsmSlot matchedSlot = slotRegistry.getSlot(slotId);
+			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.slotId()));
+
+			// CKM_RSA_PKCS signs the data as is, without hashing it first.
+			Signature rsaVerify = Signature.getInstance("NONEwithRSA");
+			rsaVerify.initVerify(publicKeyCache.getPublicKey(matchedSlot, userPin, keyLabel));
+			rsaVerify.update(data.getBytes(StandardCharsets.UTF_8));
+			boolean verified = rsaVerify.verify(Base64.getDecoder().decode(signature));
+			logger.info("Signature verified: {}", verified);
+			outcome = HsmAuditLog.SUCCESS;
+			return verified;
+		} catch (TokenException | GeneralSecurityException exception) {
+			logger.error("Error observed, message: {}", exception.getLocalizedMessage());
+		} finally {
+			auditLog.recordPkcs11("verify", slotId, keyLabel, 1, start, outcome);
+		}
+		return null;
+	}
 
-			// Encrypt data using Public Key.
-			logger.info("Data '{}' to be encrypted using public key labelled {}", data, keyLabel);
-			session.encryptInit(Mechanism.get(PKCS11Constants.CKM_RSA_PKCS),
-					hsmServiceUtil.getPublicKey(session, keyLabel));
-			byte[] encryptedData = session.encrypt(data.getBytes());
-			logger.info("Encrypted text (Base64 encoded): {}", Base64.getEncoder().encodeToString(encryptedData));
+	private byte[] encryptLocally(java.security.PublicKey publicKey, byte[] data) throws GeneralSecurityException {
+		// RSA/ECB/PKCS1Padding is the JCA equivalent of CKM_RSA_PKCS
+		Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+		cipher.init(Cipher.ENCRYPT_MODE, publicKey);
+		return cipher.doFinal(data);
+	}
 
-			// Decrypt data using Private Key.
-			session.decryptInit(Mechanism.get(PKCS11Constants.CKM_RSA_PKCS),
-					hsmServiceUtil.getPrivateKey(session, keyLabel));
-			logger.info("Data to be decrypted using private key");
-			byte[] decryptedDataBytes = session.decrypt(encryptedData);
-			String decryptdata = new String(decryptedDataBytes, StandardCharsets.UTF_8);
-			logger.info("Data decrypted successfully: {}", decryptdata);
+	public boolean signData(long slotId, String userPin, String keyLabel, String data) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		try {
+			slotRouter.execute(slotId, matchedSlot -> {
+				logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.slotId()));
+				matchedSlot.checkMechanism(PKCS11Constants.CKM_RSA_PKCS, Usage.SIGN);
+				return sessionPool.execute(matchedSlot, userPin, false, session -> {
+					// Sign data to the session.
+					hsmServiceUtil.initWithPrivateKey(session, keyLabel,
+							key -> session.signInit(Mechanism.get(PKCS11Constants.CKM_RSA_PKCS), key));
+					byte[] signedData = hsmMetrics.recordPkcs11("sign", matchedSlot.slotId(), "CKM_RSA_PKCS",
+							() -> session.sign(data.getBytes(StandardCharsets.UTF_8)));
+					logger.info("Data signed successfully using private key labelled {}", keyLabel);
+					return signedData;
+				});
+			});
+			outcome = HsmAuditLog.SUCCESS;
 
 		} catch (TokenException exception) {
-			exception.printStackTrace();
 			logger.error("Error observed, message: {}", exception.getLocalizedMessage());
 
 		} finally {
-			try {
-				session.logout();
-				session.closeSession();
-			} catch (TokenException e) {
-				logger.error("Error observed in closing the session: {}", e.getLocalizedMessage());
-				e.printStackTrace();
-			}
+			auditLog.recordPkcs11("sign", slotId, keyLabel, 1, start, outcome);
 		}
 		return true;
 
 	}
 
-	public boolean signData(long slotId, String userPin, String keyLabel, String data) {
-		Session session = null;
+	/**
+	 * Sign raw bytes with the private key of the label using CKM_RSA_PKCS.
+	 *
+	 * @return signature, null on error
+	 */
+	public byte[] sign(long slotId, String userPin, String keyLabel, byte[] data) {
+		long start = System.nanoTime();
+		byte[] result = null;
+		try {
+			result = slotRouter.execute(slotId, matchedSlot -> {
+				matchedSlot.checkMechanism(PKCS11Constants.CKM_RSA_PKCS, Usage.SIGN);
+				return sessionPool.execute(matchedSlot, userPin, false, session -> {
+					hsmServiceUtil.initWithPrivateKey(session, keyLabel,
+							key -> session.signInit(Mechanism.get(PKCS11Constants.CKM_RSA_PKCS), key));
+					return hsmMetrics.recordPkcs11("sign", matchedSlot.slotId(), "CKM_RSA_PKCS",
+							() -> session.sign(data));
+				});
+			});
+		} catch (TokenException exception) {
+			logger.error("Error observed, message: {}", exception.getLocalizedMessage());
+		} finally {
+			auditLog.recordPkcs11("sign", slotId, keyLabel, 1, start,
+					result != null ? HsmAuditLog.SUCCESS : HsmAuditLog.ERROR);
+		}
+		return result;
+	}
+
+	/**
+	 * Encrypt raw bytes with the cached public key of the label, in the JVM.
+	 *
+	 * @return ciphertext, null on error
+	 */
+	public byte[] encrypt(long slotId, String userPin, String keyLabel, byte[] data) {
+		long start = System.nanoTime();
+		byte[] result = null;
+		try {
+			HsmSlot matchedSlot = slotRegistry.getSlot(slotId);
+			result = encryptLocally(publicKeyCache.getPublicKey(matchedSlot, userPin, keyLabel), data);
+		} catch (TokenException | GeneralSecurityException exception) {
+			logger.error("Error observed, message: {}", exception.getLocalizedMessage());
+		} finally {
+			auditLog.recordPkcs11("encrypt", slotId, keyLabel, 1, start,
+					result != null ? HsmAuditLog.SUCCESS : HsmAuditLog.ERROR);
+		}
+		return result;
+	}
+
+	/**
+	 * Decrypt raw bytes with the private key of the label using CKM_RSA_PKCS.
+	 *
+	 * @return plaintext, null on error
+	 */
+	public byte[] decrypt(long slotId, String userPin, String keyLabel, byte[] ciphertext) {
+		long start = System.nanoTime();
+		byte[] result = null;
+		try {
+			result = slotRouter.execute(slotId, matchedSlot -> {
+				matchedSlot.checkMechanism(PKCS11Constants.CKM_RSA_PKCS, Usage.DECRYPT);
+				return sessionPool.execute(matchedSlot, userPin, false, session -> {
+					hsmServiceUtil.initWithPrivateKey(session, keyLabel,
+							key -> session.decryptInit(Mechanism.get(PKCS11Constants.CKM_RSA_PKCS), key));
+					return hsmMetrics.recordPkcs11("decrypt", matchedSlot.slotId(), "CKM_RSA_PKCS",
+							() -> session.decrypt(ciphertext));
+				});
+			});
+		} catch (TokenException exception) {
+			logger.error("Error observed, message: {}", exception.getLocalizedMessage());
+		} finally {
+			auditLog.recordPkcs11("decrypt", slotId, keyLabel, 1, start,
+					result != null ? HsmAuditLog.SUCCESS : HsmAuditLog.ERROR);
+		}
+		return result;
+	}
+
+	/**
+	 * Sign a document of any size with a hash computed in the JVM. The document is
+	 * hashed while it is read, before a session is borrowed, and only its
+	 * DigestInfo is signed on the token with CKM_RSA_PKCS. The signature is the
+	 * same as of the hash-and-sign mechanism, e.g. CKM_SHA256_RSA_PKCS, at a
+	 * constant cost on the HSM.
+	 *
+	 * @param algorithm: hash algorithm
+	 * @param document:  document to be signed
+	 * @return signature (Base64 encoded), null on error
+	 */
+	public String signDigest(long slotId, String userPin, String keyLabel, DigestAlgorithm algorithm,
+			InputStream document) {
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
 		try {
+			MessageDigest messageDigest = MessageDigest.getInstance(algorithm.jcaName());
+			byte[] buffer = new byte[streamChunkSize];
+			long total = 0;
+			int read;
+			while ((read = document.read(buffer)) != -1) {
+				messageDigest.update(buffer, 0, read);
+				total += read;
+			}
+			byte[] digestInfo = algorithm.digestInfo(messageDigest.digest());
+
+			byte[] signedData = slotRouter.execute(slotId, matchedSlot -> {
+				logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.slotId()));
+				matchedSlot.checkMechanism(PKCS11Constants.CKM_RSA_PKCS, Usage.SIGN);
+				return sessionPool.execute(matchedSlot, userPin, false, session -> {
+					hsmServiceUtil.initWithPrivateKey(session, keyLabel,
+							key -> session.signInit(Mechanism.get(PKCS11Constants.CKM_RSA_PKCS), key));
+					return hsmMetrics.recordPkcs11("sign", matchedSlot.slotId(), "CKM_RSA_PKCS",
+							() -> session.sign(digestInfo));
+				});
+			});
+			logger.info("Document of {} bytes signed with {} hash", total, algorithm.jcaName());
+			outcome = HsmAuditLog.SUCCESS;
+			return Base64.getEncoder().encodeToString(signedData);
+		} catch (TokenException | GeneralSecurityException exception) {
+			logger.error("Error observed, message: {}", exception.getLocalizedMessage());
+		} catch (IOException exception) {
+			logger.error("Error observed in reading document, message: {}", exception.getLocalizedMessage());
+		} finally {
+			auditLog.recordPkcs11("sign-digest", slotId, keyLabel, 1, start, outcome);
+		}
+		return null;
+	}
 
-			// Get list of slots with tokens.
-			Slot[] slotsWithTokens = pkcs11Module.getSlotList(Module.SlotRequirement.TOKEN_PRESENT);
+	/**
+	 * Sign many UTF-8 payloads in one call, see {@link #signBatch}.
+	 *
+	 * @return signature (Base64 encoded) or error per item in the order of the
+	 *         items
+	 */
+	public List<BatchItemResultDTO> signDataBatch(long slotId, String userPin, String defaultLabel,
+			List<SignItemDTO> items) {
+		List<BinarySignItemDTO> binaryItems = new ArrayList<>(items.size());
+		for (SignItemDTO item : items)
+			binaryItems.add(new BinarySignItemDTO(item.label(), item.data().getBytes(StandardCharsets.UTF_8)));
+		return toBatchItemResults(signBatch(slotId, userPin, defaultLabel, binaryItems),
+				Base64.getEncoder()::encodeToString);
+	}
 
-			Optional<Slot> matchedSlot = Arrays.asList(slotsWithTokens).stream()
-					.filter(slot -> slot.getSlotID() == slotId).findFirst();
+	/**
+	 * Sign many payloads in one call. The payloads are signed in parallel chunks,
+	 * each chunk routed on its own and run on its own pooled session with each key
+	 * resolved once for the chunk.
+	 *
+	 * @param defaultLabel: label of the key used for items without a label
+	 * @return signature or error per item in the order of the items
+	 * @throws IllegalArgumentException : if the batch is too large or an item has
+	 *                                  no label and there is no default label
+	 */
+	public List<BinaryItemResultDTO> signBatch(long slotId, String userPin, String defaultLabel,
+			List<BinarySignItemDTO> items) {
+		if (items.size() > batchMaxItems)
+			throw new IllegalArgumentException("Batch exceeds the maximum of " + batchMaxItems + " items");
+		// a missing label is invalid input, not an unknown key
+		for (int index = 0; index < items.size(); index++) {
+			if (labelOf(items.get(index), defaultLabel) == null)
+				throw new IllegalArgumentException("Please provide label of item " + index + " or a default label");
+		}
+		long started = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		try {
+			// Fail fast on an unknown slot before any chunk is scheduled.
+			HsmSlot matchedSlot = slotRouter.select(slotId);
+			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.slotId()));
+			matchedSlot.checkMechanism(PKCS11Constants.CKM_RSA_PKCS, Usage.SIGN);
+
+			BinaryItemResultDTO[] results = new BinaryItemResultDTO[items.size()];
+			int chunkSize = (items.size() + batchParallelism - 1) / batchParallelism;
+			List<CompletableFuture<Void>> chunks = new ArrayList<>();
+			for (int start = 0; start < items.size(); start += chunkSize) {
+				int from = start;
+				int to = Math.min(start + chunkSize, items.size());
+				chunks.add(CompletableFuture.runAsync(
+						() -> signChunk(slotId, userPin, defaultLabel, items, results, from, to), batchExecutor));
+			}
+			CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new)).join();
 
-			if (matchedSlot.isEmpty())
-				throw new IllegalArgumentException("Invalid slotId :0x" + Long.toHexString(slotId));
+			logger.info("Batch of {} items signed", items.size());
+			outcome = HsmAuditLog.SUCCESS;
+			return Arrays.asList(results);
+		} finally {
+			auditLog.recordPkcs11("sign-batch", slotId, defaultLabel, items.size(), started, outcome);
+		}
+	}
 
-			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.get().getSlotID()));
-			session = matchedSlot.get().getToken().openSession(Token.SessionType.SERIAL_SESSION,
-					Token.SessionReadWriteBehavior.RO_SESSION, null, null);
-			// Login to the session.
+	private void signChunk(long slotId, String userPin, String defaultLabel, List<BinarySignItemDTO> items,
+			BinaryItemResultDTO[] results, int from, int to) {
+		try {
+			slotRouter.execute(slotId, slot -> sessionPool.executeLongRunning(slot, userPin, false, session -> {
+				// Key handles are per token, so keys are resolved on the replica of the chunk,
+				// through the index with the same stale handle retry as single signing.
+				Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_RSA_PKCS);
+				for (int index = from; index < to; index++) {
+					String label = labelOf(items.get(index), defaultLabel);
+					try {
+						hsmServiceUtil.initWithPrivateKey(session, label, key -> session.signInit(mechanism, key));
+						byte[] payload = items.get(index).data();
+						results[index] = BinaryItemResultDTO.success(index, hsmMetrics.recordPkcs11("sign",
+								slot.slotId(), "CKM_RSA_PKCS", () -> session.sign(payload)));
+					} catch (TokenException | NoSuchElementException e) {
+						results[index] = BinaryItemResultDTO.failure(index, e.getLocalizedMessage());
+					}
+				}
+				return null;
+			}));
+		} catch (TokenException | RuntimeException e) {
+			logger.error("Error observed in signing items {} to {}, message: {}", from, to - 1,
+					e.getLocalizedMessage());
+			for (int index = from; index < to; index++) {
+				if (results[index] == null)
+					results[index] = BinaryItemResultDTO.failure(index, e.getLocalizedMessage());
+			}
+		}
+	}
 
-			session.login(Session.UserType.USER, userPin.toCharArray());
+	/**
+	 * Encrypt many UTF-8 payloads, see {@link #encryptBatch}.
+	 *
+	 * @return ciphertext (Base64 encoded) or error per payload in the order of the
+	 *         payloads, null on error
+	 */
+	public List<BatchItemResultDTO> encryptDataBatch(long slotId, String userPin, String keyLabel,
+			List<String> data) {
+		List<byte[]> payloads = new ArrayList<>(data.size());
+		for (String item : data)
+			payloads.add(item.getBytes(StandardCharsets.UTF_8));
+		return toBatchItemResults(encryptBatch(slotId, userPin, keyLabel, payloads),
+				Base64.getEncoder()::encodeToString);
+	}
 
-			// Sign data to the session.
-			logger.info("Data '{}' to be signed using private key", data);
-			session.signInit(Mechanism.get(PKCS11Constants.CKM_RSA_PKCS),
-					hsmServiceUtil.getPrivateKey(session, keyLabel));
-			byte[] signedData = session.sign(data.getBytes());
-			logger.info("Data signed successfully, (Base64 encoded): {}",
-					Base64.getEncoder().encodeToString(signedData));
+	/**
+	 * Encrypt many payloads with the public key of the label, in the JVM with the
+	 * key read from the token once.
+	 *
+	 * @return ciphertext or error per payload in the order of the payloads, null
+	 *         on error
+	 */
+	public List<BinaryItemResultDTO> encryptBatch(long slotId, String userPin, String keyLabel, List<byte[]> data) {
+		if (data.size() > batchMaxItems)
+			throw new IllegalArgumentException("Batch exceeds the maximum of " + batchMaxItems + " items");
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		try {
+			HsmSlot matchedSlot = slotRegistry.getSlot(slotId);
+			logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.slotId()));
+
+			// Public key operations run in the JVM, no session is needed.
+			java.security.PublicKey publicKey = publicKeyCache.getPublicKey(matchedSlot, userPin, keyLabel);
+			List<BinaryItemResultDTO> results = new ArrayList<>(data.size());
+			for (int index = 0; index < data.size(); index++) {
+				try {
+					results.add(BinaryItemResultDTO.success(index, encryptLocally(publicKey, data.get(index))));
+				} catch (GeneralSecurityException e) {
+					results.add(BinaryItemResultDTO.failure(index, e.getLocalizedMessage()));
+				}
+			}
 
+			logger.info("Batch of {} items encrypted with public key of token '{}'", data.size(),
+					matchedSlot.tokenLabel());
+			outcome = HsmAuditLog.SUCCESS;
+			return results;
 		} catch (TokenException exception) {
-			exception.printStackTrace();
 			logger.error("Error observed, message: {}", exception.getLocalizedMessage());
-
 		} finally {
+			auditLog.recordPkcs11("encrypt-batch", slotId, keyLabel, data.size(), start, outcome);
+		}
+		return null;
+	}
+
+	/**
+	 * Decrypt many Base64 encoded ciphertexts of UTF-8 plaintexts, see
+	 * {@link #decryptBatch}.
+	 *
+	 * @return plaintext or error per ciphertext in the order of the ciphertexts,
+	 *         null on error
+	 */
+	public List<BatchItemResultDTO> decryptDataBatch(long slotId, String userPin, String keyLabel,
+			List<String> ciphertexts) {
+		List<byte[]> decoded = new ArrayList<>(ciphertexts.size());
+		for (String ciphertext : ciphertexts) {
 			try {
-				session.logout();
-				session.closeSession();
-			} catch (TokenException e) {
-				logger.error("Error observed in closing the session: {}", e.getLocalizedMessage());
-				e.printStackTrace();
+				decoded.add(Base64.getDecoder().decode(ciphertext));
+			} catch (IllegalArgumentException e) {
+				// reported as the error of the item
+				decoded.add(null);
 			}
 		}
-		return true;
+		return toBatchItemResults(decryptBatch(slotId, userPin, keyLabel, decoded),
+				plaintext -> new String(plaintext, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Decrypt many ciphertexts with the private key of the label, on one session
+	 * with the key resolved once.
+	 *
+	 * @param ciphertexts: ciphertexts, null for an item which could not be decoded
+	 * @return plaintext or error per ciphertext in the order of the ciphertexts,
+	 *         null on error
+	 */
+	public List<BinaryItemResultDTO> decryptBatch(long slotId, String userPin, String keyLabel,
+			List<byte[]> ciphertexts) {
+		if (ciphertexts.size() > batchMaxItems)
+			throw new IllegalArgumentException("Batch exceeds the maximum of " + batchMaxItems + " items");
+		long start = System.nanoTime();
+		String outcome = HsmAuditLog.ERROR;
+		try {
+			List<BinaryItemResultDTO> results = slotRouter.execute(slotId, matchedSlot -> {
+				matchedSlot.checkMechanism(PKCS11Constants.CKM_RSA_PKCS, Usage.DECRYPT);
+				return sessionPool.executeLongRunning(matchedSlot, userPin, false, session -> {
+					logger.info("Slot ID:0x{}", Long.toHexString(matchedSlot.slotId()));
+					if (hsmServiceUtil.getPrivateKey(session, keyLabel) == null)
+						throw new NoSuchElementException("No private key found with label " + keyLabel);
+
+					Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_RSA_PKCS);
+					List<BinaryItemResultDTO> processed = new ArrayList<>(ciphertexts.size());
+					for (int index = 0; index < ciphertexts.size(); index++) {
+						byte[] encryptedData = ciphertexts.get(index);
+						if (encryptedData == null) {
+							processed.add(BinaryItemResultDTO.failure(index, "Ciphertext is not Base64 encoded"));
+							continue;
+						}
+						try {
+							hsmServiceUtil.initWithPrivateKey(session, keyLabel,
+									key -> session.decryptInit(mechanism, key));
+							processed.add(BinaryItemResultDTO.success(index, hsmMetrics.recordPkcs11("decrypt",
+									matchedSlot.slotId(), "CKM_RSA_PKCS", () -> session.decrypt(encryptedData))));
+						} catch (TokenException | NoSuchElementException e) {
+							processed.add(BinaryItemResultDTO.failure(index, e.getLocalizedMessage()));
+						}
+					}
+					return processed;
+				});
+			});
+
+			logger.info("Batch of {} items decrypted", ciphertexts.size());
+			outcome = HsmAuditLog.SUCCESS;
+			return results;
+		} catch (TokenException exception) {
+			logger.error("Error observed, message: {}", exception.getLocalizedMessage());
+		} finally {
+			auditLog.recordPkcs11("decrypt-batch", slotId, keyLabel, ciphertexts.size(), start, outcome);
+		}
+		return null;
+	}
+
+	private String labelOf(BinarySignItemDTO item, String defaultLabel) {
+		return item.label() != null ? item.label() : defaultLabel;
+	}
 
+	private List<BatchItemResultDTO> toBatchItemResults(List<BinaryItemResultDTO> results,
+			Function<byte[], String> encoder) {
+		if (results == null)
+			return null;
+		List<BatchItemResultDTO> converted = new ArrayList<>(results.size());
+		for (BinaryItemResultDTO result : results)
+			converted.add(result.error() != null ? BatchItemResultDTO.failure(result.index(), result.error())
+					: BatchItemResultDTO.success(result.index(), encoder.apply(result.result())));
+		return converted;
 	}
 }
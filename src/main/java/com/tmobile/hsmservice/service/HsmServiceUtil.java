@@ -1,56 +1,93 @@
 package com.tmobile.hsmservice.service;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+
+import com.tmobile.hsmservice.service.HsmObjectIndex.KeyClass;
+
 import iaik.pkcs.pkcs11.Mechanism;
-import iaik.pkcs.pkcs11.MechanismInfo;
 import iaik.pkcs.pkcs11.Session;
 import iaik.pkcs.pkcs11.TokenException;
 import iaik.pkcs.pkcs11.objects.AESSecretKey;
+import iaik.pkcs.pkcs11.objects.Key;
 import iaik.pkcs.pkcs11.objects.KeyPair;
 import iaik.pkcs.pkcs11.objects.PrivateKey;
 import iaik.pkcs.pkcs11.objects.PublicKey;
 import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
 import iaik.pkcs.pkcs11.objects.RSAPublicKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
-import io.opentelemetry.api.internal.StringUtils;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
 
 @Component
 public class HsmServiceUtil {
 
 	private Logger logger = LoggerFactory.getLogger(HsmServiceUtil.class);
 
-	private RSAPrivateKey privateKey;
+	@Value("${pkcs11.find-batch-size:256}")
+	private int findBatchSize;
 
-	private RSAPublicKey publicKey;
+	@Autowired
+	private HsmObjectIndex hsmObjectIndex;
 
-	private AESSecretKey aesSecretKey;
+	@Autowired
+	private HsmMetrics hsmMetrics;
 
-	public AESSecretKey getAesSecretKey() {
-		return aesSecretKey;
-	}
+	public static final long RSA_MODULUS_BITS = 2048L;
 
-	public void setAesSecretKey(AESSecretKey aesSecretKey) {
-		this.aesSecretKey = aesSecretKey;
-	}
+	public static final long AES_KEY_BYTES = 32L;
 
-	public RSAPrivateKey getPrivateKey() {
-		return privateKey;
-	}
+	// Attribute templates of generated keys, built once and never modified: each
+	// key generation works on its own clone, so concurrent generations on any
+	// slots share no mutable state.
+	private static final AESSecretKey AES_KEY_TEMPLATE = aesKeyTemplate();
 
-	public void setPrivateKey(RSAPrivateKey privateKey) {
-		this.privateKey = privateKey;
+	private static final RSAPrivateKey RSA_PRIVATE_KEY_TEMPLATE = rsaPrivateKeyTemplate();
+
+	private static final RSAPublicKey RSA_PUBLIC_KEY_TEMPLATE = rsaPublicKeyTemplate();
+
+	private static AESSecretKey aesKeyTemplate() {
+		AESSecretKey secretKeyTemplate = new AESSecretKey();
+
+		secretKeyTemplate.getToken().setBooleanValue(Boolean.TRUE);
+		secretKeyTemplate.getSensitive().setBooleanValue(Boolean.TRUE);
+		//secretKeyTemplate.getExtractable().setBooleanValue(Boolean.TRUE);
+		//secretKeyTemplate.getModifiable().setBooleanValue(Boolean.TRUE);
+		secretKeyTemplate.getEncrypt().setBooleanValue(Boolean.TRUE);
+		secretKeyTemplate.getDecrypt().setBooleanValue(Boolean.TRUE);
+		secretKeyTemplate.getValueLen().setLongValue(AES_KEY_BYTES);
+		return secretKeyTemplate;
 	}
 
-	public RSAPublicKey getPublicKey() {
-		return publicKey;
+	private static RSAPrivateKey rsaPrivateKeyTemplate() {
+		RSAPrivateKey privateKeyTemplate = new RSAPrivateKey();
+
+		privateKeyTemplate.getToken().setBooleanValue(Boolean.TRUE);
+		privateKeyTemplate.getPrivate().setBooleanValue(Boolean.TRUE);
+		privateKeyTemplate.getSign().setBooleanValue(Boolean.TRUE);
+		privateKeyTemplate.getDecrypt().setBooleanValue(Boolean.TRUE);
+		privateKeyTemplate.getSensitive().setBooleanValue(Boolean.TRUE);
+		return privateKeyTemplate;
 	}
 
-	public void setPublicKey(RSAPublicKey publicKey) {
-		this.publicKey = publicKey;
+	private static RSAPublicKey rsaPublicKeyTemplate() {
+		RSAPublicKey publicKeyTemplate = new RSAPublicKey();
+
+		byte[] publicExponentBytes = { 0x01, 0x00, 0x00, 0x00, 0x01 };
+
+		publicKeyTemplate.getToken().setBooleanValue(Boolean.TRUE);
+		publicKeyTemplate.getPrivate().setBooleanValue(Boolean.FALSE);
+		publicKeyTemplate.getVerify().setBooleanValue(Boolean.TRUE);
+		publicKeyTemplate.getEncrypt().setBooleanValue(Boolean.TRUE);
+		publicKeyTemplate.getPublicExponent().setByteArrayValue(publicExponentBytes);
+		publicKeyTemplate.getModulusBits().setLongValue(RSA_MODULUS_BITS);
+		return publicKeyTemplate;
 	}
 
 	/**
@@ -64,22 +101,12 @@ public class HsmServiceUtil {
 
 		Mechanism keyMechanism = Mechanism.get(PKCS11Constants.CKM_AES_KEY_GEN);
 
-		AESSecretKey secretKeyTemplate = new AESSecretKey();
-
-		secretKeyTemplate.getToken().setBooleanValue(Boolean.TRUE);
-		secretKeyTemplate.getSensitive().setBooleanValue(Boolean.TRUE);
-		//secretKeyTemplate.getExtractable().setBooleanValue(Boolean.TRUE);
-		//secretKeyTemplate.getModifiable().setBooleanValue(Boolean.TRUE);
-		secretKeyTemplate.getEncrypt().setBooleanValue(Boolean.TRUE);
-		secretKeyTemplate.getDecrypt().setBooleanValue(Boolean.TRUE);
-		//secretKeyTemplate.getWrap().setBooleanValue(Boolean.TRUE);
-		//secretKeyTemplate.getUnwrap().setBooleanValue(Boolean.TRUE);
+		AESSecretKey secretKeyTemplate = (AESSecretKey) AES_KEY_TEMPLATE.clone();
 		secretKeyTemplate.getLabel().setCharArrayValue(label);
-		secretKeyTemplate.getValueLen().setLongValue(32L);
 
-		setAesSecretKey(secretKeyTemplate);
-
-		AESSecretKey generatedSecretKey = (AESSecretKey) session.generateKey(keyMechanism, secretKeyTemplate);
+		AESSecretKey generatedSecretKey = (AESSecretKey) hsmMetrics.recordPkcs11("keygen", slotId(session),
+				"CKM_AES_KEY_GEN", () -> session.generateKey(keyMechanism, secretKeyTemplate));
+		hsmObjectIndex.put(session, KeyClass.SECRET_KEY, generatedSecretKey);
 		return generatedSecretKey;
 
 	}
@@ -89,153 +116,173 @@ public class HsmServiceUtil {
 	 *
 	 * @param privateKeyTemplate : Template of the generated private key
 	 * @param publicKeyTemplate  : Template of the generated private key
-	 * @return KeyPair if pair of keys generated, else null.
+	 * @return generated KeyPair
 	 * @throws TokenException : returns if exception occurred in the Token.
 	 */
 	public KeyPair generateRSAKeyPair(Session session, String label) throws TokenException {
 
+		// support of the mechanism is checked against the capabilities of the slot
+		// before a session is used, see HsmSlot
 		Mechanism keyPairGenerationMechanism = Mechanism.get(PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN);
-		MechanismInfo mechanismInfo = session.getToken().getMechanismInfo(keyPairGenerationMechanism);
-
-		RSAPublicKey publicKeyTemplate = new RSAPublicKey();
-		RSAPrivateKey privateKeyTemplate = new RSAPrivateKey();
-
-		if ((keyPairGenerationMechanism != null) && (mechanismInfo != null)) {
 
-			privateKeyTemplate.getToken().setBooleanValue(Boolean.TRUE);
-			privateKeyTemplate.getPrivate().setBooleanValue(Boolean.TRUE);
-			privateKeyTemplate.getSign().setBooleanValue(Boolean.TRUE);
-			privateKeyTemplate.getDecrypt().setBooleanValue(Boolean.TRUE);
-			privateKeyTemplate.getSensitive().setBooleanValue(Boolean.TRUE);
-			privateKeyTemplate.getLabel().setCharArrayValue((label).toCharArray());
+		RSAPrivateKey privateKeyTemplate = (RSAPrivateKey) RSA_PRIVATE_KEY_TEMPLATE.clone();
+		privateKeyTemplate.getLabel().setCharArrayValue((label).toCharArray());
+		RSAPublicKey publicKeyTemplate = (RSAPublicKey) RSA_PUBLIC_KEY_TEMPLATE.clone();
+		publicKeyTemplate.getLabel().setCharArrayValue((label).toCharArray());
 
-			byte[] publicExponentBytes = { 0x01, 0x00, 0x00, 0x00, 0x01 };
-
-			publicKeyTemplate.getToken().setBooleanValue(Boolean.TRUE);
-			publicKeyTemplate.getPrivate().setBooleanValue(Boolean.FALSE);
-			publicKeyTemplate.getVerify().setBooleanValue(Boolean.TRUE);
-			publicKeyTemplate.getEncrypt().setBooleanValue(Boolean.TRUE);
-			publicKeyTemplate.getLabel().setCharArrayValue((label).toCharArray());
-			publicKeyTemplate.getPublicExponent().setByteArrayValue(publicExponentBytes);
-			publicKeyTemplate.getModulusBits().setLongValue(2048l);
+		KeyPair generatedKeyPair = hsmMetrics.recordPkcs11("keygen", slotId(session), "CKM_RSA_PKCS_KEY_PAIR_GEN",
+				() -> session.generateKeyPair(keyPairGenerationMechanism, publicKeyTemplate, privateKeyTemplate));
+		hsmObjectIndex.put(session, KeyClass.PRIVATE_KEY, generatedKeyPair.getPrivateKey());
+		hsmObjectIndex.put(session, KeyClass.PUBLIC_KEY, generatedKeyPair.getPublicKey());
+		return generatedKeyPair;
+	}
 
-			setPrivateKey(privateKeyTemplate);
-			setPublicKey(publicKeyTemplate);
+	public PublicKey getPublicKey(Session session, String label) throws TokenException {
+		// resolve the public RSA key through the label index of the token
+		Long handle = hsmObjectIndex.getHandle(session, KeyClass.PUBLIC_KEY, label);
+		if (handle == null)
+			return null;
 
-			return session.generateKeyPair(keyPairGenerationMechanism, publicKeyTemplate, privateKeyTemplate);
+		RSAPublicKey key = new RSAPublicKey();
+		key.setObjectHandle(handle);
+		return key;
+	}
 
-		}
-		return null;
+	public PrivateKey getPrivateKey(Session session, String label) throws TokenException {
+		// resolve the private RSA key through the label index of the token
+		Long handle = hsmObjectIndex.getHandle(session, KeyClass.PRIVATE_KEY, label);
+		if (handle == null)
+			return null;
 
+		RSAPrivateKey key = new RSAPrivateKey();
+		key.setObjectHandle(handle);
+		return key;
 	}
 
-	public List<PrivateKey> getPrivateKeys(Session session) throws TokenException {
-		// find private RSA keys that the application can use for signing - START HERE
-		RSAPrivateKey privateSignatureKeyTemplate = new RSAPrivateKey();
-		privateSignatureKeyTemplate.getSign().setBooleanValue(Boolean.TRUE);
+	public AESSecretKey getSecretKey(Session session, String label) throws TokenException {
+		// resolve the AES key through the label index of the token
+		Long handle = hsmObjectIndex.getHandle(session, KeyClass.SECRET_KEY, label);
+		if (handle == null)
+			return null;
 
-		session.findObjectsInit(privateSignatureKeyTemplate);
-		Object[] privateSignatureKeys;
+		AESSecretKey key = new AESSecretKey();
+		key.setObjectHandle(handle);
+		return key;
+	}
 
-		List<PrivateKey> signatureKeyList = new ArrayList<>();
-		while ((privateSignatureKeys = session.findObjects(1)).length > 0) {
-			// logger.info("private key: {}", privateSignatureKeys[0]);
-			if (privateSignatureKeys[0] instanceof PrivateKey) {
-				// logger.info("Adding private key object to list");
-				signatureKeyList.add((PrivateKey) privateSignatureKeys[0]);
-			}
+	/**
+	 * Initialize an operation with the public key of the label. A handle the
+	 * token reports as stale is dropped from the index and looked up once more.
+	 *
+	 * @param session: Session object
+	 * @param label:   Label of the public key
+	 * @param init:    operation to initialize with the key
+	 * @throws TokenException : returns if exception occurred in the Token.
+	 */
+	public void initWithPublicKey(Session session, String label, KeyInit<PublicKey> init) throws TokenException {
+		PublicKey key = getPublicKey(session, label);
+		if (key == null)
+			throw new NoSuchElementException("No public key found with label " + label);
+		try {
+			init.init(key);
+		} catch (PKCS11Exception e) {
+			if (!isStaleHandle(e))
+				throw e;
+			logger.info("Stale handle of public key {}, looking it up again", label);
+			hsmObjectIndex.evict(session, KeyClass.PUBLIC_KEY, label);
+			key = getPublicKey(session, label);
+			if (key == null)
+				throw new NoSuchElementException("No public key found with label " + label);
+			init.init(key);
 		}
-
-		session.findObjectsFinal();
-		return signatureKeyList;
 	}
 
-	public PublicKey getPublicKey(Session session, String label) throws TokenException {
-		// find public RSA keys that the application can use for signing - START HERE
-		RSAPublicKey publicSignatureKeyTemplate = new RSAPublicKey();
-		session.findObjectsInit(publicSignatureKeyTemplate);
-
-		Object[] publicSignatureKeys;
-		PublicKey key = null;
-		while ((publicSignatureKeys = session.findObjects(1)).length > 0) {
-			if (publicSignatureKeys[0] instanceof PublicKey) {
-				key = (PublicKey) publicSignatureKeys[0];
-			//	logger.info("key label :{}", key.getLabel());
-				
-				if (key.getLabel() != null && key.getLabel().getCharArrayValue() != null
-						&& String.valueOf(key.getLabel().getCharArrayValue()).equals(label)) {
-					break;
-				}
-			}
+	/**
+	 * Initialize an operation with the private key of the label. A handle the
+	 * token reports as stale is dropped from the index and looked up once more.
+	 *
+	 * @param session: Session object
+	 * @param label:   Label of the private key
+	 * @param init:    operation to initialize with the key
+	 * @throws TokenException : returns if exception occurred in the Token.
+	 */
+	public void initWithPrivateKey(Session session, String label, KeyInit<PrivateKey> init) throws TokenException {
+		PrivateKey key = getPrivateKey(session, label);
+		if (key == null)
+			throw new NoSuchElementException("No private key found with label " + label);
+		try {
+			init.init(key);
+		} catch (PKCS11Exception e) {
+			if (!isStaleHandle(e))
+				throw e;
+			logger.info("Stale handle of private key {}, looking it up again", label);
+			hsmObjectIndex.evict(session, KeyClass.PRIVATE_KEY, label);
+			key = getPrivateKey(session, label);
+			if (key == null)
+				throw new NoSuchElementException("No private key found with label " + label);
+			init.init(key);
 		}
-
-		session.findObjectsFinal();
-		return key;
-
 	}
-	
-	public PrivateKey getPrivateKey(Session session, String label) throws TokenException {
-		// find private RSA keys that the application can use for signing - START HERE
-		RSAPrivateKey privateSignatureKeyTemplate = new RSAPrivateKey();
-		session.findObjectsInit(privateSignatureKeyTemplate);
-
-		Object[] publicSignatureKeys;
-		PrivateKey key = null;
-		while ((publicSignatureKeys = session.findObjects(1)).length > 0) {
-			if (publicSignatureKeys[0] instanceof PrivateKey) {
-				key = (PrivateKey) publicSignatureKeys[0];
-			//	logger.info("key label :{}", key.getLabel());
-				
-				if (key.getLabel() != null && key.getLabel().getCharArrayValue() != null
-						&& String.valueOf(key.getLabel().getCharArrayValue()).equals(label)) {
-					break;
-				}
-			}
-		}
-
-		session.findObjectsFinal();
-		return key;
 
+	private long slotId(Session session) {
+		return session.getToken().getSlot().getSlotID();
 	}
 
-	public List<PublicKey> getPublicKeys(Session session) throws TokenException {
-		// find public RSA keys that the application can use for signing - START HERE
-		RSAPublicKey publicSignatureKeyTemplate = new RSAPublicKey();
-
-		session.findObjectsInit(publicSignatureKeyTemplate);
-		Object[] publicSignatureKeys;
+	private boolean isStaleHandle(PKCS11Exception e) {
+		return e.getErrorCode() == PKCS11Constants.CKR_OBJECT_HANDLE_INVALID
+				|| e.getErrorCode() == PKCS11Constants.CKR_KEY_HANDLE_INVALID;
+	}
 
-		List<PublicKey> signatureKeyList = new ArrayList<>();
-		while ((publicSignatureKeys = session.findObjects(1)).length > 0) {
-			// logger.info("public key: {}", publicSignatureKeys[0]);
-			if (publicSignatureKeys[0] instanceof PublicKey) {
-				// logger.info("Adding public key object to list");
-				signatureKeyList.add((PublicKey) publicSignatureKeys[0]);
+	/**
+	 * Method to get the handles of all objects on the token in one pass, fetching
+	 * handles in batches instead of one object per call.
+	 *
+	 * @param session: Session object
+	 * @return handles of the objects in ascending order
+	 * @throws TokenException : returns if exception occurred in the Token.
+	 */
+	public long[] getObjectHandles(Session session) throws TokenException {
+		PKCS11 pkcs11 = session.getModule().getPKCS11Module();
+
+		// an object without any attribute set serves as a template matching all objects
+		session.findObjectsInit(new iaik.pkcs.pkcs11.objects.Object());
+		long[] handles = new long[findBatchSize];
+		int count = 0;
+		try {
+			long[] batch;
+			while ((batch = pkcs11.C_FindObjects(session.getSessionHandle(), findBatchSize)).length > 0) {
+				if (count + batch.length > handles.length)
+					handles = Arrays.copyOf(handles, Math.max(handles.length * 2, count + batch.length));
+				System.arraycopy(batch, 0, handles, count, batch.length);
+				count += batch.length;
 			}
+		} finally {
+			session.findObjectsFinal();
 		}
 
-		session.findObjectsFinal();
-		return signatureKeyList;
+		handles = Arrays.copyOf(handles, count);
+		Arrays.sort(handles);
+		return handles;
 	}
 
-	public List<AESSecretKey> getAESKeys(Session session) throws TokenException {
-		// find public RSA keys that the application can use for signing - START HERE
-		AESSecretKey aesSignatureKeyTemplate = new AESSecretKey();
-
-		session.findObjectsInit(aesSignatureKeyTemplate);
-		Object[] aesSignatureKeys;
-
-		List<AESSecretKey> signatureKeyList = new ArrayList<>();
-		while ((aesSignatureKeys = session.findObjects(1)).length > 0) {
-			// logger.info("aes key: {}", aesSignatureKeys[0]);
-			if (aesSignatureKeys[0] instanceof AESSecretKey) {
-				// logger.info("Adding AES key object to list");
-				signatureKeyList.add((AESSecretKey) aesSignatureKeys[0]);
-			}
+	/**
+	 * Method to read a key stored on the token.
+	 *
+	 * @param session: Session object
+	 * @param handle:  handle of the object
+	 * @return the key, null if the object is not a key or no longer exists
+	 * @throws TokenException : returns if exception occurred in the Token.
+	 */
+	public Key getKey(Session session, long handle) throws TokenException {
+		try {
+			iaik.pkcs.pkcs11.objects.Object object = iaik.pkcs.pkcs11.objects.Object.getInstance(session, handle);
+			return object instanceof Key key ? key : null;
+		} catch (PKCS11Exception e) {
+			// object deleted after its handle was found
+			if (e.getErrorCode() == PKCS11Constants.CKR_OBJECT_HANDLE_INVALID)
+				return null;
+			throw e;
 		}
-
-		session.findObjectsFinal();
-		return signatureKeyList;
 	}
 
 }
@@ -0,0 +1,525 @@
+package com.tmobile.hsmservice.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.tmobile.hsmservice.exception.HsmOverloadedException;
+import com.tmobile.hsmservice.exception.SessionUnavailableException;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionInfo;
+import iaik.pkcs.pkcs11.State;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.TokenInfo;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+/**
+ * Pool of logged in PKCS11 sessions, kept per slot with separate RO and RW
+ * sessions. Sessions stay open and logged in between requests so that the
+ * open/login/logout/close round trip is paid once per session instead of once
+ * per request.
+ */
+@Component
+public class HsmSessionPool {
+
+	private Logger logger = LoggerFactory.getLogger(HsmSessionPool.class);
+
+	@Value("${pkcs11.session-pool.max-size:16}")
+	private int maxSize;
+
+	@Value("${pkcs11.session-pool.max-rw-size:4}")
+	private int maxRwSize;
+
+	@Value("${pkcs11.session-pool.borrow-timeout-ms:5000}")
+	private long borrowTimeoutMs;
+
+	@Autowired
+	private HsmConcurrencyLimiter concurrencyLimiter;
+
+	@Autowired
+	private HsmMetrics hsmMetrics;
+
+	private final Map<Long, SlotSessions> slotSessions = new ConcurrentHashMap<>();
+
+	private final SecureRandom secureRandom = new SecureRandom();
+
+	// slot whose native executor runs the current thread, if any
+	private static final ThreadLocal<SlotSessions> NATIVE_SLOT = new ThreadLocal<>();
+
+	/**
+	 * Borrow a logged in session of the slot. The session must be closed by the
+	 * caller, which hands it back to the pool.
+	 *
+	 * @param slot:      slot to open the session on
+	 * @param userPin:   user pin, verified against the pin the slot is logged in with
+	 * @param readWrite: true for a RW session, false for a RO session
+	 * @return pooled session
+	 * @throws TokenException : if the session could not be opened or logged in
+	 */
+	public PooledSession borrow(HsmSlot slot, String userPin, boolean readWrite) throws TokenException {
+		return sessionsOf(slot).borrow(userPin, readWrite);
+	}
+
+	/**
+	 * Execute the callback on a pooled session, within the concurrency limit of
+	 * the slot. The callback runs on a platform thread of the slot, one per
+	 * session, so that callers on virtual threads never block a carrier thread in
+	 * native code. The callback must not do network I/O, a slow client would hold
+	 * the session and its thread. Sessions on which the callback failed are
+	 * closed instead of being returned to the pool, as they may be left with an
+	 * active operation.
+	 *
+	 * @throws HsmOverloadedException : if the slot is at its concurrency limit
+	 */
+	public <T> T execute(HsmSlot slot, String userPin, boolean readWrite, SessionCallback<T> callback)
+			throws TokenException {
+		return execute(slot, userPin, readWrite, true, callback);
+	}
+
+	/**
+	 * Execute a long-running callback like {@link #execute}, e.g. key pair
+	 * generation, batches or enumerating the objects of the token. It counts
+	 * against the concurrency limit of the slot, but its latency is not sampled,
+	 * so that it does not shrink the limit of the short operations.
+	 *
+	 * @throws HsmOverloadedException : if the slot is at its concurrency limit
+	 */
+	public <T> T executeLongRunning(HsmSlot slot, String userPin, boolean readWrite, SessionCallback<T> callback)
+			throws TokenException {
+		return execute(slot, userPin, readWrite, false, callback);
+	}
+
+	private <T> T execute(HsmSlot slot, String userPin, boolean readWrite, boolean sampled,
+			SessionCallback<T> callback) throws TokenException {
+		try (HsmConcurrencyLimiter.Permit permit = concurrencyLimiter.acquire(slot.slotId(), sampled)) {
+			try {
+				return sessionsOf(slot).execute(userPin, readWrite, callback);
+			} catch (SessionUnavailableException e) {
+				permit.failed();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Execute the callback on a pooled session of a slot which is logged in
+	 * already, for background work which holds no pin of its own. Its latency is
+	 * not sampled by the concurrency limit.
+	 *
+	 * @return result of the callback, null if the slot is not logged in
+	 */
+	public <T> T executeIfLoggedIn(HsmSlot slot, boolean readWrite, SessionCallback<T> callback)
+			throws TokenException {
+		SlotSessions sessions = slotSessions.get(slot.slotId());
+		if (sessions == null || sessions.loggedInPin == null)
+			return null;
+		return execute(slot, null, readWrite, false, callback);
+	}
+
+	/**
+	 * Check the pin against the pin the slot is logged in with, without borrowing
+	 * a session.
+	 *
+	 * @return true if the slot is logged in with the pin
+	 */
+	public boolean isLoggedInWith(long slotId, String userPin) {
+		SlotSessions sessions = slotSessions.get(slotId);
+		if (sessions == null)
+			return false;
+		byte[] loggedInPin = sessions.loggedInPin;
+		return loggedInPin != null && MessageDigest.isEqual(loggedInPin, digest(sessions.salt, userPin));
+	}
+
+	/**
+	 * Close all idle sessions of a slot and forget its login state, e.g. when the
+	 * token has been removed.
+	 */
+	public void invalidate(long slotId) {
+		SlotSessions sessions = slotSessions.remove(slotId);
+		if (sessions != null)
+			sessions.closeIdle();
+	}
+
+	public void closeAll() {
+		slotSessions.keySet().forEach(this::invalidate);
+	}
+
+	private SlotSessions sessionsOf(HsmSlot slot) {
+		return slotSessions.computeIfAbsent(slot.slotId(), slotId -> {
+			hsmMetrics.slotGauge("hsm.sessions.in.use", slotId, id -> {
+				SlotSessions sessions = slotSessions.get(id);
+				return sessions == null ? 0 : sessions.borrowedSessions();
+			});
+			hsmMetrics.slotGauge("hsm.sessions.open", slotId, id -> {
+				SlotSessions sessions = slotSessions.get(id);
+				return sessions == null ? 0 : sessions.openSessions.get();
+			});
+			return new SlotSessions(slot);
+		});
+	}
+
+	private byte[] digest(byte[] salt, String userPin) {
+		try {
+			MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+			sha256.update(salt);
+			return sha256.digest(userPin.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	/**
+	 * Size of the pool bounded by a session count reported by the token. Counts
+	 * of 0 (effectively infinite) and ~0 (unavailable) leave the configured size
+	 * in place.
+	 */
+	private static int boundedSize(long tokenMax, int configured) {
+		if (tokenMax <= 0)
+			return configured;
+		return (int) Math.max(1, Math.min(configured, tokenMax));
+	}
+
+	private class SlotSessions {
+
+		private final long slotId;
+
+		private final Token token;
+
+		private final int roSize;
+
+		private final int rwSize;
+
+		private final Semaphore roPermits;
+
+		private final Semaphore rwPermits;
+
+		private final BlockingDeque<Session> idleRoSessions = new LinkedBlockingDeque<>();
+
+		private final BlockingDeque<Session> idleRwSessions = new LinkedBlockingDeque<>();
+
+		private final AtomicInteger openSessions = new AtomicInteger();
+
+		private final ExecutorService roExecutor;
+
+		private final ExecutorService rwExecutor;
+
+		private final byte[] salt = new byte[16];
+
+		private final Object loginLock = new Object();
+
+		// digest of the pin the token is logged in with, null while logged out
+		private volatile byte[] loggedInPin;
+
+		SlotSessions(HsmSlot slot) {
+			this.slotId = slot.slotId();
+			this.token = slot.token();
+			secureRandom.nextBytes(salt);
+
+			TokenInfo tokenInfo = slot.tokenInfo();
+			this.rwSize = boundedSize(tokenInfo.getMaxRwSessionCount(), Math.min(maxRwSize, maxSize));
+			this.roSize = Math.max(1, boundedSize(tokenInfo.getMaxSessionCount(), maxSize) - rwSize);
+			this.roPermits = new Semaphore(roSize, true);
+			this.rwPermits = new Semaphore(rwSize, true);
+
+			// one thread per session, separate per session type so that RO work never holds the threads of RW work
+			this.roExecutor = nativeExecutor(roSize, "ro");
+			this.rwExecutor = nativeExecutor(rwSize, "rw");
+			logger.info("Session pool for slot 0x{} created with {} RO and {} RW sessions", Long.toHexString(slotId),
+					roSize, rwSize);
+		}
+
+		private ExecutorService nativeExecutor(int threads, String sessionType) {
+			AtomicInteger threadCount = new AtomicInteger();
+			return Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(() -> {
+					NATIVE_SLOT.set(this);
+					runnable.run();
+				}, "hsm-slot-" + Long.toHexString(slotId) + "-" + sessionType + "-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		PooledSession borrow(String userPin, boolean readWrite) throws TokenException {
+			acquirePermit(readWrite);
+			return take(userPin, readWrite);
+		}
+
+		/**
+		 * Run the callback on a session borrowed on a native thread of the slot, or
+		 * right away if called on one. The session permit is taken before the task is
+		 * submitted, so the task never waits for a session on a native thread and
+		 * there are never more tasks than threads.
+		 */
+		<T> T execute(String userPin, boolean readWrite, SessionCallback<T> callback) throws TokenException {
+			if (NATIVE_SLOT.get() == this)
+				return call(borrow(userPin, readWrite), callback);
+
+			acquirePermit(readWrite);
+			Future<T> future;
+			try {
+				future = (readWrite ? rwExecutor : roExecutor).submit(() -> call(take(userPin, readWrite), callback));
+			} catch (RejectedExecutionException e) {
+				(readWrite ? rwPermits : roPermits).release();
+				throw new SessionUnavailableException(
+						"Session pool of slot 0x" + Long.toHexString(slotId) + " is closed");
+			}
+			try {
+				return future.get();
+			} catch (ExecutionException e) {
+				throw rethrow(e.getCause());
+			} catch (InterruptedException e) {
+				// the task still runs and hands its session back when done
+				Thread.currentThread().interrupt();
+				throw new SessionUnavailableException(
+						"Interrupted while waiting for an operation on slot 0x" + Long.toHexString(slotId));
+			}
+		}
+
+		private <T> T call(PooledSession pooledSession, SessionCallback<T> callback) throws TokenException {
+			try (pooledSession) {
+				try {
+					return callback.doInSession(pooledSession.getSession());
+				} catch (TokenException e) {
+					pooledSession.invalidate();
+					throw e;
+				} catch (RuntimeException e) {
+					if (mayLeaveOperationActive(e))
+						pooledSession.invalidate();
+					throw e;
+				}
+			}
+		}
+
+		/**
+		 * Lookup and validation failures, e.g. an unknown label or an invalid input,
+		 * are thrown before an operation is initialized and hand the session back to
+		 * the pool. Closing it would log the token out once it was the last one.
+		 */
+		private static boolean mayLeaveOperationActive(RuntimeException e) {
+			return !(e instanceof NoSuchElementException || e instanceof IllegalArgumentException);
+		}
+
+		private void acquirePermit(boolean readWrite) {
+			Semaphore permits = readWrite ? rwPermits : roPermits;
+			try {
+				if (!permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS))
+					throw new SessionUnavailableException("No " + (readWrite ? "RW" : "RO")
+							+ " session available for slot 0x" + Long.toHexString(slotId));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SessionUnavailableException(
+						"Interrupted while waiting for a session of slot 0x" + Long.toHexString(slotId));
+			}
+		}
+
+		/**
+		 * Take an idle or new session, the permit of its type being held already. The
+		 * permit is released if no session could be taken.
+		 */
+		private PooledSession take(String userPin, boolean readWrite) throws TokenException {
+			Session session = null;
+			try {
+				session = (readWrite ? idleRwSessions : idleRoSessions).pollFirst();
+				if (session == null)
+					session = open(readWrite);
+				ensureLoggedIn(session, userPin);
+				return new PooledSession(this, session, readWrite);
+			} catch (TokenException | RuntimeException e) {
+				if (session != null)
+					close(session);
+				(readWrite ? rwPermits : roPermits).release();
+				throw e;
+			}
+		}
+
+		private Session open(boolean readWrite) throws TokenException {
+			Session session = token.openSession(Token.SessionType.SERIAL_SESSION,
+					readWrite ? Token.SessionReadWriteBehavior.RW_SESSION : Token.SessionReadWriteBehavior.RO_SESSION,
+					null, null);
+			openSessions.incrementAndGet();
+			return session;
+		}
+
+		private void ensureLoggedIn(Session session, String userPin) throws TokenException {
+			if (userPin == null) {
+				// background work, only on a token logged in by a request
+				if (loggedInPin == null)
+					throw new SessionUnavailableException("Slot 0x" + Long.toHexString(slotId) + " is not logged in");
+				return;
+			}
+			byte[] pinDigest = digest(salt, userPin);
+			byte[] current = loggedInPin;
+			if (current != null && MessageDigest.isEqual(current, pinDigest))
+				return;
+
+			synchronized (loginLock) {
+				current = loggedInPin;
+				if (current != null) {
+					if (MessageDigest.isEqual(current, pinDigest))
+						return;
+					// Login state is shared by all sessions of the token, only switch the pin
+					// while no other session is borrowed.
+					if (borrowedSessions() > 1)
+						throw new IllegalArgumentException(
+								"User pin does not match the pin slot 0x" + Long.toHexString(slotId) + " is logged in with");
+					loggedInPin = null;
+					session.logout();
+				}
+
+				hsmMetrics.recordPkcs11("login", slotId, "none", () -> {
+					try {
+						session.login(Session.UserType.USER, userPin.toCharArray());
+					} catch (PKCS11Exception e) {
+						if (e.getErrorCode() != PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN)
+							throw e;
+						// left logged in with an unknown pin, log in again to verify the pin
+						session.logout();
+						session.login(Session.UserType.USER, userPin.toCharArray());
+					}
+					return null;
+				});
+				loggedInPin = pinDigest;
+			}
+		}
+
+		private int borrowedSessions() {
+			return (roSize - roPermits.availablePermits()) + (rwSize - rwPermits.availablePermits());
+		}
+
+		void release(Session session, boolean readWrite, boolean broken) {
+			try {
+				if (!broken && isUsable(session) && slotSessions.get(slotId) == this) {
+					// LIFO keeps the most recently used sessions hot
+					(readWrite ? idleRwSessions : idleRoSessions).offerFirst(session);
+					return;
+				}
+				close(session);
+			} finally {
+				(readWrite ? rwPermits : roPermits).release();
+			}
+		}
+
+		/**
+		 * Validation on return: the session must still be in a user state, otherwise
+		 * the token has been logged out underneath us.
+		 */
+		private boolean isUsable(Session session) {
+			try {
+				SessionInfo sessionInfo = session.getSessionInfo();
+				State state = sessionInfo.getState();
+				if (State.RO_USER_FUNCTIONS.equals(state) || State.RW_USER_FUNCTIONS.equals(state))
+					return true;
+				loggedInPin = null;
+				return false;
+			} catch (TokenException e) {
+				logger.error("Session of slot 0x{} failed validation: {}", Long.toHexString(slotId),
+						e.getLocalizedMessage());
+				return false;
+			}
+		}
+
+		private void close(Session session) {
+			try {
+				session.closeSession();
+			} catch (TokenException e) {
+				logger.error("Error observed in closing the session: {}", e.getLocalizedMessage());
+			} finally {
+				// closing the last session of a token logs it out
+				if (openSessions.decrementAndGet() <= 0)
+					loggedInPin = null;
+			}
+		}
+
+		private TokenException rethrow(Throwable cause) {
+			if (cause instanceof TokenException tokenException)
+				return tokenException;
+			if (cause instanceof RuntimeException runtimeException)
+				throw runtimeException;
+			if (cause instanceof Error error)
+				throw error;
+			throw new IllegalStateException(cause);
+		}
+
+		void closeIdle() {
+			roExecutor.shutdown();
+			rwExecutor.shutdown();
+			Session session;
+			while ((session = idleRoSessions.pollFirst()) != null)
+				close(session);
+			while ((session = idleRwSessions.pollFirst()) != null)
+				close(session);
+			loggedInPin = null;
+		}
+	}
+
+	/**
+	 * Session borrowed from the pool. Closing it hands the session back to the
+	 * pool, or closes it on the token if it has been invalidated.
+	 */
+	public final class PooledSession implements AutoCloseable {
+
+		private final SlotSessions owner;
+
+		private final Session session;
+
+		private final boolean readWrite;
+
+		private boolean broken;
+
+		private boolean released;
+
+		private PooledSession(SlotSessions owner, Session session, boolean readWrite) {
+			this.owner = owner;
+			this.session = session;
+			this.readWrite = readWrite;
+		}
+
+		public Session getSession() {
+			return session;
+		}
+
+		public long getSlotId() {
+			return owner.slotId;
+		}
+
+		/**
+		 * Mark the session as unusable, it is closed instead of being returned to the
+		 * pool.
+		 */
+		public void invalidate() {
+			broken = true;
+		}
+
+		@Override
+		public void close() {
+			if (released)
+				return;
+			released = true;
+			owner.release(session, readWrite, broken);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package com.tmobile.hsmservice.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.tmobile.hsmservice.exception.SessionUnavailableException;
+import com.tmobile.hsmservice.service.HsmMetrics.TimedCall;
+
+/**
+ * Coalesces identical reads (object listings of a token, key ring and crypto
+ * key listings of Cloud KMS). While a load for a key is running, callers with
+ * the same key wait for it and get its result or its exception instead of
+ * loading again. Nothing is kept once the load completes, so a caller never
+ * sees a result older than its own request. Waiting callers give up after
+ * hsm.single-flight.wait-timeout-ms, the load itself goes on for its caller.
+ */
+@Component
+public class HsmSingleFlight {
+
+	@Value("${hsm.single-flight.enabled:true}")
+	private boolean enabled;
+
+	@Value("${hsm.single-flight.wait-timeout-ms:30000}")
+	private long waitTimeoutMs;
+
+	@Autowired
+	private HsmMetrics hsmMetrics;
+
+	private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+	// pins are part of the keys, only as salted digest
+	private final byte[] salt = new byte[16];
+
+	public HsmSingleFlight() {
+		new SecureRandom().nextBytes(salt);
+	}
+
+	/**
+	 * Run the load, or wait for the load running for the same key.
+	 *
+	 * @param key:  identifies the read with all its parameters, see {@link #digest}
+	 * @param load: the read, run on the thread of the first caller
+	 * @return result of the load, shared by all callers waiting for it
+	 * @throws E                           : exception of the load, thrown to all
+	 *                                       callers waiting for it
+	 * @throws SessionUnavailableException : the load did not complete within the
+	 *                                       wait timeout
+	 */
+	public <T, E extends Exception> T execute(String key, TimedCall<T, E> load) throws E {
+		if (!enabled)
+			return load.call();
+
+		CompletableFuture<Object> future = new CompletableFuture<>();
+		CompletableFuture<Object> running = inFlight.putIfAbsent(key, future);
+		hsmMetrics.cacheAccess("single-flight", running != null);
+		if (running != null)
+			return join(running);
+
+		try {
+			T result = load.call();
+			future.complete(result);
+			return result;
+		} catch (Throwable t) {
+			future.completeExceptionally(t);
+			throw t;
+		} finally {
+			inFlight.remove(key, future);
+		}
+	}
+
+	/**
+	 * Salted digest of a secret, e.g. the user pin, to be used in a key. Callers
+	 * only share a load when they presented the same secret.
+	 */
+	public String digest(String secret) {
+		try {
+			MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+			sha256.update(salt);
+			return HexFormat.of().formatHex(sha256.digest(secret.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T, E extends Exception> T join(CompletableFuture<Object> running) throws E {
+		try {
+			return (T) running.get(waitTimeoutMs, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			// the load threw E or an unchecked exception, rethrown as is
+			Throwable cause = e.getCause();
+			if (cause instanceof Error error)
+				throw error;
+			throw (E) cause;
+		} catch (TimeoutException e) {
+			throw new SessionUnavailableException("Shared load not completed within " + waitTimeoutMs + " ms");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SessionUnavailableException("Interrupted while waiting for a shared load");
+		}
+	}
+}
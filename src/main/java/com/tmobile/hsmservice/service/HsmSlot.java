@@ -0,0 +1,82 @@
+package com.tmobile.hsmservice.service;
+
+import java.util.Map;
+import java.util.function.Predicate;
+
+import com.tmobile.hsmservice.exception.MechanismNotSupportedException;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.MechanismInfo;
+import iaik.pkcs.pkcs11.Slot;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenInfo;
+
+/**
+ * Slot with a present token as cached by {@link HsmSlotRegistry}, including the
+ * capabilities of the token: the mechanism info of each supported mechanism,
+ * keyed by mechanism code, read once when the token is registered.
+ */
+public record HsmSlot(Slot slot, Token token, TokenInfo tokenInfo, Map<Long, MechanismInfo> capabilities) {
+
+	/**
+	 * Operations a mechanism may support, after the CKF_* flags of its info.
+	 */
+	public enum Usage {
+		ENCRYPT(MechanismInfo::isEncrypt), DECRYPT(MechanismInfo::isDecrypt), DIGEST(MechanismInfo::isDigest),
+		SIGN(MechanismInfo::isSign), VERIFY(MechanismInfo::isVerify), GENERATE(MechanismInfo::isGenerate),
+		GENERATE_KEY_PAIR(MechanismInfo::isGenerateKeyPair), WRAP(MechanismInfo::isWrap),
+		UNWRAP(MechanismInfo::isUnwrap), DERIVE(MechanismInfo::isDerive);
+
+		private final Predicate<MechanismInfo> flag;
+
+		Usage(Predicate<MechanismInfo> flag) {
+			this.flag = flag;
+		}
+
+		public boolean isSet(MechanismInfo mechanismInfo) {
+			return flag.test(mechanismInfo);
+		}
+	}
+
+	public long slotId() {
+		return slot.getSlotID();
+	}
+
+	public String tokenLabel() {
+		return tokenInfo.getLabel().trim();
+	}
+
+	public boolean supports(long mechanism, Usage usage) {
+		MechanismInfo mechanismInfo = capabilities.get(mechanism);
+		return mechanismInfo != null && usage.isSet(mechanismInfo);
+	}
+
+	/**
+	 * @throws MechanismNotSupportedException : if the token does not support the
+	 *                                        mechanism for the usage
+	 */
+	public void checkMechanism(long mechanism, Usage usage) {
+		if (!supports(mechanism, usage))
+			throw new MechanismNotSupportedException(Mechanism.get(mechanism).getName() + " is not supported for "
+					+ usage + " by token '" + tokenLabel() + "' in slot 0x" + Long.toHexString(slotId()));
+	}
+
+	/**
+	 * Check the mechanism and the key size, in the unit the token reports for the
+	 * mechanism: bits for RSA, bytes for AES.
+	 *
+	 * @throws MechanismNotSupportedException : if the token does not support the
+	 *                                        mechanism for the usage with the
+	 *                                        key size
+	 */
+	public void checkMechanism(long mechanism, Usage usage, long keySize) {
+		checkMechanism(mechanism, usage);
+		MechanismInfo mechanismInfo = capabilities.get(mechanism);
+		// tokens report 0 for mechanisms without key size constraints
+		if (mechanismInfo.getMaxKeySize() > 0
+				&& (keySize < mechanismInfo.getMinKeySize() || keySize > mechanismInfo.getMaxKeySize()))
+			throw new MechanismNotSupportedException(Mechanism.get(mechanism).getName() + " of token '"
+					+ tokenLabel() + "' in slot 0x" + Long.toHexString(slotId()) + " supports key sizes "
+					+ mechanismInfo.getMinKeySize() + " to " + mechanismInfo.getMaxKeySize() + ", not " + keySize);
+	}
+}
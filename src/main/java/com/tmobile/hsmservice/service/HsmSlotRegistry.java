@@ -0,0 +1,208 @@
+package com.tmobile.hsmservice.service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.MechanismInfo;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Slot;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.TokenInfo;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+/**
+ * Registry of the slots with a present token, keyed by slot id. The registry is
+ * built once the PKCS11 module is initialized and refreshed in the background,
+ * on slot events where the module supports them and periodically otherwise, so
+ * resolving a slot on the request path is a map lookup instead of a native call.
+ * The mechanisms of a token are read with the token, see {@link HsmSlot}.
+ */
+@Component
+public class HsmSlotRegistry {
+
+	private Logger logger = LoggerFactory.getLogger(HsmSlotRegistry.class);
+
+	@Value("${pkcs11.slot-registry.refresh-interval-ms:30000}")
+	private long refreshIntervalMs;
+
+	private volatile Map<Long, HsmSlot> slots = Map.of();
+
+	private final List<LongConsumer> removalListeners = new CopyOnWriteArrayList<>();
+
+	private Module pkcs11Module;
+
+	private ScheduledExecutorService refresher;
+
+	private Thread slotEventWatcher;
+
+	private volatile boolean running;
+
+	/**
+	 * Build the registry and start watching for token insertion and removal.
+	 *
+	 * @param pkcs11Module: initialized PKCS11 module
+	 */
+	public void initialize(Module pkcs11Module) {
+		this.pkcs11Module = pkcs11Module;
+		this.running = true;
+		refresh();
+
+		refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "hsm-slot-refresher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		refresher.scheduleWithFixedDelay(this::refresh, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+
+		slotEventWatcher = new Thread(this::watchSlotEvents, "hsm-slot-event-watcher");
+		slotEventWatcher.setDaemon(true);
+		slotEventWatcher.start();
+	}
+
+	public void shutdown() {
+		running = false;
+		if (refresher != null)
+			refresher.shutdownNow();
+		if (slotEventWatcher != null)
+			slotEventWatcher.interrupt();
+	}
+
+	/**
+	 * Resolve a slot with a present token.
+	 *
+	 * @param slotId: id of the slot
+	 * @return cached slot
+	 * @throws IllegalArgumentException : if no token is present in the slot
+	 */
+	public HsmSlot getSlot(long slotId) {
+		HsmSlot hsmSlot = slots.get(slotId);
+		if (hsmSlot == null)
+			throw new IllegalArgumentException("Invalid slotId :0x" + Long.toHexString(slotId));
+		return hsmSlot;
+	}
+
+	/**
+	 * @return cached slot, null if no token is present in the slot
+	 */
+	public HsmSlot findSlot(long slotId) {
+		return slots.get(slotId);
+	}
+
+	public Collection<HsmSlot> getSlots() {
+		return slots.values();
+	}
+
+	/**
+	 * Register a listener called with the slot id when a token is removed from a
+	 * slot or replaced by another token.
+	 */
+	public void addRemovalListener(LongConsumer listener) {
+		removalListeners.add(listener);
+	}
+
+	/**
+	 * Re-read the slot list, keeping cached entries of tokens which are still
+	 * present.
+	 */
+	public synchronized void refresh() {
+		if (!running)
+			return;
+		Map<Long, HsmSlot> current = slots;
+		Map<Long, HsmSlot> refreshed = new HashMap<>();
+		try {
+			Slot[] slotsWithTokens = pkcs11Module.getSlotList(Module.SlotRequirement.TOKEN_PRESENT);
+			for (Slot slot : slotsWithTokens) {
+				try {
+					Token token = slot.getToken();
+					TokenInfo tokenInfo = token.getTokenInfo();
+					HsmSlot cached = current.get(slot.getSlotID());
+					if (cached != null && isSameToken(cached.tokenInfo(), tokenInfo)) {
+						refreshed.put(slot.getSlotID(), cached);
+					} else {
+						Map<Long, MechanismInfo> capabilities = readCapabilities(token);
+						refreshed.put(slot.getSlotID(), new HsmSlot(slot, token, tokenInfo, capabilities));
+						logger.info("Token '{}' registered in slot 0x{} with {} mechanisms", tokenInfo.getLabel().trim(),
+								Long.toHexString(slot.getSlotID()), capabilities.size());
+					}
+				} catch (TokenException e) {
+					logger.error("Token in slot 0x{} could not be read, error: {}", Long.toHexString(slot.getSlotID()),
+							e.getLocalizedMessage());
+				}
+			}
+		} catch (TokenException e) {
+			logger.error("Slot list could not be read, error: {}", e.getLocalizedMessage());
+			return;
+		}
+
+		slots = Map.copyOf(refreshed);
+
+		current.forEach((slotId, cached) -> {
+			if (refreshed.get(slotId) != cached) {
+				logger.info("Token '{}' removed from slot 0x{}", cached.tokenLabel(), Long.toHexString(slotId));
+				removalListeners.forEach(listener -> listener.accept(slotId));
+			}
+		});
+	}
+
+	/**
+	 * Read the mechanism info of every mechanism of the token, so operations are
+	 * validated against it without native calls on the request path.
+	 */
+	private Map<Long, MechanismInfo> readCapabilities(Token token) throws TokenException {
+		Map<Long, MechanismInfo> capabilities = new TreeMap<>();
+		for (Mechanism mechanism : token.getMechanismList()) {
+			try {
+				capabilities.put(mechanism.getMechanismCode(), token.getMechanismInfo(mechanism));
+			} catch (TokenException e) {
+				logger.error("Info of mechanism {} could not be read, error: {}", mechanism.getName(),
+						e.getLocalizedMessage());
+			}
+		}
+		return Collections.unmodifiableMap(capabilities);
+	}
+
+	private boolean isSameToken(TokenInfo cached, TokenInfo tokenInfo) {
+		return Objects.equals(cached.getSerialNumber(), tokenInfo.getSerialNumber())
+				&& Objects.equals(cached.getLabel(), tokenInfo.getLabel());
+	}
+
+	private void watchSlotEvents() {
+		while (running) {
+			try {
+				Slot slot = pkcs11Module.waitForSlotEvent(Module.WaitingBehavior.BLOCK, null);
+				logger.info("Slot event observed for slot 0x{}", Long.toHexString(slot.getSlotID()));
+				refresh();
+			} catch (PKCS11Exception e) {
+				if (running && e.getErrorCode() == PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED) {
+					logger.info("PKCS11 module does not support slot events, refreshing every {} ms",
+							refreshIntervalMs);
+				} else if (running) {
+					logger.error("Waiting for slot events failed, error: {}", e.getLocalizedMessage());
+				}
+				return;
+			} catch (TokenException e) {
+				if (running)
+					logger.error("Waiting for slot events failed, error: {}", e.getLocalizedMessage());
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package com.tmobile.hsmservice.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.tmobile.hsmservice.exception.SessionUnavailableException;
+
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Routes operations across replica groups, i.e. slots whose tokens hold the
+ * same keys, such as the partitions of a HSM cluster. An operation addressed to
+ * any slot of a group runs on the healthy replica with the fewest operations in
+ * flight, ties broken by the lowest recent latency. Replicas failing repeatedly
+ * are taken out of rotation for a while. Slots which are not part of a group are
+ * used as addressed.
+ */
+@Component
+public class HsmSlotRouter {
+
+	private Logger logger = LoggerFactory.getLogger(HsmSlotRouter.class);
+
+	// weight of the latest sample in the moving average of the latency
+	private static final double LATENCY_EWMA_WEIGHT = 0.2;
+
+	@Value("${pkcs11.router.replica-groups:}")
+	private String replicaGroups;
+
+	@Value("${pkcs11.router.failure-threshold:3}")
+	private int failureThreshold;
+
+	@Value("${pkcs11.router.ejection-ms:30000}")
+	private long ejectionMs;
+
+	@Autowired
+	private HsmSlotRegistry slotRegistry;
+
+	private Map<Long, List<Long>> groups = Map.of();
+
+	private final Map<Long, ReplicaStats> replicaStats = new ConcurrentHashMap<>();
+
+	@FunctionalInterface
+	public interface SlotCallback<T> {
+
+		T doWithSlot(HsmSlot slot) throws TokenException;
+	}
+
+	@PostConstruct
+	public void postConstructRoutine() {
+		groups = parseGroups(replicaGroups);
+		if (!groups.isEmpty())
+			logger.info("Routing across replica groups {}", replicaGroups);
+		slotRegistry.addRemovalListener(replicaStats::remove);
+	}
+
+	/**
+	 * Run an operation on the replica selected for the slot, recording its latency
+	 * and outcome.
+	 *
+	 * @param slotId:   id of the slot the operation is addressed to
+	 * @param callback: operation
+	 * @return result of the operation
+	 * @throws TokenException : if the operation failed
+	 */
+	public <T> T execute(long slotId, SlotCallback<T> callback) throws TokenException {
+		HsmSlot slot = select(slotId);
+		ReplicaStats stats = statsOf(slot.slotId());
+		stats.inFlight.incrementAndGet();
+		long start = System.nanoTime();
+		try {
+			T result = callback.doWithSlot(slot);
+			stats.recordSuccess(System.nanoTime() - start);
+			return result;
+		} catch (TokenException e) {
+			if (isReplicaFault(e))
+				recordFailure(slot, stats);
+			throw e;
+		} catch (SessionUnavailableException e) {
+			recordFailure(slot, stats);
+			throw e;
+		} finally {
+			stats.inFlight.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Select the replica for an operation addressed to the slot. If every replica
+	 * is out of rotation the slot is used as addressed.
+	 *
+	 * @throws IllegalArgumentException : if no token is present in the slot
+	 */
+	public HsmSlot select(long slotId) {
+		List<Long> group = groups.get(slotId);
+		if (group == null)
+			return slotRegistry.getSlot(slotId);
+
+		long now = System.currentTimeMillis();
+		HsmSlot selected = null;
+		ReplicaStats selectedStats = null;
+		for (Long replicaId : group) {
+			HsmSlot replica = slotRegistry.findSlot(replicaId);
+			ReplicaStats stats = statsOf(replicaId);
+			if (replica == null || stats.ejectedUntil > now)
+				continue;
+			if (selected == null || stats.inFlight.get() < selectedStats.inFlight.get()
+					|| (stats.inFlight.get() == selectedStats.inFlight.get()
+							&& stats.latencyNanos < selectedStats.latencyNanos)) {
+				selected = replica;
+				selectedStats = stats;
+			}
+		}
+		return selected != null ? selected : slotRegistry.getSlot(slotId);
+	}
+
+	private void recordFailure(HsmSlot slot, ReplicaStats stats) {
+		if (groups.containsKey(slot.slotId()) && stats.recordFailure(failureThreshold, ejectionMs))
+			logger.warn("Slot 0x{} taken out of rotation for {} ms after {} consecutive failures",
+					Long.toHexString(slot.slotId()), ejectionMs, failureThreshold);
+	}
+
+	private boolean isReplicaFault(TokenException e) {
+		// errors caused by the request are the same on every replica
+		if (!(e instanceof PKCS11Exception pkcs11Exception))
+			return true;
+		long errorCode = pkcs11Exception.getErrorCode();
+		return errorCode != PKCS11Constants.CKR_PIN_INCORRECT && errorCode != PKCS11Constants.CKR_DATA_INVALID
+				&& errorCode != PKCS11Constants.CKR_DATA_LEN_RANGE
+				&& errorCode != PKCS11Constants.CKR_ENCRYPTED_DATA_INVALID
+				&& errorCode != PKCS11Constants.CKR_ENCRYPTED_DATA_LEN_RANGE;
+	}
+
+	private ReplicaStats statsOf(long slotId) {
+		return replicaStats.computeIfAbsent(slotId, id -> new ReplicaStats());
+	}
+
+	/**
+	 * @param replicaGroups: groups separated by ';' of slot ids separated by ',',
+	 *                       e.g. "1,2;0x10,0x11"
+	 */
+	private Map<Long, List<Long>> parseGroups(String replicaGroups) {
+		Map<Long, List<Long>> parsed = new HashMap<>();
+		if (replicaGroups == null || replicaGroups.isBlank())
+			return parsed;
+		for (String group : replicaGroups.split(";")) {
+			List<Long> slotIds = new ArrayList<>();
+			for (String slotId : group.split(",")) {
+				if (!slotId.isBlank())
+					slotIds.add(Long.decode(slotId.trim()));
+			}
+			List<Long> members = List.copyOf(slotIds);
+			for (Long slotId : members) {
+				if (parsed.put(slotId, members) != null)
+					throw new IllegalArgumentException("Slot " + slotId + " is part of more than one replica group");
+			}
+		}
+		return Map.copyOf(parsed);
+	}
+
+	private static class ReplicaStats {
+
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		private volatile double latencyNanos;
+
+		private volatile long ejectedUntil;
+
+		private int consecutiveFailures;
+
+		synchronized void recordSuccess(long elapsedNanos) {
+			consecutiveFailures = 0;
+			latencyNanos = latencyNanos == 0 ? elapsedNanos
+					: LATENCY_EWMA_WEIGHT * elapsedNanos + (1 - LATENCY_EWMA_WEIGHT) * latencyNanos;
+		}
+
+		/**
+		 * @return true if the replica has been taken out of rotation
+		 */
+		synchronized boolean recordFailure(int failureThreshold, long ejectionMs) {
+			if (++consecutiveFailures < failureThreshold)
+				return false;
+			consecutiveFailures = 0;
+			ejectedUntil = System.currentTimeMillis() + ejectionMs;
+			return true;
+		}
+	}
+}
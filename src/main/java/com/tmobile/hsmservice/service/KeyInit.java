@@ -0,0 +1,16 @@
+package com.tmobile.hsmservice.service;
+
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Key;
+
+/**
+ * Initialization of a token operation with a resolved key, e.g.
+ * {@code key -> session.signInit(mechanism, key)}.
+ *
+ * @param <K> type of the key
+ */
+@FunctionalInterface
+public interface KeyInit<K extends Key> {
+
+	void init(K key) throws TokenException;
+}
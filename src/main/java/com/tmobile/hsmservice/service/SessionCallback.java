@@ -0,0 +1,15 @@
+package com.tmobile.hsmservice.service;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+
+/**
+ * Work to be executed on a pooled, logged in PKCS11 session.
+ *
+ * @param <T> result of the work
+ */
+@FunctionalInterface
+public interface SessionCallback<T> {
+
+	T doInSession(Session session) throws TokenException;
+}
@@ -0,0 +1,266 @@
+package com.tmobile.hsmservice.grpc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.protobuf.ByteString;
+import com.tmobile.hsmservice.exception.HsmOverloadedException;
+import com.tmobile.hsmservice.exception.SessionUnavailableException;
+import com.tmobile.hsmservice.service.HsmGoogleService;
+import com.tmobile.hsmservice.service.HsmService;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+class HsmGrpcServiceTests {
+
+	private static final int MAX_IN_FLIGHT = 2;
+
+	private HsmService hsmService;
+
+	private HsmGrpcService hsmGrpcService;
+
+	private Server server;
+
+	private ManagedChannel channel;
+
+	// released by the tests, holds back the calls on the "slow" key
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private final AtomicInteger started = new AtomicInteger();
+
+	private final AtomicInteger finished = new AtomicInteger();
+
+	@BeforeEach
+	void setUp() throws IOException {
+		hsmService = mock(HsmService.class);
+		hsmGrpcService = new HsmGrpcService();
+		ReflectionTestUtils.setField(hsmGrpcService, "hsmService", hsmService);
+		ReflectionTestUtils.setField(hsmGrpcService, "hsmGoogleService", mock(HsmGoogleService.class));
+		ReflectionTestUtils.setField(hsmGrpcService, "maxInFlight", MAX_IN_FLIGHT);
+
+		when(hsmService.sign(anyLong(), anyString(), eq("fast"), any())).thenReturn(new byte[] { 1 });
+		when(hsmService.sign(anyLong(), anyString(), eq("slow"), any())).thenAnswer(invocation -> {
+			started.incrementAndGet();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+				return new byte[] { 2 };
+			} finally {
+				finished.incrementAndGet();
+			}
+		});
+
+		String name = InProcessServerBuilder.generateName();
+		server = InProcessServerBuilder.forName(name)
+				.addService(ServerInterceptors.intercept(hsmGrpcService, hsmGrpcService.peerInterceptor())).build()
+				.start();
+		channel = InProcessChannelBuilder.forName(name).build();
+	}
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		release.countDown();
+		channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+		server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+		hsmGrpcService.preDestroyRoutine();
+	}
+
+	private static SignRequest signRequest(long id, String label) {
+		return SignRequest.newBuilder().setId(id)
+				.setKey(KeyReference.newBuilder()
+						.setToken(TokenKey.newBuilder().setSlotId(7).setUserPin("1234").setLabel(label)))
+				.setData(ByteString.copyFromUtf8("data")).build();
+	}
+
+	private Status.Code unaryFailure(String label) {
+		StatusRuntimeException exception = assertThrows(StatusRuntimeException.class,
+				() -> HsmGrpc.newBlockingStub(channel).sign(signRequest(1, label)));
+		return exception.getStatus().getCode();
+	}
+
+	@Test
+	void unarySignReturnsSignature() {
+		SignResponse response = HsmGrpc.newBlockingStub(channel).sign(signRequest(3, "fast"));
+
+		assertEquals(3, response.getId());
+		assertEquals(ByteString.copyFrom(new byte[] { 1 }), response.getSignature());
+	}
+
+	@Test
+	void unaryFailuresAreMappedToStatus() {
+		when(hsmService.sign(anyLong(), anyString(), eq("invalid"), any()))
+				.thenThrow(new IllegalArgumentException("invalid"));
+		when(hsmService.sign(anyLong(), anyString(), eq("missing"), any()))
+				.thenThrow(new NoSuchElementException("missing"));
+		when(hsmService.sign(anyLong(), anyString(), eq("overloaded"), any()))
+				.thenThrow(new HsmOverloadedException("overloaded", 1));
+		when(hsmService.sign(anyLong(), anyString(), eq("unavailable"), any()))
+				.thenThrow(new SessionUnavailableException("unavailable"));
+
+		assertEquals(Status.Code.INVALID_ARGUMENT, unaryFailure("invalid"));
+		assertEquals(Status.Code.NOT_FOUND, unaryFailure("missing"));
+		assertEquals(Status.Code.RESOURCE_EXHAUSTED, unaryFailure("overloaded"));
+		assertEquals(Status.Code.UNAVAILABLE, unaryFailure("unavailable"));
+		// the service returned null after logging its error
+		assertEquals(Status.Code.INTERNAL, unaryFailure("failing"));
+
+		StatusRuntimeException exception = assertThrows(StatusRuntimeException.class, () -> HsmGrpc
+				.newBlockingStub(channel).sign(SignRequest.newBuilder().setId(1).build()));
+		assertEquals(Status.Code.INVALID_ARGUMENT, exception.getStatus().getCode());
+	}
+
+	/**
+	 * Client side of a sign stream collecting the responses.
+	 */
+	private static final class Responses implements StreamObserver<SignResponse> {
+
+		final BlockingQueue<SignResponse> received = new LinkedBlockingQueue<>();
+
+		final CompletableFuture<Void> done = new CompletableFuture<>();
+
+		@Override
+		public void onNext(SignResponse response) {
+			received.add(response);
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			done.completeExceptionally(t);
+		}
+
+		@Override
+		public void onCompleted() {
+			done.complete(null);
+		}
+
+		SignResponse next() throws InterruptedException {
+			return received.poll(5, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	void streamRespondsOutOfOrder() throws Exception {
+		Responses responses = new Responses();
+		StreamObserver<SignRequest> requests = HsmGrpc.newStub(channel).signStream(responses);
+		requests.onNext(signRequest(1, "slow"));
+		requests.onNext(signRequest(2, "fast"));
+
+		assertEquals(2, responses.next().getId());
+		release.countDown();
+		assertEquals(1, responses.next().getId());
+		requests.onCompleted();
+		responses.done.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void streamFailuresAreAnsweredWithoutEndingTheStream() throws Exception {
+		when(hsmService.sign(anyLong(), anyString(), eq("missing"), any()))
+				.thenThrow(new NoSuchElementException("No private key found with label missing"));
+		Responses responses = new Responses();
+		StreamObserver<SignRequest> requests = HsmGrpc.newStub(channel).signStream(responses);
+		requests.onNext(signRequest(1, "missing"));
+		requests.onNext(signRequest(2, "fast"));
+		requests.onCompleted();
+
+		SignResponse failed = responses.next();
+		SignResponse signed = responses.next();
+		assertEquals(1, failed.getId());
+		assertEquals("No private key found with label missing", failed.getError());
+		assertEquals(2, signed.getId());
+		assertTrue(signed.hasSignature());
+		responses.done.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void streamPullsAtMostMaxInFlightRequests() throws Exception {
+		Responses responses = new Responses();
+		StreamObserver<SignRequest> requests = HsmGrpc.newStub(channel).signStream(responses);
+		for (int id = 1; id <= 2 * MAX_IN_FLIGHT; id++)
+			requests.onNext(signRequest(id, "slow"));
+		requests.onCompleted();
+
+		while (started.get() < MAX_IN_FLIGHT)
+			Thread.sleep(1);
+		// the other requests stay with the client until a running one completes
+		Thread.sleep(100);
+		assertEquals(MAX_IN_FLIGHT, started.get());
+
+		release.countDown();
+		for (int received = 0; received < 2 * MAX_IN_FLIGHT; received++)
+			assertTrue(responses.next().hasSignature());
+		responses.done.get(5, TimeUnit.SECONDS);
+		assertEquals(2 * MAX_IN_FLIGHT, started.get());
+	}
+
+	@Test
+	void halfCloseWaitsForRunningRequests() throws Exception {
+		Responses responses = new Responses();
+		StreamObserver<SignRequest> requests = HsmGrpc.newStub(channel).signStream(responses);
+		requests.onNext(signRequest(1, "slow"));
+		while (started.get() == 0)
+			Thread.sleep(1);
+		requests.onCompleted();
+
+		Thread.sleep(50);
+		assertFalse(responses.done.isDone());
+		assertNull(responses.received.peek());
+
+		release.countDown();
+		assertEquals(1, responses.next().getId());
+		responses.done.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void cancelledStreamLetsRunningRequestsFinish() throws Exception {
+		Responses responses = new Responses();
+		ClientCallStreamObserver<SignRequest> requests = (ClientCallStreamObserver<SignRequest>) HsmGrpc
+				.newStub(channel).signStream(responses);
+		requests.onNext(signRequest(1, "slow"));
+		while (started.get() == 0)
+			Thread.sleep(1);
+		requests.cancel("client gone", null);
+
+		CompletableFuture<Void> done = responses.done;
+		Exception failure = assertThrows(Exception.class, () -> done.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(StatusRuntimeException.class, failure.getCause());
+		assertEquals(Status.Code.CANCELLED, ((StatusRuntimeException) failure.getCause()).getStatus().getCode());
+
+		release.countDown();
+		while (finished.get() == 0)
+			Thread.sleep(1);
+		assertNull(responses.received.peek());
+		// the service keeps serving other calls
+		assertTrue(HsmGrpc.newBlockingStub(channel).sign(signRequest(2, "fast")).hasSignature());
+	}
+}
@@ -0,0 +1,170 @@
+package com.tmobile.hsmservice.load;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import com.google.cloud.kms.v1.CryptoKey.CryptoKeyPurpose;
+import com.google.cloud.kms.v1.LocationName;
+
+import com.tmobile.hsmservice.load.LoadGenerator.Operation;
+import com.tmobile.hsmservice.load.LoadGenerator.Result;
+
+/**
+ * Drives a mix of the /hsm and /hsm/google endpoints over TLS at a fixed
+ * arrival rate and reports throughput and latency percentiles. The service
+ * runs in this JVM against the token given by pkcs11.module-path and a local
+ * KMS stand-in, so no cloud access is needed.
+ *
+ * Run with
+ * mvn test -Dtest=HsmLoadTests -Dhsm.load.enabled=true -Dpkcs11.module-path=/usr/lib/softhsm/libsofthsm2.so
+ *
+ * Tuned with the system properties hsm.load.rate (requests per second),
+ * hsm.load.duration-s, hsm.load.warmup-s, hsm.load.max-in-flight,
+ * hsm.load.mix (e.g. "sign=40,encrypt=20,list=10,keygen=2,kms-sign=15,kms-encrypt=10,kms-list=3"),
+ * hsm.load.pin, hsm.load.slot and hsm.load.kms-latency-ms. Percentile
+ * distributions are written to target/load.
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = { "hsm.google-cloud.use-plaintext=true",
+		"hsm.audit.directory=target/load/audit", "hsm.grpc.port=0" })
+@EnabledIfSystemProperty(named = "hsm.load.enabled", matches = "true")
+class HsmLoadTests {
+
+	private static final String KEY_RING = "load";
+
+	private static KmsStandInServer kmsStandIn;
+
+	@LocalServerPort
+	private int port;
+
+	@Value("${hsm.google-cloud.project-id}")
+	private String projectId;
+
+	@Value("${hsm.google-cloud.location}")
+	private String location;
+
+	private final String userPin = System.getProperty("hsm.load.pin", "1234");
+
+	private final String slotId = System.getProperty("hsm.load.slot", "0");
+
+	private HttpClient httpClient;
+
+	@DynamicPropertySource
+	static void kmsEndpoint(DynamicPropertyRegistry registry) throws Exception {
+		kmsStandIn = new KmsStandInServer(Duration.ofMillis(Long.getLong("hsm.load.kms-latency-ms", 20))).start();
+		registry.add("hsm.google-cloud.endpoint", () -> "localhost:" + kmsStandIn.getPort());
+	}
+
+	@AfterAll
+	static void stopKmsStandIn() throws InterruptedException {
+		kmsStandIn.stop();
+	}
+
+	@Test
+	void fixedRateMix() throws Exception {
+		httpClient = trustingClient();
+		kmsStandIn.seed(LocationName.of(projectId, location).toString(), KEY_RING, CryptoKeyPurpose.ENCRYPT_DECRYPT,
+				CryptoKeyPurpose.ASYMMETRIC_SIGN);
+
+		String rsaLabel = "load-rsa-" + System.currentTimeMillis();
+		assertEquals(200, post("/hsm/rsakey?" + slotParams() + "&label=" + rsaLabel, ""));
+
+		String data = "{\"data\":\"" + "x".repeat(128) + "\"}";
+		Map<String, LoadGenerator.Call> calls = Map.of(
+				"sign", sequence -> post("/hsm/sign?" + slotParams() + "&label=" + rsaLabel, data),
+				"encrypt", sequence -> post("/hsm/encrypt?" + slotParams() + "&label=" + rsaLabel, data),
+				"list", sequence -> get("/hsm/objects?" + slotParams() + "&limit=100"),
+				"keygen", sequence -> post("/hsm/rsakey?" + slotParams() + "&label=" + rsaLabel + "-" + sequence, ""),
+				"kms-sign", sequence -> post("/hsm/google/sign?keyringid=" + KEY_RING + "&keyid=asymmetric_sign", data),
+				"kms-encrypt",
+				sequence -> post("/hsm/google/encrypt?keyringid=" + KEY_RING + "&keyid=encrypt_decrypt", data),
+				"kms-list", sequence -> get("/hsm/google/cryptokey?keyringId=" + KEY_RING));
+
+		List<Operation> mix = new ArrayList<>();
+		for (String entry : System
+				.getProperty("hsm.load.mix", "sign=40,encrypt=20,list=10,keygen=2,kms-sign=15,kms-encrypt=10,kms-list=3")
+				.split(",")) {
+			String[] weight = entry.trim().split("=");
+			LoadGenerator.Call call = calls.get(weight[0]);
+			if (call == null)
+				throw new IllegalArgumentException("Unknown operation " + weight[0] + ", known: " + calls.keySet());
+			mix.add(new Operation(weight[0], Integer.parseInt(weight[1]), call));
+		}
+
+		LoadGenerator loadGenerator = new LoadGenerator(mix, Double.parseDouble(System.getProperty("hsm.load.rate", "200")),
+				Duration.ofSeconds(Long.getLong("hsm.load.warmup-s", 10)),
+				Duration.ofSeconds(Long.getLong("hsm.load.duration-s", 60)),
+				Integer.getInteger("hsm.load.max-in-flight", 1000));
+		List<Result> results = loadGenerator.run();
+		LoadGenerator.report(results, System.out, Path.of("target", "load"));
+
+		// shedding load with 429 is expected under overload, any other failure is not
+		assertEquals(0, results.stream().mapToLong(Result::failed).sum());
+	}
+
+	private String slotParams() {
+		return "userpin=" + userPin + "&slotid=" + slotId;
+	}
+
+	private int get(String path) throws Exception {
+		return httpClient.send(HttpRequest.newBuilder(uri(path)).GET().build(), HttpResponse.BodyHandlers.discarding())
+				.statusCode();
+	}
+
+	private int post(String path, String json) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(uri(path)).header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(json)).build();
+		return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+	}
+
+	private URI uri(String path) {
+		return URI.create("https://localhost:" + port + path);
+	}
+
+	// the service uses a self signed certificate
+	private static HttpClient trustingClient() throws Exception {
+		System.setProperty("jdk.internal.httpclient.disableHostnameVerification", "true");
+		SSLContext sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(null, new TrustManager[] { new X509TrustManager() {
+
+			@Override
+			public void checkClientTrusted(X509Certificate[] chain, String authType) {
+			}
+
+			@Override
+			public void checkServerTrusted(X509Certificate[] chain, String authType) {
+			}
+
+			@Override
+			public X509Certificate[] getAcceptedIssuers() {
+				return new X509Certificate[0];
+			}
+		} }, new SecureRandom());
+		return HttpClient.newBuilder().sslContext(sslContext).version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofSeconds(5)).build();
+	}
+}
@@ -0,0 +1,272 @@
+package com.tmobile.hsmservice.load;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.MGF1ParameterSpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+
+import com.google.cloud.kms.v1.AsymmetricDecryptRequest;
+import com.google.cloud.kms.v1.AsymmetricDecryptResponse;
+import com.google.cloud.kms.v1.AsymmetricSignRequest;
+import com.google.cloud.kms.v1.AsymmetricSignResponse;
+import com.google.cloud.kms.v1.CreateCryptoKeyRequest;
+import com.google.cloud.kms.v1.CreateKeyRingRequest;
+import com.google.cloud.kms.v1.CryptoKey;
+import com.google.cloud.kms.v1.CryptoKey.CryptoKeyPurpose;
+import com.google.cloud.kms.v1.DecryptRequest;
+import com.google.cloud.kms.v1.DecryptResponse;
+import com.google.cloud.kms.v1.EncryptRequest;
+import com.google.cloud.kms.v1.EncryptResponse;
+import com.google.cloud.kms.v1.GetPublicKeyRequest;
+import com.google.cloud.kms.v1.KeyManagementServiceGrpc;
+import com.google.cloud.kms.v1.KeyRing;
+import com.google.cloud.kms.v1.ListCryptoKeysRequest;
+import com.google.cloud.kms.v1.ListCryptoKeysResponse;
+import com.google.cloud.kms.v1.ListKeyRingsRequest;
+import com.google.cloud.kms.v1.ListKeyRingsResponse;
+import com.google.cloud.kms.v1.PublicKey;
+import com.google.protobuf.ByteString;
+
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * Local stand-in of Cloud KMS serving the RPCs used by HsmGoogleService over
+ * plaintext gRPC, so load tests run offline. Key material lives in memory and
+ * is created on first use of a crypto key; every call is delayed by a fixed
+ * latency to approximate the round trip to the real service.
+ */
+class KmsStandInServer extends KeyManagementServiceGrpc.KeyManagementServiceImplBase {
+
+	// DigestInfo prefix of a SHA-256 hash, KMS signs digests computed by the caller
+	private static final byte[] SHA256_DIGEST_INFO = HexFormat.of().parseHex("3031300d060960864801650304020105000420");
+
+	private static final int GCM_IV_LENGTH = 12;
+
+	private final Duration latency;
+
+	private final SecureRandom secureRandom = new SecureRandom();
+
+	private final Map<String, KeyRing> keyRings = new ConcurrentSkipListMap<>();
+
+	private final Map<String, CryptoKey> cryptoKeys = new ConcurrentSkipListMap<>();
+
+	private final Map<String, KeyMaterial> keyMaterials = new ConcurrentHashMap<>();
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+	private Server server;
+
+	private record KeyMaterial(SecretKey secretKey, KeyPair keyPair) {
+	}
+
+	KmsStandInServer(Duration latency) {
+		this.latency = latency;
+	}
+
+	KmsStandInServer start() throws IOException {
+		server = ServerBuilder.forPort(0).executor(executor).addService(this).build().start();
+		return this;
+	}
+
+	int getPort() {
+		return server.getPort();
+	}
+
+	void stop() throws InterruptedException {
+		server.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+		executor.shutdown();
+	}
+
+	/**
+	 * Create a key ring with a crypto key of each given purpose, the key ids being
+	 * the purposes in lower case.
+	 */
+	void seed(String parent, String keyRingId, CryptoKeyPurpose... purposes) {
+		String keyRingName = parent + "/keyRings/" + keyRingId;
+		keyRings.put(keyRingName, KeyRing.newBuilder().setName(keyRingName).build());
+		for (CryptoKeyPurpose purpose : purposes) {
+			String name = keyRingName + "/cryptoKeys/" + purpose.name().toLowerCase();
+			cryptoKeys.put(name, CryptoKey.newBuilder().setName(name).setPurpose(purpose).build());
+		}
+	}
+
+	@Override
+	public void listKeyRings(ListKeyRingsRequest request, StreamObserver<ListKeyRingsResponse> responseObserver) {
+		respond(responseObserver, () -> {
+			String prefix = request.getParent() + "/keyRings/";
+			ListKeyRingsResponse.Builder response = ListKeyRingsResponse.newBuilder();
+			keyRings.forEach((name, keyRing) -> {
+				if (name.startsWith(prefix))
+					response.addKeyRings(keyRing);
+			});
+			return response.setTotalSize(response.getKeyRingsCount()).build();
+		});
+	}
+
+	@Override
+	public void createKeyRing(CreateKeyRingRequest request, StreamObserver<KeyRing> responseObserver) {
+		respond(responseObserver, () -> {
+			String name = request.getParent() + "/keyRings/" + request.getKeyRingId();
+			KeyRing keyRing = request.getKeyRing().toBuilder().setName(name).build();
+			if (keyRings.putIfAbsent(name, keyRing) != null)
+				throw Status.ALREADY_EXISTS.withDescription(name).asRuntimeException();
+			return keyRing;
+		});
+	}
+
+	@Override
+	public void listCryptoKeys(ListCryptoKeysRequest request, StreamObserver<ListCryptoKeysResponse> responseObserver) {
+		respond(responseObserver, () -> {
+			String prefix = request.getParent() + "/cryptoKeys/";
+			ListCryptoKeysResponse.Builder response = ListCryptoKeysResponse.newBuilder();
+			cryptoKeys.forEach((name, cryptoKey) -> {
+				if (name.startsWith(prefix))
+					response.addCryptoKeys(cryptoKey);
+			});
+			return response.setTotalSize(response.getCryptoKeysCount()).build();
+		});
+	}
+
+	@Override
+	public void createCryptoKey(CreateCryptoKeyRequest request, StreamObserver<CryptoKey> responseObserver) {
+		respond(responseObserver, () -> {
+			String name = request.getParent() + "/cryptoKeys/" + request.getCryptoKeyId();
+			CryptoKey cryptoKey = request.getCryptoKey().toBuilder().setName(name).build();
+			if (cryptoKeys.putIfAbsent(name, cryptoKey) != null)
+				throw Status.ALREADY_EXISTS.withDescription(name).asRuntimeException();
+			return cryptoKey;
+		});
+	}
+
+	@Override
+	public void encrypt(EncryptRequest request, StreamObserver<EncryptResponse> responseObserver) {
+		respond(responseObserver, () -> {
+			byte[] iv = new byte[GCM_IV_LENGTH];
+			secureRandom.nextBytes(iv);
+			Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+			cipher.init(Cipher.ENCRYPT_MODE, keyMaterial(request.getName()).secretKey(), new GCMParameterSpec(128, iv));
+			byte[] ciphertext = cipher.doFinal(request.getPlaintext().toByteArray());
+			return EncryptResponse.newBuilder().setName(request.getName())
+					.setCiphertext(ByteString.copyFrom(iv).concat(ByteString.copyFrom(ciphertext))).build();
+		});
+	}
+
+	@Override
+	public void decrypt(DecryptRequest request, StreamObserver<DecryptResponse> responseObserver) {
+		respond(responseObserver, () -> {
+			byte[] ciphertext = request.getCiphertext().toByteArray();
+			Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+			cipher.init(Cipher.DECRYPT_MODE, keyMaterial(request.getName()).secretKey(),
+					new GCMParameterSpec(128, ciphertext, 0, GCM_IV_LENGTH));
+			byte[] plaintext = cipher.doFinal(ciphertext, GCM_IV_LENGTH, ciphertext.length - GCM_IV_LENGTH);
+			return DecryptResponse.newBuilder().setPlaintext(ByteString.copyFrom(plaintext)).build();
+		});
+	}
+
+	@Override
+	public void getPublicKey(GetPublicKeyRequest request, StreamObserver<PublicKey> responseObserver) {
+		respond(responseObserver, () -> {
+			byte[] encoded = keyMaterial(cryptoKeyName(request.getName())).keyPair().getPublic().getEncoded();
+			String pem = "-----BEGIN PUBLIC KEY-----\n" + Base64.getMimeEncoder(64, "\n".getBytes()).encodeToString(encoded)
+					+ "\n-----END PUBLIC KEY-----\n";
+			return PublicKey.newBuilder().setName(request.getName()).setPem(pem).build();
+		});
+	}
+
+	@Override
+	public void asymmetricSign(AsymmetricSignRequest request, StreamObserver<AsymmetricSignResponse> responseObserver) {
+		respond(responseObserver, () -> {
+			byte[] hash = request.getDigest().getSha256().toByteArray();
+			byte[] digestInfo = new byte[SHA256_DIGEST_INFO.length + hash.length];
+			System.arraycopy(SHA256_DIGEST_INFO, 0, digestInfo, 0, SHA256_DIGEST_INFO.length);
+			System.arraycopy(hash, 0, digestInfo, SHA256_DIGEST_INFO.length, hash.length);
+
+			Signature signature = Signature.getInstance("NONEwithRSA");
+			signature.initSign(keyMaterial(cryptoKeyName(request.getName())).keyPair().getPrivate());
+			signature.update(digestInfo);
+			return AsymmetricSignResponse.newBuilder().setName(request.getName())
+					.setSignature(ByteString.copyFrom(signature.sign())).build();
+		});
+	}
+
+	@Override
+	public void asymmetricDecrypt(AsymmetricDecryptRequest request,
+			StreamObserver<AsymmetricDecryptResponse> responseObserver) {
+		respond(responseObserver, () -> {
+			Cipher cipher = Cipher.getInstance("RSA/ECB/OAEPWithSHA-256AndMGF1Padding");
+			cipher.init(Cipher.DECRYPT_MODE, keyMaterial(cryptoKeyName(request.getName())).keyPair().getPrivate(),
+					new OAEPParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT));
+			byte[] plaintext = cipher.doFinal(request.getCiphertext().toByteArray());
+			return AsymmetricDecryptResponse.newBuilder().setPlaintext(ByteString.copyFrom(plaintext)).build();
+		});
+	}
+
+	@FunctionalInterface
+	private interface Rpc<T> {
+
+		T call() throws GeneralSecurityException;
+	}
+
+	private <T> void respond(StreamObserver<T> responseObserver, Rpc<T> rpc) {
+		try {
+			if (!latency.isZero())
+				Thread.sleep(latency);
+			responseObserver.onNext(rpc.call());
+			responseObserver.onCompleted();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			responseObserver.onError(Status.CANCELLED.asRuntimeException());
+		} catch (GeneralSecurityException e) {
+			responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+		} catch (RuntimeException e) {
+			responseObserver.onError(e);
+		}
+	}
+
+	private KeyMaterial keyMaterial(String cryptoKeyName) {
+		return keyMaterials.computeIfAbsent(cryptoKeyName, generate());
+	}
+
+	private Function<String, KeyMaterial> generate() {
+		return name -> {
+			try {
+				KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+				keyGenerator.init(256);
+				KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+				keyPairGenerator.initialize(2048);
+				return new KeyMaterial(keyGenerator.generateKey(), keyPairGenerator.generateKeyPair());
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		};
+	}
+
+	// projects/p/locations/l/keyRings/r/cryptoKeys/k/cryptoKeyVersions/1 -> .../cryptoKeys/k
+	private String cryptoKeyName(String cryptoKeyVersionName) {
+		int index = cryptoKeyVersionName.indexOf("/cryptoKeyVersions/");
+		return index < 0 ? cryptoKeyVersionName : cryptoKeyVersionName.substring(0, index);
+	}
+}
@@ -0,0 +1,191 @@
+package com.tmobile.hsmservice.load;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Open model load generator: requests are started at a fixed arrival rate,
+ * independent of how fast earlier requests complete, and operations are picked
+ * from a weighted mix.
+ *
+ * Latency is measured from the time a request was scheduled to start, not from
+ * the time it was actually sent. When the generator or the connection pool
+ * falls behind, the wait is charged to the request instead of silently
+ * lowering the offered load (coordinated omission). The latency measured from
+ * the actual send is kept as well to show the difference.
+ */
+class LoadGenerator {
+
+	/**
+	 * Call of an endpoint, returning the HTTP status.
+	 */
+	@FunctionalInterface
+	interface Call {
+
+		int execute(long sequence) throws Exception;
+	}
+
+	record Operation(String name, int weight, Call call) {
+	}
+
+	record Result(String operation, long count, long rejected, long failed, double throughput,
+			Histogram latency, Histogram uncorrectedLatency) {
+	}
+
+	private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+	private final List<Operation> mix;
+
+	private final int totalWeight;
+
+	private final double ratePerSecond;
+
+	private final Duration warmup;
+
+	private final Duration duration;
+
+	private final Semaphore inFlight;
+
+	private final Map<String, Stats> stats = new LinkedHashMap<>();
+
+	private static final class Stats {
+
+		final Histogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, 3);
+
+		final Histogram uncorrectedLatency = new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, 3);
+
+		final LongAdder rejected = new LongAdder();
+
+		final LongAdder failed = new LongAdder();
+	}
+
+	/**
+	 * @param mix:           operations with their weight in the mix
+	 * @param ratePerSecond: requests started per second over all operations
+	 * @param warmup:        time at the start of the run not recorded
+	 * @param duration:      recorded time after the warmup
+	 * @param maxInFlight:   bound of the outstanding requests, protects the client
+	 *                       from exhausting memory when the service stalls
+	 */
+	LoadGenerator(List<Operation> mix, double ratePerSecond, Duration warmup, Duration duration, int maxInFlight) {
+		this.mix = mix;
+		this.totalWeight = mix.stream().mapToInt(Operation::weight).sum();
+		this.ratePerSecond = ratePerSecond;
+		this.warmup = warmup;
+		this.duration = duration;
+		this.inFlight = new Semaphore(maxInFlight);
+		for (Operation operation : mix)
+			stats.put(operation.name(), new Stats());
+	}
+
+	List<Result> run() throws InterruptedException {
+		long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+		long start = System.nanoTime();
+		long recordFrom = start + warmup.toNanos();
+		long end = recordFrom + duration.toNanos();
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (long sequence = 0;; sequence++) {
+				long intendedStart = start + sequence * intervalNanos;
+				if (intendedStart - end >= 0)
+					break;
+				long delay;
+				while ((delay = intendedStart - System.nanoTime()) > 0)
+					LockSupport.parkNanos(delay);
+
+				Operation operation = pick();
+				boolean recorded = intendedStart - recordFrom >= 0;
+				inFlight.acquire();
+				long id = sequence;
+				executor.execute(() -> {
+					try {
+						execute(operation, id, intendedStart, recorded);
+					} finally {
+						inFlight.release();
+					}
+				});
+			}
+		}
+
+		double seconds = duration.toNanos() / 1e9;
+		List<Result> results = new ArrayList<>();
+		stats.forEach((name, s) -> results.add(new Result(name, s.latency.getTotalCount(), s.rejected.sum(),
+				s.failed.sum(), s.latency.getTotalCount() / seconds, s.latency, s.uncorrectedLatency)));
+		return results;
+	}
+
+	private void execute(Operation operation, long sequence, long intendedStart, boolean recorded) {
+		long sent = System.nanoTime();
+		int status;
+		try {
+			status = operation.call().execute(sequence);
+		} catch (Exception e) {
+			status = -1;
+		}
+		long done = System.nanoTime();
+		if (!recorded)
+			return;
+
+		Stats s = stats.get(operation.name());
+		s.latency.recordValue(Math.min(done - intendedStart, HIGHEST_TRACKABLE_NANOS));
+		s.uncorrectedLatency.recordValue(Math.min(done - sent, HIGHEST_TRACKABLE_NANOS));
+		if (status == 429)
+			s.rejected.increment();
+		else if (status < 200 || status >= 300)
+			s.failed.increment();
+	}
+
+	private Operation pick() {
+		int value = ThreadLocalRandom.current().nextInt(totalWeight);
+		for (Operation operation : mix) {
+			value -= operation.weight();
+			if (value < 0)
+				return operation;
+		}
+		return mix.get(mix.size() - 1);
+	}
+
+	/**
+	 * Print throughput and latency percentiles in milliseconds per operation, and
+	 * write the full percentile distribution of each operation to the directory.
+	 */
+	static void report(List<Result> results, PrintStream out, Path directory) throws IOException {
+		out.printf("%-12s %8s %8s %8s %10s %9s %9s %9s %9s %9s %12s%n", "operation", "count", "429", "failed",
+				"req/s", "p50", "p90", "p99", "p99.9", "max", "p99 (uncorr)");
+		Files.createDirectories(directory);
+		for (Result result : results) {
+			Histogram latency = result.latency();
+			out.printf("%-12s %8d %8d %8d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f %12.2f%n", result.operation(),
+					result.count(), result.rejected(), result.failed(), result.throughput(),
+					millis(latency.getValueAtPercentile(50)), millis(latency.getValueAtPercentile(90)),
+					millis(latency.getValueAtPercentile(99)), millis(latency.getValueAtPercentile(99.9)),
+					millis(latency.getMaxValue()), millis(result.uncorrectedLatency().getValueAtPercentile(99)));
+			try (PrintStream file = new PrintStream(
+					new FileOutputStream(directory.resolve(result.operation() + ".hgrm").toFile()))) {
+				latency.outputPercentileDistribution(file, 1e6);
+			}
+		}
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+}
@@ -0,0 +1,67 @@
+package com.tmobile.hsmservice.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class AdaptiveLimitTests {
+
+	@Test
+	void rejectsAboveLimitWhenQueueIsFull() throws InterruptedException {
+		AdaptiveLimit limit = new AdaptiveLimit(2, 1, 10, 0);
+
+		assertEquals(1, limit.acquire(0));
+		assertEquals(2, limit.acquire(0));
+		assertEquals(0, limit.acquire(1_000_000));
+	}
+
+	@Test
+	void shrinksWhenLatencyRises() throws InterruptedException {
+		AdaptiveLimit limit = new AdaptiveLimit(10, 1, 20, 0);
+		for (int i = 0; i < 5; i++) {
+			limit.acquire(0);
+			limit.release(1_000_000, 10, false);
+		}
+		int settled = limit.getLimit();
+
+		for (int i = 0; i < 20; i++) {
+			limit.acquire(0);
+			limit.release(20_000_000, 10, false);
+		}
+		assertTrue(limit.getLimit() < settled);
+	}
+
+	@Test
+	void shrinksOnFailureButNotBelowMinimum() throws InterruptedException {
+		AdaptiveLimit limit = new AdaptiveLimit(4, 2, 10, 0);
+		for (int i = 0; i < 50; i++) {
+			limit.acquire(0);
+			limit.release(1_000_000, 1, true);
+		}
+		assertEquals(2, limit.getLimit());
+	}
+
+	@Test
+	void doesNotGrowWhenLoadStaysBelowLimit() throws InterruptedException {
+		AdaptiveLimit limit = new AdaptiveLimit(10, 1, 100, 0);
+		for (int i = 0; i < 50; i++) {
+			limit.acquire(0);
+			limit.release(1_000_000, 1, false);
+		}
+		assertEquals(10, limit.getLimit());
+	}
+
+	@Test
+	void unsampledReleaseKeepsLimit() throws InterruptedException {
+		AdaptiveLimit limit = new AdaptiveLimit(4, 1, 10, 0);
+		for (int i = 0; i < 4; i++)
+			limit.acquire(0);
+		assertEquals(0, limit.acquire(0));
+
+		limit.release();
+		assertEquals(4, limit.getLimit());
+		assertEquals(3, limit.getInFlight());
+		assertEquals(4, limit.acquire(0));
+	}
+}
@@ -0,0 +1,152 @@
+package com.tmobile.hsmservice.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class HsmAuditLogTests {
+
+	@TempDir
+	Path directory;
+
+	private HsmAuditLog auditLog;
+
+	private SimpleMeterRegistry meterRegistry;
+
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		HsmMetrics hsmMetrics = new HsmMetrics();
+		ReflectionTestUtils.setField(hsmMetrics, "meterRegistry", meterRegistry);
+		auditLog = new HsmAuditLog();
+		ReflectionTestUtils.setField(auditLog, "hsmMetrics", hsmMetrics);
+		ReflectionTestUtils.setField(auditLog, "enabled", true);
+		ReflectionTestUtils.setField(auditLog, "directory", directory);
+		ReflectionTestUtils.setField(auditLog, "bufferSize", 4);
+		ReflectionTestUtils.setField(auditLog, "fileSize", 1 << 16);
+		ReflectionTestUtils.setField(auditLog, "maxFiles", 10);
+		ReflectionTestUtils.setField(auditLog, "flushIntervalMs", 1000L);
+	}
+
+	// the ring is opened without its writer, records are written by drain()
+	private void open() {
+		ReflectionTestUtils.invokeMethod(auditLog, "open");
+	}
+
+	private int drain() {
+		return ReflectionTestUtils.invokeMethod(auditLog, "drainPublished", new StringBuilder());
+	}
+
+	private void record(String operation) {
+		auditLog.recordPkcs11(operation, 0x7, "key", 1, System.nanoTime(), HsmAuditLog.SUCCESS);
+	}
+
+	private List<String> operations() throws IOException {
+		ReflectionTestUtils.setField(auditLog, "running", false);
+		ReflectionTestUtils.invokeMethod(auditLog, "close");
+		List<String> operations = new ArrayList<>();
+		for (Path file : auditFiles())
+			for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+				int start = line.indexOf("\"operation\":\"") + "\"operation\":\"".length();
+				operations.add(line.substring(start, line.indexOf('"', start)));
+			}
+		return operations;
+	}
+
+	private List<Path> auditFiles() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.sorted().toList();
+		}
+	}
+
+	@Test
+	void recordsAreWrittenInPublishOrder() throws IOException {
+		open();
+		record("sign");
+		record("decrypt");
+		record("encrypt");
+
+		assertEquals(3, drain());
+		assertEquals(List.of("sign", "decrypt", "encrypt"), operations());
+	}
+
+	@Test
+	void ringWrapsAroundOnceDrained() throws IOException {
+		open();
+		List<String> expected = new ArrayList<>();
+		for (int round = 0; round < 5; round++) {
+			for (int index = 0; index < 3; index++) {
+				record("op-" + round + "-" + index);
+				expected.add("op-" + round + "-" + index);
+			}
+			assertEquals(3, drain());
+		}
+
+		assertEquals(expected, operations());
+		assertEquals(0, meterRegistry.get("hsm.audit.dropped").gauge().value());
+	}
+
+	@Test
+	void recordsAreDroppedAndCountedWhenFull() throws IOException {
+		open();
+		for (int index = 0; index < 6; index++)
+			record("op-" + index);
+
+		assertEquals(2, meterRegistry.get("hsm.audit.dropped").gauge().value());
+		assertEquals(4, meterRegistry.get("hsm.audit.pending").gauge().value());
+		assertEquals(4, drain());
+		// room again once drained
+		record("op-6");
+		assertEquals(1, drain());
+		assertEquals(List.of("op-0", "op-1", "op-2", "op-3", "op-6"), operations());
+	}
+
+	@Test
+	void rotationKeepsTheNewestFiles() throws IOException {
+		ReflectionTestUtils.setField(auditLog, "fileSize", 256);
+		ReflectionTestUtils.setField(auditLog, "maxFiles", 2);
+		open();
+		for (int index = 0; index < 12; index++) {
+			record("op-" + index);
+			drain();
+		}
+
+		// one record fits in a file, the files of the last two are kept
+		List<String> operations = operations();
+		assertEquals(2, auditFiles().size());
+		assertEquals(2, operations.size());
+		assertTrue(operations.containsAll(List.of("op-10", "op-11")));
+	}
+
+	@Test
+	void retentionOrdersFilesByTimestampThenAttempt() throws IOException {
+		ReflectionTestUtils.setField(auditLog, "maxFiles", 3);
+		for (String name : List.of("audit-20200101-000000-000.log", "audit-20200101-000000-000-1.log",
+				"audit-20200101-000000-000-2.log", "audit-20200101-000000-000-10.log"))
+			Files.createFile(directory.resolve(name));
+		open();
+
+		List<String> names = auditFiles().stream().map(path -> path.getFileName().toString()).toList();
+		assertEquals(3, names.size());
+		assertTrue(names.contains("audit-20200101-000000-000-2.log"));
+		assertTrue(names.contains("audit-20200101-000000-000-10.log"));
+		assertFalse(names.contains("audit-20200101-000000-000.log"));
+		assertFalse(names.contains("audit-20200101-000000-000-1.log"));
+		ReflectionTestUtils.invokeMethod(auditLog, "close");
+	}
+}
@@ -0,0 +1,52 @@
+package com.tmobile.hsmservice.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class HsmMetricsTests {
+
+	private HsmMetrics hsmMetrics;
+
+	private SimpleMeterRegistry meterRegistry;
+
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		hsmMetrics = new HsmMetrics();
+		ReflectionTestUtils.setField(hsmMetrics, "meterRegistry", meterRegistry);
+	}
+
+	@Test
+	void operationsAreTimedPerTagTuple() {
+		hsmMetrics.recordPkcs11("sign", 0x7, "CKM_RSA_PKCS", () -> null);
+		hsmMetrics.recordPkcs11("sign", 0x7, "CKM_RSA_PKCS", () -> null);
+		assertThrows(IllegalStateException.class, () -> hsmMetrics.recordPkcs11("sign", 0x7, "CKM_RSA_PKCS", () -> {
+			throw new IllegalStateException("failed");
+		}));
+		hsmMetrics.recordKms("asymmetricSign", () -> null);
+
+		assertEquals(2, meterRegistry.get("hsm.operation").tag("slot", "0x7").tag("outcome", "success").timer()
+				.count());
+		assertEquals(1, meterRegistry.get("hsm.operation").tag("slot", "0x7").tag("outcome", "error").timer()
+				.count());
+		assertEquals(1, meterRegistry.get("hsm.operation").tag("backend", "kms").tag("slot", "none").timer()
+				.count());
+	}
+
+	@Test
+	void cacheAccessesAreCounted() {
+		hsmMetrics.cacheAccess("public-key", true);
+		hsmMetrics.cacheAccess("public-key", true);
+		hsmMetrics.cacheAccess("public-key", false);
+
+		assertEquals(2, meterRegistry.counter("hsm.cache.requests", "cache", "public-key", "result", "hit").count());
+		assertEquals(1, meterRegistry.counter("hsm.cache.requests", "cache", "public-key", "result", "miss").count());
+		assertEquals(2.0 / 3, meterRegistry.get("hsm.cache.hit.ratio").gauge().value(), 1e-9);
+	}
+}
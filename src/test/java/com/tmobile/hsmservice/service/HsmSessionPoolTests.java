@@ -0,0 +1,306 @@
+package com.tmobile.hsmservice.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.tmobile.hsmservice.exception.SessionUnavailableException;
+import com.tmobile.hsmservice.service.HsmSessionPool.PooledSession;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionInfo;
+import iaik.pkcs.pkcs11.Slot;
+import iaik.pkcs.pkcs11.State;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.TokenInfo;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class HsmSessionPoolTests {
+
+	private static final long SLOT_ID = 7;
+
+	private HsmSessionPool sessionPool;
+
+	private HsmSlot slot;
+
+	private Token token;
+
+	// sessions opened on the token, in order
+	private final List<Session> sessions = new ArrayList<>();
+
+	private final AtomicInteger logins = new AtomicInteger();
+
+	// state reported by the sessions when validated on return
+	private volatile State state = State.RO_USER_FUNCTIONS;
+
+	@BeforeEach
+	void setUp() throws TokenException {
+		HsmMetrics hsmMetrics = new HsmMetrics();
+		ReflectionTestUtils.setField(hsmMetrics, "meterRegistry", new SimpleMeterRegistry());
+		sessionPool = new HsmSessionPool();
+		ReflectionTestUtils.setField(sessionPool, "hsmMetrics", hsmMetrics);
+		HsmConcurrencyLimiter concurrencyLimiter = new HsmConcurrencyLimiter();
+		ReflectionTestUtils.setField(concurrencyLimiter, "hsmMetrics", hsmMetrics);
+		ReflectionTestUtils.setField(concurrencyLimiter, "initialLimit", 16);
+		ReflectionTestUtils.setField(concurrencyLimiter, "minLimit", 1);
+		ReflectionTestUtils.setField(concurrencyLimiter, "maxLimit", 64);
+		ReflectionTestUtils.setField(concurrencyLimiter, "queueSize", 16);
+		ReflectionTestUtils.setField(concurrencyLimiter, "queueTimeoutMs", 50L);
+		ReflectionTestUtils.setField(sessionPool, "concurrencyLimiter", concurrencyLimiter);
+		ReflectionTestUtils.setField(sessionPool, "maxSize", 4);
+		ReflectionTestUtils.setField(sessionPool, "maxRwSize", 1);
+		ReflectionTestUtils.setField(sessionPool, "borrowTimeoutMs", 100L);
+
+		Slot pkcs11Slot = mock(Slot.class);
+		when(pkcs11Slot.getSlotID()).thenReturn(SLOT_ID);
+		token = mock(Token.class);
+		when(token.openSession(anyBoolean(), anyBoolean(), any(), any())).thenAnswer(invocation -> newSession());
+		// no session counts reported, the configured sizes apply
+		slot = new HsmSlot(pkcs11Slot, token, mock(TokenInfo.class), Map.of());
+	}
+
+	private synchronized Session newSession() throws TokenException {
+		Session session = mock(Session.class);
+		doAnswer(invocation -> {
+			logins.incrementAndGet();
+			Thread.sleep(20);
+			return null;
+		}).when(session).login(anyBoolean(), any(char[].class));
+		SessionInfo sessionInfo = mock(SessionInfo.class);
+		when(sessionInfo.getState()).thenAnswer(invocation -> state);
+		when(session.getSessionInfo()).thenReturn(sessionInfo);
+		sessions.add(session);
+		return session;
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Test
+	void matchingPinReusesLogin() throws TokenException {
+		sessionPool.borrow(slot, "1234", false).close();
+		sessionPool.borrow(slot, "1234", false).close();
+
+		assertEquals(1, sessions.size());
+		assertEquals(1, logins.get());
+		assertTrue(sessionPool.isLoggedInWith(SLOT_ID, "1234"));
+		assertFalse(sessionPool.isLoggedInWith(SLOT_ID, "4321"));
+	}
+
+	@Test
+	void mismatchedPinIsRejectedWhileAnotherSessionIsBorrowed() throws TokenException {
+		try (PooledSession borrowed = sessionPool.borrow(slot, "1234", false)) {
+			assertThrows(IllegalArgumentException.class, () -> sessionPool.borrow(slot, "4321", false));
+			verify(sessions.get(0), never()).logout();
+		}
+		assertEquals(1, logins.get());
+		assertTrue(sessionPool.isLoggedInWith(SLOT_ID, "1234"));
+		// the rejected borrow handed its permit back
+		sessionPool.borrow(slot, "1234", false).close();
+	}
+
+	@Test
+	void mismatchedPinSwitchesLoginWhenNoOtherSessionIsBorrowed() throws TokenException {
+		sessionPool.borrow(slot, "1234", false).close();
+		sessionPool.borrow(slot, "4321", false).close();
+
+		verify(sessions.get(0)).logout();
+		assertEquals(2, logins.get());
+		assertTrue(sessionPool.isLoggedInWith(SLOT_ID, "4321"));
+		assertFalse(sessionPool.isLoggedInWith(SLOT_ID, "1234"));
+	}
+
+	@Test
+	void concurrentFirstBorrowsLogInOnce() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		CountDownLatch ready = new CountDownLatch(1);
+		List<Future<PooledSession>> borrows = new ArrayList<>();
+		for (int i = 0; i < 3; i++)
+			borrows.add(executor.submit(() -> {
+				ready.await();
+				return sessionPool.borrow(slot, "1234", false);
+			}));
+		ready.countDown();
+		// all three are held at once, so none of them reuses an idle session
+		List<PooledSession> borrowed = new ArrayList<>();
+		for (Future<PooledSession> borrow : borrows)
+			borrowed.add(borrow.get(5, TimeUnit.SECONDS));
+		borrowed.forEach(PooledSession::close);
+		executor.shutdown();
+
+		assertEquals(3, sessions.size());
+		assertEquals(1, logins.get());
+	}
+
+	@Test
+	void alreadyLoggedInTokenIsLoggedInAgainToVerifyThePin() throws TokenException {
+		Session session = newSession();
+		sessions.clear();
+		when(token.openSession(anyBoolean(), anyBoolean(), any(), any())).thenReturn(session);
+		doThrow(new PKCS11Exception(PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN)).doAnswer(invocation -> null)
+				.when(session).login(anyBoolean(), any(char[].class));
+
+		sessionPool.borrow(slot, "1234", false).close();
+
+		verify(session).logout();
+		verify(session, times(2)).login(anyBoolean(), any(char[].class));
+		assertTrue(sessionPool.isLoggedInWith(SLOT_ID, "1234"));
+	}
+
+	@Test
+	void closingTheLastSessionLogsOut() throws TokenException {
+		try (PooledSession borrowed = sessionPool.borrow(slot, "1234", false)) {
+			borrowed.invalidate();
+		}
+
+		verify(sessions.get(0)).closeSession();
+		assertFalse(sessionPool.isLoggedInWith(SLOT_ID, "1234"));
+		sessionPool.borrow(slot, "1234", false).close();
+		assertEquals(2, logins.get());
+	}
+
+	@Test
+	void lookupFailureKeepsTheSession() throws TokenException {
+		assertThrows(NoSuchElementException.class, () -> sessionPool.execute(slot, "1234", false, session -> {
+			throw new NoSuchElementException("No private key found with label missing");
+		}));
+		assertThrows(IllegalArgumentException.class, () -> sessionPool.execute(slot, "1234", false, session -> {
+			throw new IllegalArgumentException("Invalid cursor");
+		}));
+
+		verify(sessions.get(0), never()).closeSession();
+		assertTrue(sessionPool.isLoggedInWith(SLOT_ID, "1234"));
+		sessionPool.execute(slot, "1234", false, session -> session);
+		assertEquals(1, sessions.size());
+		assertEquals(1, logins.get());
+	}
+
+	@Test
+	void tokenFailureClosesTheSession() throws TokenException {
+		assertThrows(PKCS11Exception.class, () -> sessionPool.execute(slot, "1234", false, session -> {
+			throw new PKCS11Exception(PKCS11Constants.CKR_DEVICE_ERROR);
+		}));
+
+		verify(sessions.get(0)).closeSession();
+		assertFalse(sessionPool.isLoggedInWith(SLOT_ID, "1234"));
+	}
+
+	@Test
+	void sessionLoggedOutUnderneathIsClosedOnReturn() throws TokenException {
+		PooledSession borrowed = sessionPool.borrow(slot, "1234", false);
+		state = State.RO_PUBLIC_SESSION;
+		borrowed.close();
+
+		verify(sessions.get(0)).closeSession();
+		assertFalse(sessionPool.isLoggedInWith(SLOT_ID, "1234"));
+
+		state = State.RO_USER_FUNCTIONS;
+		sessionPool.borrow(slot, "1234", false).close();
+		assertEquals(2, sessions.size());
+		assertEquals(2, logins.get());
+	}
+
+	@Test
+	void backgroundBorrowNeedsLoggedInSlot() throws TokenException {
+		assertThrows(SessionUnavailableException.class, () -> sessionPool.borrow(slot, null, false));
+
+		sessionPool.borrow(slot, "1234", false).close();
+		sessionPool.borrow(slot, null, false).close();
+		assertEquals(1, logins.get());
+	}
+
+	@Test
+	void invalidateClosesIdleSessionsAndForgetsLogin() throws TokenException {
+		sessionPool.borrow(slot, "1234", false).close();
+		sessionPool.invalidate(SLOT_ID);
+
+		verify(sessions.get(0)).closeSession();
+		assertFalse(sessionPool.isLoggedInWith(SLOT_ID, "1234"));
+
+		sessionPool.borrow(slot, "1234", false).close();
+		assertEquals(2, sessions.size());
+		assertEquals(2, logins.get());
+	}
+
+	@Test
+	void sessionsBorrowedBeforeInvalidateAreClosedOnReturn() throws TokenException {
+		PooledSession borrowed = sessionPool.borrow(slot, "1234", false);
+		sessionPool.invalidate(SLOT_ID);
+		borrowed.close();
+
+		verify(sessions.get(0)).closeSession();
+	}
+
+	@Test
+	void borrowTimesOutWhenAllSessionsAreBorrowed() throws TokenException {
+		try (PooledSession borrowed = sessionPool.borrow(slot, "1234", true)) {
+			assertThrows(SessionUnavailableException.class, () -> sessionPool.borrow(slot, "1234", true));
+		}
+	}
+
+	@Test
+	void readOnlyBacklogDoesNotStarveReadWriteWork() throws Exception {
+		ReflectionTestUtils.setField(sessionPool, "borrowTimeoutMs", 5000L);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+		// three RO sessions busy and three more RO operations waiting for them
+		List<Future<Object>> readOnly = new ArrayList<>();
+		for (int i = 0; i < 6; i++)
+			readOnly.add(executor.submit(() -> sessionPool.execute(slot, "1234", false, session -> {
+				await(release);
+				return null;
+			})));
+
+		Future<Session> readWrite = executor.submit(() -> sessionPool.execute(slot, "1234", true, session -> session));
+		assertNotNull(readWrite.get(2, TimeUnit.SECONDS));
+
+		release.countDown();
+		for (Future<Object> operation : readOnly)
+			operation.get(5, TimeUnit.SECONDS);
+		executor.shutdown();
+	}
+
+	@Test
+	void nestedExecuteRunsOnTheNativeThread() throws TokenException {
+		String outer = sessionPool.execute(slot, "1234", false, session -> {
+			String inner = sessionPool.execute(slot, "1234", false, nested -> Thread.currentThread().getName());
+			assertEquals(Thread.currentThread().getName(), inner);
+			return inner;
+		});
+		assertTrue(outer.startsWith("hsm-slot-7-ro-"));
+	}
+}
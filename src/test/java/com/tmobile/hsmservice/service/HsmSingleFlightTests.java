@@ -0,0 +1,108 @@
+package com.tmobile.hsmservice.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.tmobile.hsmservice.exception.SessionUnavailableException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class HsmSingleFlightTests {
+
+	private HsmSingleFlight singleFlight;
+
+	private SimpleMeterRegistry meterRegistry;
+
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		HsmMetrics hsmMetrics = new HsmMetrics();
+		ReflectionTestUtils.setField(hsmMetrics, "meterRegistry", meterRegistry);
+		singleFlight = new HsmSingleFlight();
+		ReflectionTestUtils.setField(singleFlight, "hsmMetrics", hsmMetrics);
+		ReflectionTestUtils.setField(singleFlight, "enabled", true);
+		ReflectionTestUtils.setField(singleFlight, "waitTimeoutMs", 5000L);
+	}
+
+	@Test
+	void concurrentCallersShareOneLoad() throws Exception {
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		Object result = new Object();
+
+		ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+		List<Future<Object>> callers = new ArrayList<>();
+		callers.add(executor.submit(() -> singleFlight.execute("objects", () -> {
+			loads.incrementAndGet();
+			release.await();
+			return result;
+		})));
+		// the first caller is loading until released
+		while (loads.get() == 0)
+			Thread.onSpinWait();
+		for (int i = 0; i < 8; i++)
+			callers.add(executor.submit(() -> singleFlight.execute("objects", () -> {
+				loads.incrementAndGet();
+				return new Object();
+			})));
+		// released once all of them wait for the first load
+		while (meterRegistry.counter("hsm.cache.requests", "cache", "single-flight", "result", "hit").count() < 8)
+			Thread.sleep(1);
+		release.countDown();
+
+		for (Future<Object> caller : callers)
+			assertSame(result, caller.get(5, TimeUnit.SECONDS));
+		assertEquals(1, loads.get());
+		executor.shutdown();
+	}
+
+	@Test
+	void waitingCallerGivesUpAfterTimeout() throws Exception {
+		ReflectionTestUtils.setField(singleFlight, "waitTimeoutMs", 50L);
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+		Future<String> first = executor.submit(() -> singleFlight.execute("objects", () -> {
+			loading.countDown();
+			release.await();
+			return "loaded";
+		}));
+		loading.await();
+
+		assertThrows(SessionUnavailableException.class, () -> singleFlight.execute("objects", () -> "again"));
+		// the load goes on for its own caller
+		release.countDown();
+		assertEquals("loaded", first.get(5, TimeUnit.SECONDS));
+		executor.shutdown();
+	}
+
+	@Test
+	void failureIsNotKept() {
+		assertThrows(IllegalStateException.class, () -> singleFlight.execute("key-rings", () -> {
+			throw new IllegalStateException("unavailable");
+		}));
+		assertEquals("loaded", singleFlight.execute("key-rings", () -> "loaded"));
+	}
+
+	@Test
+	void digestDependsOnSecret() {
+		assertEquals(singleFlight.digest("1234"), singleFlight.digest("1234"));
+		assertNotEquals(singleFlight.digest("1234"), singleFlight.digest("4321"));
+	}
+}